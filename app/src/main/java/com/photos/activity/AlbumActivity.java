@@ -82,6 +82,10 @@ public class AlbumActivity extends AppCompatActivity implements PhotoAdapter.Pho
         // Setup FAB
         FloatingActionButton fabAddPhoto = findViewById(R.id.fabAddPhoto);
         fabAddPhoto.setOnClickListener(v -> pickImage());
+        // Smart album photos follow their query, so they cannot be added by hand
+        if (album.isSmart()) {
+            fabAddPhoto.setVisibility(View.GONE);
+        }
 
         updateEmptyState();
     }
@@ -109,8 +113,7 @@ public class AlbumActivity extends AppCompatActivity implements PhotoAdapter.Pho
 
     private void addPhotoFromUri(Uri uri) {
         Photo photo = new Photo(uri.toString());
-        if (album.addPhoto(photo)) {
-            dataManager.saveData();
+        if (dataManager.addPhoto(album, photo)) {
             adapter.notifyItemInserted(photos.size() - 1);
             updateEmptyState();
         } else {
@@ -132,6 +135,12 @@ public class AlbumActivity extends AppCompatActivity implements PhotoAdapter.Pho
     }
 
     private void showPhotoOptions(Photo photo, int position) {
+        if (album.isSmart()) {
+            // Photos in a smart album are moved or removed from their own album
+            onPhotoClick(photo, position);
+            return;
+        }
+
         String[] options = {
                 getString(R.string.display_photo),
                 getString(R.string.move_photo),
@@ -162,7 +171,7 @@ public class AlbumActivity extends AppCompatActivity implements PhotoAdapter.Pho
         // Filter out current album
         java.util.ArrayList<Album> otherAlbums = new java.util.ArrayList<>();
         for (Album a : allAlbums) {
-            if (!a.getName().equals(album.getName())) {
+            if (!a.isSmart() && !a.getName().equals(album.getName())) {
                 otherAlbums.add(a);
             }
         }
@@ -198,8 +207,7 @@ public class AlbumActivity extends AppCompatActivity implements PhotoAdapter.Pho
                 .setTitle(R.string.remove_photo)
                 .setMessage(R.string.confirm_remove_photo)
                 .setPositiveButton(R.string.delete, (dialog, which) -> {
-                    album.removePhoto(photo);
-                    dataManager.saveData();
+                    dataManager.removePhoto(album, photo);
                     adapter.notifyItemRemoved(position);
                     updateEmptyState();
                 })
@@ -18,6 +18,7 @@ import com.photos.R;
 import com.photos.adapter.AlbumAdapter;
 import com.photos.model.Album;
 import com.photos.model.DataManager;
+import com.photos.model.MetadataScanner;
 
 import java.util.List;
 
@@ -50,6 +51,10 @@ public class MainActivity extends AppCompatActivity implements AlbumAdapter.Albu
                 startActivity(new Intent(this, SearchActivity.class));
                 return true;
             }
+            if (item.getItemId() == R.id.action_timeline) {
+                startActivity(new Intent(this, TimelineActivity.class));
+                return true;
+            }
             return false;
         });
 
@@ -65,6 +70,9 @@ public class MainActivity extends AppCompatActivity implements AlbumAdapter.Albu
         fabAddAlbum.setOnClickListener(v -> showCreateAlbumDialog());
 
         updateEmptyState();
+
+        // Read GPS positions and capture times of newly added photos in the background
+        MetadataScanner.getInstance().start(this);
     }
 
     @Override
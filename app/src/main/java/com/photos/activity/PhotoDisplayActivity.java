@@ -1,9 +1,8 @@
 package com.photos.activity;
 
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.net.Uri;
+import android.content.Intent;
 import android.os.Bundle;
+import android.util.DisplayMetrics;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.widget.ArrayAdapter;
@@ -21,20 +20,27 @@ import com.google.android.material.appbar.MaterialToolbar;
 import com.google.android.material.chip.Chip;
 import com.google.android.material.chip.ChipGroup;
 import com.photos.R;
+import com.photos.image.SlideshowPrefetcher;
 import com.photos.model.Album;
 import com.photos.model.DataManager;
 import com.photos.model.Photo;
+import com.photos.model.SearchCursor;
+import com.photos.model.SmartAlbum;
 import com.photos.model.Tag;
 
-import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 
 /**
  * Activity for displaying a single photo with slideshow and tag management.
+ * Opened from an album, the slideshow walks the album; opened from search results,
+ * it walks the results.
  */
 public class PhotoDisplayActivity extends AppCompatActivity {
 
+    /** Number of ranked suggestions shown at the top of the add-tag list. */
+    private static final int MAX_TAG_SUGGESTIONS = 10;
+
     private ImageView photoImageView;
     private TextView photoCounter;
     private TextView noTagsText;
@@ -42,13 +48,19 @@ public class PhotoDisplayActivity extends AppCompatActivity {
     private Button btnAddTag;
     private Button btnMovePhoto;
     private Button btnRemovePhoto;
+    private Button btnNearby;
     private ImageButton btnPrevious;
     private ImageButton btnNext;
 
     private DataManager dataManager;
     private Album album;
     private List<Photo> photos;
+    private SearchCursor results;
+    // Search results are shared with SearchActivity and copied before the first change
+    private boolean resultsCopied;
     private int currentIndex;
+    private int direction = 1;
+    private SlideshowPrefetcher prefetcher;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -57,23 +69,52 @@ public class PhotoDisplayActivity extends AppCompatActivity {
 
         dataManager = DataManager.getInstance();
 
+        // Walk the search results if opened from SearchActivity; results are read as shown
+        SearchCursor resultSet = dataManager.getResultSet(getIntent().getIntExtra("result_set", 0));
+        if (resultSet != null && !resultSet.isEmpty()) {
+            results = resultSet;
+            currentIndex = getIntent().getIntExtra("result_index", 0);
+            if (currentIndex < 0 || currentIndex >= results.getCount()) {
+                currentIndex = 0;
+            }
+            initViews();
+            displayCurrentPhoto();
+            return;
+        }
+
         // Get album and photo from intent
+        long albumId = getIntent().getLongExtra("album_id", 0);
         String albumName = getIntent().getStringExtra("album_name");
         currentIndex = getIntent().getIntExtra("photo_index", 0);
 
-        if (albumName == null) {
+        if (albumId != 0) {
+            album = dataManager.getAlbumById(albumId);
+        } else if (albumName != null) {
+            album = dataManager.getAlbumByName(albumName);
+        }
+        if (album == null || album.getPhotos().isEmpty()) {
             finish();
             return;
         }
 
-        album = dataManager.getAlbumByName(albumName);
-        if (album == null || album.getPhotos().isEmpty()) {
-            finish();
+        if (album.isSmart()) {
+            // Walk the smart album's photos in the context of their own albums
+            results = SearchCursor.of(dataManager.getSmartAlbumResults((SmartAlbum) album));
+            resultsCopied = true;
+            if (results.isEmpty()) {
+                finish();
+                return;
+            }
+            if (currentIndex < 0 || currentIndex >= results.getCount()) {
+                currentIndex = 0;
+            }
+            initViews();
+            displayCurrentPhoto();
             return;
         }
 
         photos = album.getPhotos();
-        if (currentIndex >= photos.size()) {
+        if (currentIndex < 0 || currentIndex >= photos.size()) {
             currentIndex = 0;
         }
 
@@ -93,9 +134,16 @@ public class PhotoDisplayActivity extends AppCompatActivity {
         btnAddTag = findViewById(R.id.btnAddTag);
         btnMovePhoto = findViewById(R.id.btnMovePhoto);
         btnRemovePhoto = findViewById(R.id.btnRemovePhoto);
+        btnNearby = findViewById(R.id.btnNearby);
         btnPrevious = findViewById(R.id.btnPrevious);
         btnNext = findViewById(R.id.btnNext);
 
+        // Decode for the view: screen wide and as tall as laid out
+        DisplayMetrics metrics = getResources().getDisplayMetrics();
+        int height = photoImageView.getLayoutParams().height > 0
+                ? photoImageView.getLayoutParams().height : metrics.heightPixels;
+        prefetcher = new SlideshowPrefetcher(this, metrics.widthPixels, height);
+
         // Navigation buttons
         btnPrevious.setOnClickListener(v -> showPreviousPhoto());
         btnNext.setOnClickListener(v -> showNextPhoto());
@@ -106,63 +154,173 @@ public class PhotoDisplayActivity extends AppCompatActivity {
         // Photo actions
         btnMovePhoto.setOnClickListener(v -> showMovePhotoDialog());
         btnRemovePhoto.setOnClickListener(v -> confirmRemovePhoto());
+        btnNearby.setOnClickListener(v -> showNearbyPhotos());
+
+        // Tapping the photo opens it full screen with zoom
+        photoImageView.setOnClickListener(v -> showFullScreen());
 
         // Update navigation visibility
         updateNavigationVisibility();
     }
 
+    private int getPhotoCount() {
+        return results != null ? results.getCount() : photos.size();
+    }
+
+    private Photo getCurrentPhoto() {
+        return getPhotoAt(currentIndex);
+    }
+
+    private Photo getPhotoAt(int index) {
+        return results != null ? results.getPhoto(index) : photos.get(index);
+    }
+
+    private Album getCurrentAlbum() {
+        return results != null ? results.getAlbum(currentIndex) : album;
+    }
+
+    /**
+     * Gets the search results ready to be changed, copying them the first time.
+     */
+    private SearchCursor getOwnResults() {
+        if (!resultsCopied) {
+            results = results.copy();
+            resultsCopied = true;
+        }
+        return results;
+    }
+
+    /**
+     * Drops results whose photo has left its album since the search, from the
+     * current one on.
+     *
+     * @return false if no result is left
+     */
+    private boolean skipMissingResults() {
+        boolean skipped = false;
+        while (results != null && !results.isEmpty() && results.getPhoto(currentIndex) == null) {
+            getOwnResults().remove(currentIndex);
+            if (currentIndex >= results.getCount()) {
+                currentIndex = 0;
+            }
+            skipped = true;
+        }
+        if (skipped) {
+            updateNavigationVisibility();
+        }
+        return getPhotoCount() > 0;
+    }
+
     private void updateNavigationVisibility() {
-        boolean hasMultiplePhotos = photos.size() > 1;
+        boolean hasMultiplePhotos = getPhotoCount() > 1;
         btnPrevious.setVisibility(hasMultiplePhotos ? View.VISIBLE : View.INVISIBLE);
         btnNext.setVisibility(hasMultiplePhotos ? View.VISIBLE : View.INVISIBLE);
     }
 
     private void displayCurrentPhoto() {
-        Photo photo = photos.get(currentIndex);
+        if (!skipMissingResults()) {
+            finish();
+            return;
+        }
+        Photo photo = getCurrentPhoto();
 
         // Update toolbar title
         MaterialToolbar toolbar = findViewById(R.id.toolbar);
         toolbar.setTitle(photo.getDisplayName(this));
 
         // Update counter
-        photoCounter.setText((currentIndex + 1) + " / " + photos.size());
+        photoCounter.setText((currentIndex + 1) + " / " + getPhotoCount());
 
-        // Load image
-        loadFullImage(photoImageView, photo.getUriString());
+        // Show the image, decoding the ones likely to be shown next
+        prefetcher.show(photoImageView, photo.getUriString(), R.drawable.photo_placeholder, getUpcomingUris());
 
         // Update tags
         updateTagsDisplay();
+
+        // Nearby search needs a GPS position
+        btnNearby.setEnabled(photo.hasLocation());
     }
 
-    private void loadFullImage(ImageView imageView, String uriString) {
-        try {
-            Uri uri = Uri.parse(uriString);
-            InputStream inputStream = getContentResolver().openInputStream(uri);
-            if (inputStream != null) {
-                Bitmap bitmap = BitmapFactory.decodeStream(inputStream);
-                inputStream.close();
-                if (bitmap != null) {
-                    imageView.setImageBitmap(bitmap);
-                    return;
-                }
+    private void showFullScreen() {
+        Photo photo = getCurrentPhoto();
+        Intent intent = new Intent(this, PhotoViewerActivity.class);
+        intent.putExtra("photo_uri", photo.getUriString());
+        intent.putExtra("photo_name", photo.getDisplayName(this));
+        startActivity(intent);
+    }
+
+    private void showNearbyPhotos() {
+        Intent intent = new Intent(this, SearchActivity.class);
+        intent.putExtra("near_photo_id", getCurrentPhoto().getId());
+        startActivity(intent);
+    }
+
+    /**
+     * Gets the photos the slideshow is likely to show next: the neighbours, then a
+     * few more in the direction it is moving. The slideshow wraps around.
+     *
+     * @return URI strings, most likely first
+     */
+    private List<String> getUpcomingUris() {
+        String current = getCurrentPhoto().getUriString();
+        List<String> uris = new ArrayList<>();
+        for (int position : SlideshowPrefetcher.upcomingPositions(currentIndex, getPhotoCount(), direction)) {
+            Photo photo = getPhotoAt(position);
+            if (photo == null) continue;
+            String uri = photo.getUriString();
+            if (!uri.equals(current) && !uris.contains(uri)) {
+                uris.add(uri);
             }
-        } catch (Exception e) {
-            e.printStackTrace();
         }
-        imageView.setImageResource(R.drawable.photo_placeholder);
+        return uris;
+    }
+
+    @Override
+    protected void onRestart() {
+        super.onRestart();
+        if (prefetcher == null) return;
+        Photo photo = getPhotoCount() > 0 ? getCurrentPhoto() : null;
+        if (photo == null) {
+            // The shown photo was removed while the slideshow was hidden
+            displayCurrentPhoto();
+            return;
+        }
+        // The decode of the shown photo was dropped too if it had not finished
+        List<String> wanted = new ArrayList<>();
+        wanted.add(photo.getUriString());
+        wanted.addAll(getUpcomingUris());
+        prefetcher.prefetch(wanted);
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        if (prefetcher != null) {
+            prefetcher.cancel();
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (prefetcher != null) {
+            prefetcher.shutdown();
+        }
     }
 
     private void showPreviousPhoto() {
+        direction = -1;
         if (currentIndex > 0) {
             currentIndex--;
         } else {
-            currentIndex = photos.size() - 1;
+            currentIndex = getPhotoCount() - 1;
         }
         displayCurrentPhoto();
     }
 
     private void showNextPhoto() {
-        if (currentIndex < photos.size() - 1) {
+        direction = 1;
+        if (currentIndex < getPhotoCount() - 1) {
             currentIndex++;
         } else {
             currentIndex = 0;
@@ -171,7 +329,7 @@ public class PhotoDisplayActivity extends AppCompatActivity {
     }
 
     private void updateTagsDisplay() {
-        Photo photo = photos.get(currentIndex);
+        Photo photo = getCurrentPhoto();
         List<Tag> tags = photo.getTags();
 
         tagsChipGroup.removeAllViews();
@@ -212,7 +370,8 @@ public class PhotoDisplayActivity extends AppCompatActivity {
         AutoCompleteTextView autoCompleteTagValue = dialogView.findViewById(R.id.autoCompleteTagValue);
 
         // Setup spinner with tag types
-        String[] tagTypes = {Tag.TYPE_PERSON, Tag.TYPE_LOCATION};
+        String[] tagTypes = {Tag.TYPE_PERSON, Tag.TYPE_LOCATION, Tag.TYPE_DATE, Tag.TYPE_RATING,
+                Tag.TYPE_NUMBER};
         ArrayAdapter<String> spinnerAdapter = new ArrayAdapter<>(this,
                 android.R.layout.simple_spinner_dropdown_item, tagTypes);
         spinnerTagType.setAdapter(spinnerAdapter);
@@ -243,12 +402,15 @@ public class PhotoDisplayActivity extends AppCompatActivity {
                         showError(getString(R.string.empty_name));
                         return;
                     }
+                    if (Tag.isRangeType(tagType) && Double.isNaN(Tag.parseValue(tagType, tagValue))) {
+                        showError(getString(R.string.invalid_tag_value));
+                        return;
+                    }
 
-                    Photo photo = photos.get(currentIndex);
+                    Photo photo = getCurrentPhoto();
                     Tag newTag = new Tag(tagType, tagValue);
 
-                    if (photo.addTag(newTag)) {
-                        dataManager.saveData();
+                    if (dataManager.addTag(getCurrentAlbum(), photo, newTag)) {
                         updateTagsDisplay();
                     } else {
                         showError(getString(R.string.tag_exists));
@@ -259,11 +421,36 @@ public class PhotoDisplayActivity extends AppCompatActivity {
     }
 
     private void updateAutoComplete(AutoCompleteTextView autoComplete, String tagType) {
-        List<String> suggestions = dataManager.getTagValuesWithPrefix(tagType, "");
+        // Most likely values for this photo first, then every other value alphabetically
+        List<String> suggestions = dataManager.suggestTagValues(getCurrentAlbum(), getCurrentPhoto(),
+                tagType, MAX_TAG_SUGGESTIONS);
+        for (String value : dataManager.getTagValuesWithPrefix(tagType, "")) {
+            if (!containsIgnoreCase(suggestions, value)) {
+                suggestions.add(value);
+            }
+        }
         ArrayAdapter<String> adapter = new ArrayAdapter<>(this,
                 android.R.layout.simple_dropdown_item_1line, suggestions);
         autoComplete.setAdapter(adapter);
         autoComplete.setThreshold(1); // Show suggestions after 1 character
+
+        // Offer the ranked suggestions before anything is typed
+        if (autoComplete.getText().length() == 0 && !suggestions.isEmpty()) {
+            autoComplete.post(() -> {
+                if (autoComplete.isAttachedToWindow()) {
+                    autoComplete.showDropDown();
+                }
+            });
+        }
+    }
+
+    private static boolean containsIgnoreCase(List<String> values, String value) {
+        for (String v : values) {
+            if (v.equalsIgnoreCase(value)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     private void confirmDeleteTag(Tag tag, Chip chip) {
@@ -271,9 +458,8 @@ public class PhotoDisplayActivity extends AppCompatActivity {
                 .setTitle(R.string.delete_tag)
                 .setMessage(R.string.confirm_delete_tag)
                 .setPositiveButton(R.string.delete, (dialog, which) -> {
-                    Photo photo = photos.get(currentIndex);
-                    photo.removeTag(tag);
-                    dataManager.saveData();
+                    Photo photo = getCurrentPhoto();
+                    dataManager.removeTag(getCurrentAlbum(), photo, tag);
                     tagsChipGroup.removeView(chip);
                     if (photo.getTags().isEmpty()) {
                         noTagsText.setVisibility(View.VISIBLE);
@@ -285,11 +471,12 @@ public class PhotoDisplayActivity extends AppCompatActivity {
 
     private void showMovePhotoDialog() {
         List<Album> allAlbums = dataManager.getAlbums();
+        Album currentAlbum = getCurrentAlbum();
 
         // Filter out current album
         List<Album> otherAlbums = new ArrayList<>();
         for (Album a : allAlbums) {
-            if (!a.getName().equals(album.getName())) {
+            if (!a.isSmart() && !a.getName().equals(currentAlbum.getName())) {
                 otherAlbums.add(a);
             }
         }
@@ -307,11 +494,16 @@ public class PhotoDisplayActivity extends AppCompatActivity {
         new AlertDialog.Builder(this)
                 .setTitle(R.string.select_target_album)
                 .setItems(albumNames, (dialog, which) -> {
-                    Photo photo = photos.get(currentIndex);
+                    Photo photo = getCurrentPhoto();
                     Album targetAlbum = otherAlbums.get(which);
 
-                    if (dataManager.movePhoto(photo, album, targetAlbum)) {
-                        if (photos.isEmpty()) {
+                    if (dataManager.movePhoto(photo, currentAlbum, targetAlbum)) {
+                        if (results != null) {
+                            // The photo stays in the results, now in its new album
+                            getOwnResults().set(currentIndex, targetAlbum,
+                                    targetAlbum.getPhotoCount() - 1, photo);
+                            displayCurrentPhoto();
+                        } else if (photos.isEmpty()) {
                             finish();
                         } else {
                             if (currentIndex >= photos.size()) {
@@ -334,15 +526,17 @@ public class PhotoDisplayActivity extends AppCompatActivity {
                 .setTitle(R.string.remove_photo)
                 .setMessage(R.string.confirm_remove_photo)
                 .setPositiveButton(R.string.delete, (dialog, which) -> {
-                    Photo photo = photos.get(currentIndex);
-                    album.removePhoto(photo);
-                    dataManager.saveData();
+                    Photo photo = getCurrentPhoto();
+                    dataManager.removePhoto(getCurrentAlbum(), photo);
+                    if (results != null) {
+                        getOwnResults().remove(currentIndex);
+                    }
 
-                    if (photos.isEmpty()) {
+                    if (getPhotoCount() == 0) {
                         finish();
                     } else {
-                        if (currentIndex >= photos.size()) {
-                            currentIndex = photos.size() - 1;
+                        if (currentIndex >= getPhotoCount()) {
+                            currentIndex = getPhotoCount() - 1;
                         }
                         displayCurrentPhoto();
                         updateNavigationVisibility();
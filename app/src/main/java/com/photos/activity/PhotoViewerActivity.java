@@ -0,0 +1,48 @@
+package com.photos.activity;
+
+import android.net.Uri;
+import android.os.Bundle;
+
+import androidx.appcompat.app.AppCompatActivity;
+
+import com.google.android.material.appbar.MaterialToolbar;
+import com.photos.R;
+import com.photos.image.TiledImageView;
+
+/**
+ * Activity showing one photo full screen with pinch, pan and double-tap zoom.
+ * Large photos such as panoramas and scans are decoded tile by tile as the user
+ * zooms in, so they open without decoding the whole image.
+ */
+public class PhotoViewerActivity extends AppCompatActivity {
+
+    private TiledImageView tiledImageView;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_photo_viewer);
+
+        String uriString = getIntent().getStringExtra("photo_uri");
+        if (uriString == null) {
+            finish();
+            return;
+        }
+
+        // Setup toolbar
+        MaterialToolbar toolbar = findViewById(R.id.toolbar);
+        toolbar.setTitle(getIntent().getStringExtra("photo_name"));
+        toolbar.setNavigationOnClickListener(v -> finish());
+
+        tiledImageView = findViewById(R.id.tiledImageView);
+        tiledImageView.setImageUri(Uri.parse(uriString));
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (tiledImageView != null) {
+            tiledImageView.release();
+        }
+    }
+}
@@ -3,17 +3,21 @@ package com.photos.activity;
 import android.content.Intent;
 import android.os.Bundle;
 import android.text.Editable;
+import android.text.InputType;
 import android.text.TextWatcher;
 import android.view.View;
 import android.widget.ArrayAdapter;
 import android.widget.AutoCompleteTextView;
 import android.widget.Button;
+import android.widget.CheckBox;
+import android.widget.EditText;
 import android.widget.LinearLayout;
 import android.widget.RadioButton;
 import android.widget.RadioGroup;
 import android.widget.Spinner;
 import android.widget.TextView;
 
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.recyclerview.widget.GridLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
@@ -21,8 +25,15 @@ import androidx.recyclerview.widget.RecyclerView;
 import com.google.android.material.appbar.MaterialToolbar;
 import com.photos.R;
 import com.photos.adapter.SearchResultAdapter;
+import com.photos.adapter.SuggestionAdapter;
 import com.photos.model.DataManager;
 import com.photos.model.DataManager.PhotoResult;
+import com.photos.model.IncrementalSearch;
+import com.photos.model.MatchMode;
+import com.photos.model.Photo;
+import com.photos.model.RankedSearch;
+import com.photos.model.SearchCursor;
+import com.photos.model.SearchQuery;
 import com.photos.model.Tag;
 
 import java.util.ArrayList;
@@ -34,25 +45,39 @@ import java.util.List;
  */
 public class SearchActivity extends AppCompatActivity implements SearchResultAdapter.SearchResultClickListener {
 
+    /** Number of results kept when ranking, however many photos match. */
+    private static final int RANKED_LIMIT = 200;
+    private static final int NEARBY_RADIUS_KM = 5;
+
     private RadioGroup searchModeGroup;
     private RadioButton radioSingle;
     private RadioButton radioAnd;
     private RadioButton radioOr;
+    private CheckBox checkLiveSearch;
+    private CheckBox checkRanked;
+    private Spinner spinnerMatchMode;
 
     private Spinner spinnerType1;
     private AutoCompleteTextView autoCompleteValue1;
+    private TextView matchCount1;
     private LinearLayout secondTagLayout;
     private Spinner spinnerType2;
     private AutoCompleteTextView autoCompleteValue2;
+    private TextView matchCount2;
     private Button btnSearch;
+    private Button btnSaveSmartAlbum;
 
     private TextView resultsTitle;
     private RecyclerView resultsRecyclerView;
     private TextView noResultsText;
 
     private DataManager dataManager;
+    private IncrementalSearch incrementalSearch;
     private SearchResultAdapter adapter;
-    private List<PhotoResult> searchResults;
+    private SearchCursor searchResults;
+    private long searchResultsGeneration;
+    private int resultSetHandle;
+    private Photo nearPhoto;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -60,10 +85,26 @@ public class SearchActivity extends AppCompatActivity implements SearchResultAda
         setContentView(R.layout.activity_search);
 
         dataManager = DataManager.getInstance();
-        searchResults = new ArrayList<>();
+        incrementalSearch = new IncrementalSearch(dataManager);
+        searchResults = SearchCursor.empty();
 
         initViews();
         setupListeners();
+
+        // Opened from a photo's "Photos Nearby" action
+        long nearPhotoId = getIntent().getLongExtra("near_photo_id", 0);
+        if (nearPhotoId != 0) {
+            nearPhoto = dataManager.getPhotoById(nearPhotoId);
+            if (nearPhoto != null) {
+                showNearbyResults();
+            }
+        }
+    }
+
+    private void showNearbyResults() {
+        displayResults(dataManager.searchNear(nearPhoto, NEARBY_RADIUS_KM));
+        MaterialToolbar toolbar = findViewById(R.id.toolbar);
+        toolbar.setTitle(getString(R.string.nearby_title, NEARBY_RADIUS_KM, nearPhoto.getDisplayName(this)));
     }
 
     private void initViews() {
@@ -76,18 +117,24 @@ public class SearchActivity extends AppCompatActivity implements SearchResultAda
         radioSingle = findViewById(R.id.radioSingle);
         radioAnd = findViewById(R.id.radioAnd);
         radioOr = findViewById(R.id.radioOr);
+        checkLiveSearch = findViewById(R.id.checkLiveSearch);
+        checkRanked = findViewById(R.id.checkRanked);
+        spinnerMatchMode = findViewById(R.id.spinnerMatchMode);
 
         // First tag
         spinnerType1 = findViewById(R.id.spinnerType1);
         autoCompleteValue1 = findViewById(R.id.autoCompleteValue1);
+        matchCount1 = findViewById(R.id.matchCount1);
 
         // Second tag
         secondTagLayout = findViewById(R.id.secondTagLayout);
         spinnerType2 = findViewById(R.id.spinnerType2);
         autoCompleteValue2 = findViewById(R.id.autoCompleteValue2);
+        matchCount2 = findViewById(R.id.matchCount2);
 
         // Search button
         btnSearch = findViewById(R.id.btnSearch);
+        btnSaveSmartAlbum = findViewById(R.id.btnSaveSmartAlbum);
 
         // Results
         resultsTitle = findViewById(R.id.resultsTitle);
@@ -95,12 +142,19 @@ public class SearchActivity extends AppCompatActivity implements SearchResultAda
         noResultsText = findViewById(R.id.noResultsText);
 
         // Setup spinners
-        String[] tagTypes = {Tag.TYPE_PERSON, Tag.TYPE_LOCATION};
+        String[] tagTypes = {Tag.TYPE_PERSON, Tag.TYPE_LOCATION, Tag.TYPE_DATE, Tag.TYPE_RATING,
+                Tag.TYPE_NUMBER};
         ArrayAdapter<String> spinnerAdapter = new ArrayAdapter<>(this,
                 android.R.layout.simple_spinner_dropdown_item, tagTypes);
         spinnerType1.setAdapter(spinnerAdapter);
         spinnerType2.setAdapter(spinnerAdapter);
 
+        // Match modes, in MatchMode order
+        String[] matchModes = {getString(R.string.match_prefix), getString(R.string.match_fuzzy),
+                getString(R.string.match_contains)};
+        spinnerMatchMode.setAdapter(new ArrayAdapter<>(this,
+                android.R.layout.simple_spinner_dropdown_item, matchModes));
+
         // Setup RecyclerView
         resultsRecyclerView.setLayoutManager(new GridLayoutManager(this, 2));
         adapter = new SearchResultAdapter(this, searchResults, this);
@@ -112,6 +166,29 @@ public class SearchActivity extends AppCompatActivity implements SearchResultAda
         searchModeGroup.setOnCheckedChangeListener((group, checkedId) -> {
             boolean showSecondTag = (checkedId == R.id.radioAnd || checkedId == R.id.radioOr);
             secondTagLayout.setVisibility(showSecondTag ? View.VISIBLE : View.GONE);
+            onQueryChanged();
+        });
+
+        // Live search runs on every change while checked
+        checkLiveSearch.setOnCheckedChangeListener((button, isChecked) -> onQueryChanged());
+
+        // Ranking changes the order and size of the results, so re-run the search
+        checkRanked.setOnCheckedChangeListener((button, isChecked) -> {
+            incrementalSearch.reset();
+            onQueryChanged();
+        });
+
+        // Match mode changes - refresh suggestions and live results
+        spinnerMatchMode.setOnItemSelectedListener(new android.widget.AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(android.widget.AdapterView<?> parent, View view, int position, long id) {
+                updateMatchCounts();
+                onQueryChanged();
+            }
+
+            @Override
+            public void onNothingSelected(android.widget.AdapterView<?> parent) {
+            }
         });
 
         // Spinner selection changes - update auto-complete
@@ -119,6 +196,8 @@ public class SearchActivity extends AppCompatActivity implements SearchResultAda
             @Override
             public void onItemSelected(android.widget.AdapterView<?> parent, View view, int position, long id) {
                 updateAutoComplete(autoCompleteValue1, (String) spinnerType1.getSelectedItem());
+                updateMatchCounts();
+                onQueryChanged();
             }
 
             @Override
@@ -130,6 +209,8 @@ public class SearchActivity extends AppCompatActivity implements SearchResultAda
             @Override
             public void onItemSelected(android.widget.AdapterView<?> parent, View view, int position, long id) {
                 updateAutoComplete(autoCompleteValue2, (String) spinnerType2.getSelectedItem());
+                updateMatchCounts();
+                onQueryChanged();
             }
 
             @Override
@@ -147,6 +228,8 @@ public class SearchActivity extends AppCompatActivity implements SearchResultAda
             public void onTextChanged(CharSequence s, int start, int before, int count) {
                 updateAutoCompleteSuggestions(autoCompleteValue1,
                         (String) spinnerType1.getSelectedItem(), s.toString());
+                updateMatchCounts();
+                onQueryChanged();
             }
 
             @Override
@@ -163,6 +246,8 @@ public class SearchActivity extends AppCompatActivity implements SearchResultAda
             public void onTextChanged(CharSequence s, int start, int before, int count) {
                 updateAutoCompleteSuggestions(autoCompleteValue2,
                         (String) spinnerType2.getSelectedItem(), s.toString());
+                updateMatchCounts();
+                onQueryChanged();
             }
 
             @Override
@@ -173,6 +258,9 @@ public class SearchActivity extends AppCompatActivity implements SearchResultAda
         // Search button
         btnSearch.setOnClickListener(v -> performSearch());
 
+        // Save the current query as a smart album
+        btnSaveSmartAlbum.setOnClickListener(v -> showSaveSmartAlbumDialog());
+
         // Initialize auto-complete for first spinner
         updateAutoComplete(autoCompleteValue1, Tag.TYPE_PERSON);
         updateAutoComplete(autoCompleteValue2, Tag.TYPE_PERSON);
@@ -188,54 +276,207 @@ public class SearchActivity extends AppCompatActivity implements SearchResultAda
 
     private void updateAutoCompleteSuggestions(AutoCompleteTextView autoComplete,
                                                 String tagType, String prefix) {
-        List<String> suggestions = dataManager.getTagValuesWithPrefix(tagType, prefix);
-        ArrayAdapter<String> adapter = new ArrayAdapter<>(this,
-                android.R.layout.simple_dropdown_item_1line, suggestions);
-        autoComplete.setAdapter(adapter);
+        List<String> suggestions = dataManager.getTagValuesMatching(tagType, prefix,
+                getSelectedMatchMode());
+        // Suggestions are already matched, so the adapter must not filter them by prefix again
+        autoComplete.setAdapter(new SuggestionAdapter(this, suggestions));
     }
 
-    private void performSearch() {
-        String tagType1 = (String) spinnerType1.getSelectedItem();
-        String value1 = autoCompleteValue1.getText().toString().trim();
+    private void updateMatchCounts() {
+        if (matchCount1 == null || matchCount2 == null) {
+            return;
+        }
+        updateMatchCount(matchCount1, (String) spinnerType1.getSelectedItem(), autoCompleteValue1);
+        updateMatchCount(matchCount2, (String) spinnerType2.getSelectedItem(), autoCompleteValue2);
+    }
 
-        if (value1.isEmpty()) {
-            showNoResults();
+    private void updateMatchCount(TextView badge, String tagType, AutoCompleteTextView valueView) {
+        String prefix = valueView.getText().toString().trim();
+        if (Tag.isRangeType(tagType)) {
+            // Range counts come from two binary searches in the range index
+            SearchQuery.Term term = prefix.isEmpty() ? null : SearchQuery.Term.parseRange(tagType, prefix);
+            if (term == null) {
+                badge.setVisibility(View.GONE);
+                return;
+            }
+            int count = dataManager.getRangeIndex().countInRange(tagType, term.getMin(), term.getMax());
+            badge.setText(getString(R.string.match_count, count));
+            badge.setVisibility(View.VISIBLE);
+            return;
+        }
+        // Facet counts are kept per prefix, so the badge never scans photos
+        if (prefix.isEmpty() || getSelectedMatchMode() != MatchMode.PREFIX) {
+            badge.setVisibility(View.GONE);
             return;
         }
+        int count = dataManager.getTagFacets().getCountWithPrefix(tagType, prefix);
+        badge.setText(getString(R.string.match_count, count));
+        badge.setVisibility(View.VISIBLE);
+    }
+
+    private MatchMode getSelectedMatchMode() {
+        return MatchMode.values()[spinnerMatchMode.getSelectedItemPosition()];
+    }
 
-        List<PhotoResult> results;
+    private SearchQuery buildQuery() {
+        SearchQuery.Term term1 = buildTerm((String) spinnerType1.getSelectedItem(), autoCompleteValue1);
+        if (term1 == null) {
+            return null;
+        }
 
         if (radioSingle.isChecked()) {
             // Single tag search
-            results = dataManager.searchByTag(tagType1, value1);
+            return SearchQuery.and(term1);
+        }
+
+        SearchQuery.Term term2 = buildTerm((String) spinnerType2.getSelectedItem(), autoCompleteValue2);
+        if (term2 == null) {
+            // Treat as single tag search if second value is empty
+            return SearchQuery.and(term1);
+        } else if (radioAnd.isChecked()) {
+            // AND search
+            return SearchQuery.and(term1, term2);
         } else {
-            String tagType2 = (String) spinnerType2.getSelectedItem();
-            String value2 = autoCompleteValue2.getText().toString().trim();
-
-            if (value2.isEmpty()) {
-                // Treat as single tag search if second value is empty
-                results = dataManager.searchByTag(tagType1, value1);
-            } else if (radioAnd.isChecked()) {
-                // AND search
-                results = dataManager.searchByTagsAnd(tagType1, value1, tagType2, value2);
-            } else {
-                // OR search
-                results = dataManager.searchByTagsOr(tagType1, value1, tagType2, value2);
-            }
+            // OR search
+            return SearchQuery.or(term1, term2);
         }
+    }
 
-        displayResults(results);
+    /**
+     * Builds a term from a tag type and the text entered for it.
+     * Date, rating and number types take a value or range, e.g. "4", ">=4" or
+     * "2024-06-01..2024-08-31"; other types use the selected match mode.
+     *
+     * @return The term, or null if the text is empty or not a valid range
+     */
+    private SearchQuery.Term buildTerm(String tagType, AutoCompleteTextView valueView) {
+        String value = valueView.getText().toString().trim();
+        if (value.isEmpty()) {
+            return null;
+        }
+        if (Tag.isRangeType(tagType)) {
+            return SearchQuery.Term.parseRange(tagType, value);
+        }
+        return new SearchQuery.Term(tagType, value, getSelectedMatchMode());
     }
 
-    private void displayResults(List<PhotoResult> results) {
-        searchResults.clear();
-        searchResults.addAll(results);
-        adapter.notifyDataSetChanged();
+    private boolean hasInvalidRange() {
+        return isInvalidRange((String) spinnerType1.getSelectedItem(), autoCompleteValue1)
+                || (!radioSingle.isChecked()
+                && isInvalidRange((String) spinnerType2.getSelectedItem(), autoCompleteValue2));
+    }
+
+    private boolean isInvalidRange(String tagType, AutoCompleteTextView valueView) {
+        String value = valueView.getText().toString().trim();
+        return Tag.isRangeType(tagType) && !value.isEmpty()
+                && SearchQuery.Term.parseRange(tagType, value) == null;
+    }
+
+    private void performSearch() {
+        nearPhoto = null;
+        if (hasInvalidRange()) {
+            showError(getString(R.string.invalid_range));
+            return;
+        }
+        SearchQuery query = buildQuery();
+        if (query == null) {
+            showNoResults();
+            return;
+        }
+        displayResults(isRanked() ? searchRanked(query) : dataManager.searchCursor(query));
+    }
+
+    private boolean isRanked() {
+        return checkRanked != null && checkRanked.isChecked();
+    }
+
+    private SearchCursor searchRanked(SearchQuery query) {
+        List<PhotoResult> results = new ArrayList<>();
+        for (RankedSearch.Hit hit : dataManager.searchRanked(query, RANKED_LIMIT)) {
+            results.add(hit.getResult());
+        }
+        return SearchCursor.of(results);
+    }
+
+    private void onQueryChanged() {
+        if (checkLiveSearch == null || !checkLiveSearch.isChecked()) {
+            return;
+        }
+
+        nearPhoto = null;
+        SearchQuery query = buildQuery();
+        if (query == null) {
+            incrementalSearch.reset();
+            displayResults(SearchCursor.empty());
+            return;
+        }
+        if (isRanked()) {
+            displayResults(searchRanked(query));
+            return;
+        }
+        // Narrowed queries filter the previous results instead of scanning every album
+        displayResults(incrementalSearch.search(query));
+    }
+
+    private void showSaveSmartAlbumDialog() {
+        SearchQuery query = buildQuery();
+        if (query == null) {
+            showError(getString(R.string.empty_query));
+            return;
+        }
+
+        EditText input = new EditText(this);
+        input.setInputType(InputType.TYPE_CLASS_TEXT);
+        input.setHint(R.string.enter_album_name);
+        input.setPadding(48, 32, 48, 32);
+
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.save_smart_album)
+                .setMessage(query.toString())
+                .setView(input)
+                .setPositiveButton(R.string.create, (dialog, which) -> {
+                    String name = input.getText().toString().trim();
+                    if (name.isEmpty()) {
+                        showError(getString(R.string.empty_name));
+                        return;
+                    }
+                    if (dataManager.addSmartAlbum(name, query) == null) {
+                        showError(getString(R.string.album_exists));
+                        return;
+                    }
+                    new AlertDialog.Builder(this)
+                            .setTitle(R.string.success)
+                            .setMessage(R.string.smart_album_created)
+                            .setPositiveButton(R.string.ok, null)
+                            .show();
+                })
+                .setNegativeButton(R.string.cancel, null)
+                .show();
+    }
+
+    private void showError(String message) {
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.error)
+                .setMessage(message)
+                .setPositiveButton(R.string.ok, null)
+                .show();
+    }
+
+    private void displayResults(SearchCursor results) {
+        // Share the results with PhotoDisplayActivity so it can walk them
+        if (resultSetHandle != 0) {
+            dataManager.releaseResultSet(resultSetHandle);
+        }
+        resultSetHandle = dataManager.registerResultSet(results);
+
+        searchResults = results;
+        searchResultsGeneration = dataManager.getGeneration();
+        adapter.setResults(results);
 
         if (results.isEmpty()) {
             showNoResults();
         } else {
-            resultsTitle.setText(getString(R.string.search_results, results.size()));
+            resultsTitle.setText(getString(R.string.search_results, results.getCount()));
             resultsTitle.setVisibility(View.VISIBLE);
             resultsRecyclerView.setVisibility(View.VISIBLE);
             noResultsText.setVisibility(View.GONE);
@@ -248,16 +489,41 @@ public class SearchActivity extends AppCompatActivity implements SearchResultAda
         noResultsText.setVisibility(View.VISIBLE);
     }
 
+    @Override
+    protected void onResume() {
+        super.onResume();
+        // Results point at album positions, so search again if photos were moved or removed
+        if (!searchResults.isEmpty() && searchResultsGeneration != dataManager.getGeneration()) {
+            if (nearPhoto != null) {
+                showNearbyResults();
+                return;
+            }
+            SearchQuery query = buildQuery();
+            if (query == null) {
+                displayResults(SearchCursor.empty());
+            } else {
+                incrementalSearch.reset();
+                displayResults(isRanked() ? searchRanked(query) : dataManager.searchCursor(query));
+            }
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (resultSetHandle != 0) {
+            dataManager.releaseResultSet(resultSetHandle);
+        }
+    }
+
     @Override
     public void onResultClick(PhotoResult result, int position) {
-        // Open photo in its album context
+        // Open photo in its album context, walking the search results on previous/next
         Intent intent = new Intent(this, PhotoDisplayActivity.class);
-        intent.putExtra("album_name", result.album.getName());
-        
-        // Find the photo index in the album
-        int photoIndex = result.album.getPhotos().indexOf(result.photo);
-        intent.putExtra("photo_index", photoIndex);
-        
+        intent.putExtra("album_id", result.albumId);
+        intent.putExtra("photo_index", result.resolvePosition());
+        intent.putExtra("result_set", resultSetHandle);
+        intent.putExtra("result_index", position);
         startActivity(intent);
     }
 }
@@ -0,0 +1,144 @@
+package com.photos.activity;
+
+import android.content.Intent;
+import android.os.Bundle;
+import android.view.View;
+import android.widget.TextView;
+
+import androidx.appcompat.app.AlertDialog;
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.recyclerview.widget.GridLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.google.android.material.appbar.MaterialToolbar;
+import com.photos.R;
+import com.photos.adapter.TimelineAdapter;
+import com.photos.model.Album;
+import com.photos.model.DataManager;
+import com.photos.model.MetadataListener;
+import com.photos.model.Photo;
+
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Activity showing every photo in the library by capture date, grouped by month and day.
+ * The layout follows capture times as MetadataScanner reads them, even while shown.
+ */
+public class TimelineActivity extends AppCompatActivity
+        implements TimelineAdapter.TimelineClickListener, MetadataListener {
+
+    private static final int SPAN_COUNT = 3;
+
+    private DataManager dataManager;
+    private RecyclerView timelineRecyclerView;
+    private GridLayoutManager layoutManager;
+    private TextView emptyText;
+    private TimelineAdapter adapter;
+    private long shownGeneration;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_timeline);
+
+        dataManager = DataManager.getInstance();
+
+        // Setup toolbar
+        MaterialToolbar toolbar = findViewById(R.id.toolbar);
+        toolbar.setNavigationOnClickListener(v -> finish());
+        toolbar.setOnMenuItemClickListener(item -> {
+            if (item.getItemId() == R.id.action_jump_to_month) {
+                showJumpToMonthDialog();
+                return true;
+            }
+            return false;
+        });
+
+        // Setup RecyclerView, headers spanning the full width
+        timelineRecyclerView = findViewById(R.id.timelineRecyclerView);
+        emptyText = findViewById(R.id.emptyText);
+        adapter = new TimelineAdapter(this, dataManager.getTimelineIndex(), this);
+        layoutManager = new GridLayoutManager(this, SPAN_COUNT);
+        layoutManager.setSpanSizeLookup(new GridLayoutManager.SpanSizeLookup() {
+            @Override
+            public int getSpanSize(int position) {
+                return adapter.isHeader(position) ? SPAN_COUNT : 1;
+            }
+        });
+        timelineRecyclerView.setLayoutManager(layoutManager);
+        timelineRecyclerView.setAdapter(adapter);
+        shownGeneration = dataManager.getGeneration();
+        dataManager.addMetadataListener(this);
+
+        updateEmptyState();
+    }
+
+    @Override
+    public void onMetadataApplied() {
+        // Scanned photos move between buckets, so the rows must be laid out again
+        adapter.refresh();
+        updateEmptyState();
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        // Photos may have been added or removed while away
+        if (shownGeneration != dataManager.getGeneration()) {
+            shownGeneration = dataManager.getGeneration();
+            adapter.refresh();
+            updateEmptyState();
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        dataManager.removeMetadataListener(this);
+    }
+
+    private void updateEmptyState() {
+        if (adapter.getItemCount() == 0) {
+            emptyText.setVisibility(View.VISIBLE);
+            timelineRecyclerView.setVisibility(View.GONE);
+        } else {
+            emptyText.setVisibility(View.GONE);
+            timelineRecyclerView.setVisibility(View.VISIBLE);
+        }
+    }
+
+    private void showJumpToMonthDialog() {
+        List<YearMonth> months = adapter.getMonths();
+        if (months.isEmpty()) {
+            return;
+        }
+        DateTimeFormatter format = DateTimeFormatter.ofPattern("MMMM yyyy", Locale.getDefault());
+        String[] labels = new String[months.size()];
+        for (int i = 0; i < labels.length; i++) {
+            labels[i] = months.get(i).format(format);
+        }
+
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.jump_to_month)
+                .setItems(labels, (dialog, which) ->
+                        layoutManager.scrollToPositionWithOffset(adapter.getRowOfMonth(months.get(which)), 0))
+                .setNegativeButton(R.string.cancel, null)
+                .show();
+    }
+
+    @Override
+    public void onTimelinePhotoClick(Photo photo) {
+        // Open the photo in the context of its album
+        Album album = dataManager.getAlbumOf(photo);
+        if (album == null) {
+            return;
+        }
+        Intent intent = new Intent(this, PhotoDisplayActivity.class);
+        intent.putExtra("album_id", album.getId());
+        intent.putExtra("photo_index", album.getPhotos().indexOf(photo));
+        startActivity(intent);
+    }
+}
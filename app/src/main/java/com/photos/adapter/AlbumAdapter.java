@@ -1,7 +1,6 @@
 package com.photos.adapter;
 
 import android.content.Context;
-import android.net.Uri;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -14,10 +13,10 @@ import androidx.annotation.NonNull;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.photos.R;
+import com.photos.image.ImageLoader;
 import com.photos.model.Album;
 import com.photos.model.Photo;
 
-import java.io.InputStream;
 import java.util.List;
 
 /**
@@ -60,6 +59,11 @@ public class AlbumAdapter extends RecyclerView.Adapter<AlbumAdapter.AlbumViewHol
         return albums.size();
     }
 
+    @Override
+    public void onViewRecycled(@NonNull AlbumViewHolder holder) {
+        ImageLoader.getInstance(context).cancel(holder.albumThumbnail);
+    }
+
     class AlbumViewHolder extends RecyclerView.ViewHolder {
         private final ImageView albumThumbnail;
         private final TextView albumName;
@@ -81,8 +85,10 @@ public class AlbumAdapter extends RecyclerView.Adapter<AlbumAdapter.AlbumViewHol
             // Load first photo as thumbnail
             if (!album.getPhotos().isEmpty()) {
                 Photo firstPhoto = album.getPhotos().get(0);
-                loadThumbnail(albumThumbnail, firstPhoto.getUriString());
+                ImageLoader.getInstance(context).loadThumbnail(albumThumbnail, firstPhoto.getUriString(),
+                        R.drawable.album_placeholder);
             } else {
+                ImageLoader.getInstance(context).cancel(albumThumbnail);
                 albumThumbnail.setImageResource(R.drawable.album_placeholder);
             }
 
@@ -116,24 +122,6 @@ public class AlbumAdapter extends RecyclerView.Adapter<AlbumAdapter.AlbumViewHol
             });
             popup.show();
         }
-
-        private void loadThumbnail(ImageView imageView, String uriString) {
-            try {
-                Uri uri = Uri.parse(uriString);
-                InputStream inputStream = context.getContentResolver().openInputStream(uri);
-                if (inputStream != null) {
-                    android.graphics.Bitmap bitmap = android.graphics.BitmapFactory.decodeStream(inputStream);
-                    inputStream.close();
-                    if (bitmap != null) {
-                        imageView.setImageBitmap(bitmap);
-                        return;
-                    }
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-            imageView.setImageResource(R.drawable.album_placeholder);
-        }
     }
 }
 
@@ -1,9 +1,6 @@
 package com.photos.adapter;
 
 import android.content.Context;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.net.Uri;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -14,9 +11,9 @@ import androidx.annotation.NonNull;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.photos.R;
+import com.photos.image.ImageLoader;
 import com.photos.model.Photo;
 
-import java.io.InputStream;
 import java.util.List;
 
 /**
@@ -58,6 +55,11 @@ public class PhotoAdapter extends RecyclerView.Adapter<PhotoAdapter.PhotoViewHol
         return photos.size();
     }
 
+    @Override
+    public void onViewRecycled(@NonNull PhotoViewHolder holder) {
+        ImageLoader.getInstance(context).cancel(holder.photoThumbnail);
+    }
+
     class PhotoViewHolder extends RecyclerView.ViewHolder {
         private final ImageView photoThumbnail;
         private final TextView photoName;
@@ -69,8 +71,9 @@ public class PhotoAdapter extends RecyclerView.Adapter<PhotoAdapter.PhotoViewHol
         }
 
         void bind(Photo photo, int position) {
-            photoName.setText(photo.getDisplayName(context));
-            loadThumbnail(photoThumbnail, photo.getUriString());
+            PhotoNames.bind(photoName, photo, null, context);
+            ImageLoader.getInstance(context).loadThumbnail(photoThumbnail, photo.getUriString(),
+                    R.drawable.photo_placeholder);
 
             itemView.setOnClickListener(v -> {
                 if (listener != null) {
@@ -86,27 +89,6 @@ public class PhotoAdapter extends RecyclerView.Adapter<PhotoAdapter.PhotoViewHol
                 return false;
             });
         }
-
-        private void loadThumbnail(ImageView imageView, String uriString) {
-            try {
-                Uri uri = Uri.parse(uriString);
-                InputStream inputStream = context.getContentResolver().openInputStream(uri);
-                if (inputStream != null) {
-                    // Decode with sampling for efficiency
-                    BitmapFactory.Options options = new BitmapFactory.Options();
-                    options.inSampleSize = 2; // Scale down for thumbnails
-                    Bitmap bitmap = BitmapFactory.decodeStream(inputStream, null, options);
-                    inputStream.close();
-                    if (bitmap != null) {
-                        imageView.setImageBitmap(bitmap);
-                        return;
-                    }
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-            imageView.setImageResource(R.drawable.photo_placeholder);
-        }
     }
 }
 
@@ -0,0 +1,92 @@
+package com.photos.adapter;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.widget.TextView;
+
+import com.photos.R;
+import com.photos.model.Photo;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Shows photo names in list rows without querying content providers on the main thread.
+ * A row whose photo has no resolved name yet shows the name from its URI path, and
+ * the name is resolved on a background thread and kept on the Photo. The row is
+ * updated when the lookup finishes, unless it was rebound to another photo meanwhile.
+ * Must be called on the main thread.
+ */
+final class PhotoNames {
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Photos whose names are being resolved, with the views waiting for them
+    private static final Map<Photo, List<TextView>> pending = new IdentityHashMap<>();
+
+    private PhotoNames() {
+    }
+
+    /**
+     * Shows a photo's name in a view, followed by an optional suffix.
+     *
+     * @param view    The view
+     * @param photo   The photo
+     * @param suffix  Text shown after the name, or null
+     * @param context Any context; its application context resolves the name
+     */
+    static void bind(TextView view, Photo photo, String suffix, Context context) {
+        Binding binding = new Binding(photo, suffix);
+        view.setTag(R.id.photo_name_request, binding);
+        String name = photo.getCachedDisplayName();
+        if (name != null) {
+            view.setText(binding.text(name));
+            return;
+        }
+
+        view.setText(binding.text(photo.getDisplayName()));
+        List<TextView> views = pending.get(photo);
+        if (views != null) {
+            views.add(view);
+            return;
+        }
+        views = new ArrayList<>();
+        views.add(view);
+        pending.put(photo, views);
+        Context appContext = context.getApplicationContext();
+        executor.execute(() -> {
+            String resolved = photo.getDisplayName(appContext);
+            mainHandler.post(() -> {
+                for (TextView waiting : pending.remove(photo)) {
+                    Binding current = (Binding) waiting.getTag(R.id.photo_name_request);
+                    // The view may have been rebound while the name was resolved
+                    if (current != null && current.photo == photo) {
+                        waiting.setText(current.text(resolved));
+                    }
+                }
+            });
+        });
+    }
+
+    /**
+     * The photo a view shows the name of, and the text after the name.
+     */
+    private static class Binding {
+        final Photo photo;
+        final String suffix;
+
+        Binding(Photo photo, String suffix) {
+            this.photo = photo;
+            this.suffix = suffix;
+        }
+
+        String text(String name) {
+            return suffix == null ? name : name + suffix;
+        }
+    }
+}
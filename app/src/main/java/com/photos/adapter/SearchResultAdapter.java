@@ -1,9 +1,6 @@
 package com.photos.adapter;
 
 import android.content.Context;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.net.Uri;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -14,30 +11,42 @@ import androidx.annotation.NonNull;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.photos.R;
+import com.photos.image.ImageLoader;
 import com.photos.model.DataManager.PhotoResult;
-
-import java.io.InputStream;
-import java.util.List;
+import com.photos.model.Photo;
+import com.photos.model.SearchCursor;
 
 /**
  * Adapter for displaying search results with album context.
+ * Rows are bound straight from a SearchCursor; a PhotoResult is only created
+ * when a row is clicked.
  */
 public class SearchResultAdapter extends RecyclerView.Adapter<SearchResultAdapter.SearchResultViewHolder> {
 
     private final Context context;
-    private final List<PhotoResult> results;
+    private SearchCursor results;
     private final SearchResultClickListener listener;
 
     public interface SearchResultClickListener {
         void onResultClick(PhotoResult result, int position);
     }
 
-    public SearchResultAdapter(Context context, List<PhotoResult> results, SearchResultClickListener listener) {
+    public SearchResultAdapter(Context context, SearchCursor results, SearchResultClickListener listener) {
         this.context = context;
         this.results = results;
         this.listener = listener;
     }
 
+    /**
+     * Replaces the displayed results.
+     *
+     * @param results The new results
+     */
+    public void setResults(SearchCursor results) {
+        this.results = results;
+        notifyDataSetChanged();
+    }
+
     @NonNull
     @Override
     public SearchResultViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
@@ -48,13 +57,17 @@ public class SearchResultAdapter extends RecyclerView.Adapter<SearchResultAdapte
 
     @Override
     public void onBindViewHolder(@NonNull SearchResultViewHolder holder, int position) {
-        PhotoResult result = results.get(position);
-        holder.bind(result, position);
+        holder.bind(position);
     }
 
     @Override
     public int getItemCount() {
-        return results.size();
+        return results.getCount();
+    }
+
+    @Override
+    public void onViewRecycled(@NonNull SearchResultViewHolder holder) {
+        ImageLoader.getInstance(context).cancel(holder.photoThumbnail);
     }
 
     class SearchResultViewHolder extends RecyclerView.ViewHolder {
@@ -67,38 +80,30 @@ public class SearchResultAdapter extends RecyclerView.Adapter<SearchResultAdapte
             photoName = itemView.findViewById(R.id.photoName);
         }
 
-        void bind(PhotoResult result, int position) {
+        void bind(int position) {
+            Photo photo = results.getPhoto(position);
+            if (photo == null) {
+                // The album changed since the search
+                photoName.setTag(R.id.photo_name_request, null);
+                photoName.setText("");
+                ImageLoader.getInstance(context).cancel(photoThumbnail);
+                photoThumbnail.setImageResource(R.drawable.photo_placeholder);
+                itemView.setOnClickListener(null);
+                return;
+            }
+
             // Show photo name with album info
-            String displayText = result.photo.getDisplayName(context) + " (" + result.album.getName() + ")";
-            photoName.setText(displayText);
-            loadThumbnail(photoThumbnail, result.photo.getUriString());
+            PhotoNames.bind(photoName, photo, " (" + results.getAlbum(position).getName() + ")", context);
+            ImageLoader.getInstance(context).loadThumbnail(photoThumbnail, photo.getUriString(),
+                    R.drawable.photo_placeholder);
 
             itemView.setOnClickListener(v -> {
-                if (listener != null) {
+                PhotoResult result = results.getResult(position);
+                if (listener != null && result != null) {
                     listener.onResultClick(result, position);
                 }
             });
         }
-
-        private void loadThumbnail(ImageView imageView, String uriString) {
-            try {
-                Uri uri = Uri.parse(uriString);
-                InputStream inputStream = context.getContentResolver().openInputStream(uri);
-                if (inputStream != null) {
-                    BitmapFactory.Options options = new BitmapFactory.Options();
-                    options.inSampleSize = 2;
-                    Bitmap bitmap = BitmapFactory.decodeStream(inputStream, null, options);
-                    inputStream.close();
-                    if (bitmap != null) {
-                        imageView.setImageBitmap(bitmap);
-                        return;
-                    }
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-            imageView.setImageResource(R.drawable.photo_placeholder);
-        }
     }
 }
 
@@ -0,0 +1,47 @@
+package com.photos.adapter;
+
+import android.content.Context;
+import android.widget.ArrayAdapter;
+import android.widget.Filter;
+
+import androidx.annotation.NonNull;
+
+import java.util.List;
+
+/**
+ * Adapter for auto-complete suggestions that are already matched by DataManager.
+ * Unlike a plain ArrayAdapter it does not filter by prefix again, so fuzzy
+ * suggestions that do not start with the typed text are still shown.
+ */
+public class SuggestionAdapter extends ArrayAdapter<String> {
+
+    private final List<String> suggestions;
+
+    public SuggestionAdapter(Context context, List<String> suggestions) {
+        super(context, android.R.layout.simple_dropdown_item_1line, suggestions);
+        this.suggestions = suggestions;
+    }
+
+    @NonNull
+    @Override
+    public Filter getFilter() {
+        return new Filter() {
+            @Override
+            protected FilterResults performFiltering(CharSequence constraint) {
+                FilterResults results = new FilterResults();
+                results.values = suggestions;
+                results.count = suggestions.size();
+                return results;
+            }
+
+            @Override
+            protected void publishResults(CharSequence constraint, FilterResults results) {
+                if (results.count > 0) {
+                    notifyDataSetChanged();
+                } else {
+                    notifyDataSetInvalidated();
+                }
+            }
+        };
+    }
+}
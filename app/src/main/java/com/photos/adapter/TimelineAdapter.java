@@ -0,0 +1,229 @@
+package com.photos.adapter;
+
+import android.content.Context;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.photos.R;
+import com.photos.image.ImageLoader;
+import com.photos.model.DataManager;
+import com.photos.model.Photo;
+import com.photos.model.TimelineIndex;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Adapter for the "All Photos" timeline, with a header row for every month and day.
+ * Rows are read from the TimelineIndex by position; only the row offsets of the
+ * day buckets are kept here, and photos are looked up as their rows are bound.
+ */
+public class TimelineAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
+
+    private static final int TYPE_MONTH = 0;
+    private static final int TYPE_DAY = 1;
+    private static final int TYPE_PHOTO = 2;
+
+    private final Context context;
+    private final TimelineIndex timeline;
+    private final TimelineClickListener listener;
+    private final DateTimeFormatter monthFormat = DateTimeFormatter.ofPattern("MMMM yyyy", Locale.getDefault());
+    private final DateTimeFormatter dayFormat = DateTimeFormatter.ofPattern("EEEE, MMMM d", Locale.getDefault());
+
+    // Per day bucket: the row of its first header, and whether a month header comes first
+    private int[] rowStarts = new int[0];
+    private boolean[] opensMonth = new boolean[0];
+    private int rowCount;
+
+    public interface TimelineClickListener {
+        void onTimelinePhotoClick(Photo photo);
+    }
+
+    public TimelineAdapter(Context context, TimelineIndex timeline, TimelineClickListener listener) {
+        this.context = context;
+        this.timeline = timeline;
+        this.listener = listener;
+        refresh();
+    }
+
+    /**
+     * Lays out the rows again after the library changed.
+     */
+    public void refresh() {
+        int bucketCount = timeline.getBucketCount();
+        rowStarts = new int[bucketCount];
+        opensMonth = new boolean[bucketCount];
+        int row = 0;
+        YearMonth previousMonth = null;
+        for (int bucket = 0; bucket < bucketCount; bucket++) {
+            long day = timeline.getBucketDay(bucket);
+            YearMonth month = day == TimelineIndex.UNKNOWN_DAY ? null : YearMonth.from(LocalDate.ofEpochDay(day));
+            opensMonth[bucket] = month != null && !month.equals(previousMonth);
+            previousMonth = month;
+            rowStarts[bucket] = row;
+            row += (opensMonth[bucket] ? 2 : 1) + timeline.getBucketSize(bucket);
+        }
+        rowCount = row;
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Checks if a row is a month or day header.
+     *
+     * @param row The row
+     * @return true for header rows
+     */
+    public boolean isHeader(int row) {
+        return getItemViewType(row) != TYPE_PHOTO;
+    }
+
+    /**
+     * Gets the months on the timeline, newest first.
+     *
+     * @return List of months
+     */
+    public List<YearMonth> getMonths() {
+        List<YearMonth> months = new ArrayList<>();
+        for (int bucket = 0; bucket < opensMonth.length; bucket++) {
+            if (opensMonth[bucket]) {
+                months.add(YearMonth.from(LocalDate.ofEpochDay(timeline.getBucketDay(bucket))));
+            }
+        }
+        return months;
+    }
+
+    /**
+     * Gets the row to scroll to for a month.
+     *
+     * @param month The month
+     * @return The row of the first header at or after the month's newest photo
+     */
+    public int getRowOfMonth(YearMonth month) {
+        int position = timeline.positionOfMonth(month, ZoneId.systemDefault());
+        if (position >= timeline.size()) {
+            return Math.max(0, rowCount - 1);
+        }
+        return rowStarts[timeline.findBucket(position)];
+    }
+
+    @Override
+    public int getItemViewType(int row) {
+        int bucket = bucketOfRow(row);
+        int offset = row - rowStarts[bucket];
+        if (opensMonth[bucket]) {
+            if (offset == 0) return TYPE_MONTH;
+            offset--;
+        }
+        return offset == 0 ? TYPE_DAY : TYPE_PHOTO;
+    }
+
+    @NonNull
+    @Override
+    public RecyclerView.ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        LayoutInflater inflater = LayoutInflater.from(parent.getContext());
+        if (viewType == TYPE_PHOTO) {
+            return new PhotoViewHolder(inflater.inflate(R.layout.item_photo, parent, false));
+        }
+        int layout = viewType == TYPE_MONTH ? R.layout.item_timeline_month : R.layout.item_timeline_day;
+        return new HeaderViewHolder(inflater.inflate(layout, parent, false));
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull RecyclerView.ViewHolder holder, int row) {
+        int bucket = bucketOfRow(row);
+        long day = timeline.getBucketDay(bucket);
+        if (holder instanceof HeaderViewHolder) {
+            String text;
+            if (day == TimelineIndex.UNKNOWN_DAY) {
+                text = context.getString(R.string.date_unknown);
+            } else if (getItemViewType(row) == TYPE_MONTH) {
+                text = LocalDate.ofEpochDay(day).format(monthFormat);
+            } else {
+                text = LocalDate.ofEpochDay(day).format(dayFormat);
+            }
+            ((HeaderViewHolder) holder).headerText.setText(text);
+            return;
+        }
+        int headers = opensMonth[bucket] ? 2 : 1;
+        int position = timeline.getBucketStart(bucket) + row - rowStarts[bucket] - headers;
+        ((PhotoViewHolder) holder).bind(DataManager.getInstance().getPhotoById(timeline.getPhotoId(position)));
+    }
+
+    @Override
+    public int getItemCount() {
+        return rowCount;
+    }
+
+    @Override
+    public void onViewRecycled(@NonNull RecyclerView.ViewHolder holder) {
+        if (holder instanceof PhotoViewHolder) {
+            ImageLoader.getInstance(context).cancel(((PhotoViewHolder) holder).photoThumbnail);
+        }
+    }
+
+    private int bucketOfRow(int row) {
+        int low = 0;
+        int high = rowStarts.length - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (rowStarts[middle] <= row) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    static class HeaderViewHolder extends RecyclerView.ViewHolder {
+        private final TextView headerText;
+
+        HeaderViewHolder(@NonNull View itemView) {
+            super(itemView);
+            headerText = itemView.findViewById(R.id.headerText);
+        }
+    }
+
+    class PhotoViewHolder extends RecyclerView.ViewHolder {
+        private final ImageView photoThumbnail;
+        private final TextView photoName;
+
+        PhotoViewHolder(@NonNull View itemView) {
+            super(itemView);
+            photoThumbnail = itemView.findViewById(R.id.photoThumbnail);
+            photoName = itemView.findViewById(R.id.photoName);
+        }
+
+        void bind(Photo photo) {
+            if (photo == null) {
+                photoName.setTag(R.id.photo_name_request, null);
+                photoName.setText("");
+                ImageLoader.getInstance(context).cancel(photoThumbnail);
+                photoThumbnail.setImageResource(R.drawable.photo_placeholder);
+                itemView.setOnClickListener(null);
+                return;
+            }
+
+            PhotoNames.bind(photoName, photo, null, context);
+            ImageLoader.getInstance(context).loadThumbnail(photoThumbnail, photo.getUriString(),
+                    R.drawable.photo_placeholder);
+
+            itemView.setOnClickListener(v -> {
+                if (listener != null) {
+                    listener.onTimelinePhotoClick(photo);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package com.photos.image;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Process-wide memory cache of decoded thumbnails, shared by every screen.
+ * Entries are keyed by image URI and decode size, and the cache is bounded by the
+ * bytes its bitmaps use: an eighth of the app's memory class, so a normal device
+ * keeps a few hundred thumbnails. The least recently used are evicted first.
+ * The cache is trimmed when the system reports memory pressure.
+ * <p>
+ * Bitmaps are counted while they are cached or shown by the ImageLoader. Once
+ * neither, they go to the BitmapPool to back later decodes; an evicted bitmap a
+ * view still shows is kept out of the pool until the view lets go of it.
+ * Adding bitmaps and counting their holders happen on the main thread only.
+ */
+public class BitmapCache {
+
+    /** Part of the app's memory class given to the cache. */
+    static final int MEMORY_CLASS_DIVISOR = 8;
+
+    private static BitmapCache instance;
+
+    private final LruCache<String, Bitmap> cache;
+    private final BitmapPool pool;
+    // Holders of each bitmap: the cache and every view showing it. Keys are weak, so a
+    // bitmap left on a destroyed screen is still collected; Bitmap compares by identity.
+    private final Map<Bitmap, Integer> holders = new WeakHashMap<>();
+    private final AtomicInteger hitCount = new AtomicInteger();
+    private final AtomicInteger missCount = new AtomicInteger();
+
+    private BitmapCache(Context context) {
+        pool = BitmapPool.getInstance(context);
+        ActivityManager activityManager = context.getSystemService(ActivityManager.class);
+        int memoryClassMb = activityManager != null ? activityManager.getMemoryClass() : 64;
+        cache = new LruCache<String, Bitmap>(memoryClassMb * 1024 * 1024 / MEMORY_CLASS_DIVISOR) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getAllocationByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+                release(oldValue);
+            }
+        };
+        context.getApplicationContext().registerComponentCallbacks(new ComponentCallbacks2() {
+            @Override
+            public void onTrimMemory(int level) {
+                trim(level);
+            }
+
+            @Override
+            public void onConfigurationChanged(Configuration newConfig) {
+            }
+
+            @Override
+            public void onLowMemory() {
+                cache.evictAll();
+                pool.clear();
+            }
+        });
+    }
+
+    /**
+     * Gets the singleton instance of BitmapCache.
+     *
+     * @param context Any context; its application context is used
+     * @return The BitmapCache instance
+     */
+    public static synchronized BitmapCache getInstance(Context context) {
+        if (instance == null) {
+            instance = new BitmapCache(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Builds the key of a decoded image.
+     *
+     * @param uriString The URI string of the image
+     * @param size      The decode size, e.g. a sample size or a target size in pixels
+     * @return The cache key
+     */
+    public static String key(String uriString, int size) {
+        return size + "@" + uriString;
+    }
+
+    /**
+     * Gets a cached bitmap and marks it recently used. Safe to call from any thread.
+     *
+     * @param key The cache key
+     * @return The bitmap, or null if not cached
+     */
+    public Bitmap get(String key) {
+        Bitmap bitmap = cache.get(key);
+        (bitmap != null ? hitCount : missCount).incrementAndGet();
+        return bitmap;
+    }
+
+    /**
+     * Gets a cached bitmap like get(), without counting the lookup towards the hit
+     * rate, e.g. when probing for any size of an image.
+     *
+     * @param key The cache key
+     * @return The bitmap, or null if not cached
+     */
+    public Bitmap peek(String key) {
+        return cache.get(key);
+    }
+
+    /**
+     * Adds a bitmap, evicting the least recently used ones if over the byte limit.
+     * Must be called on the main thread.
+     *
+     * @param key    The cache key
+     * @param bitmap The bitmap
+     */
+    public void put(String key, Bitmap bitmap) {
+        retain(bitmap);
+        cache.put(key, bitmap);
+    }
+
+    /**
+     * Counts a view showing a bitmap, keeping it out of the pool. Main thread only.
+     *
+     * @param bitmap The bitmap
+     */
+    void retain(Bitmap bitmap) {
+        Integer count = holders.get(bitmap);
+        holders.put(bitmap, count == null ? 1 : count + 1);
+    }
+
+    /**
+     * Counts a view or the cache letting go of a bitmap. Once nothing holds it, the
+     * bitmap is pooled. Main thread only.
+     *
+     * @param bitmap The bitmap
+     */
+    void release(Bitmap bitmap) {
+        Integer count = holders.get(bitmap);
+        if (count == null) return;
+        if (count > 1) {
+            holders.put(bitmap, count - 1);
+            return;
+        }
+        holders.remove(bitmap);
+        pool.put(bitmap);
+    }
+
+    /**
+     * Gets the fraction of lookups that found their bitmap.
+     *
+     * @return The hit rate from 0 to 1, or 0 before any lookup
+     */
+    public double getHitRate() {
+        int hits = hitCount.get();
+        int lookups = hits + missCount.get();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    /**
+     * Gets the number of bitmaps evicted to stay under the byte limit.
+     *
+     * @return The eviction count
+     */
+    public int getEvictionCount() {
+        return cache.evictionCount();
+    }
+
+    /**
+     * Gets the bytes used by the cached bitmaps.
+     *
+     * @return The size in bytes
+     */
+    public int getBytesInUse() {
+        return cache.size();
+    }
+
+    /**
+     * Gets the most bytes the cached bitmaps may use.
+     *
+     * @return The limit in bytes
+     */
+    public int getMaxBytes() {
+        return cache.maxSize();
+    }
+
+    private void trim(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            cache.evictAll();
+            pool.clear();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            // Keep the thumbnails of the screen the user is likely to return to
+            cache.trimToSize(cache.maxSize() / 2);
+            pool.trimToSize(pool.getMaxBytes() / 2);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "BitmapCache[%d/%d KB, hit rate %.0f%%, %d evictions]",
+                getBytesInUse() / 1024, getMaxBytes() / 1024, getHitRate() * 100, getEvictionCount());
+    }
+}
@@ -0,0 +1,259 @@
+package com.photos.image;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decodes images at the size they are shown at rather than at full resolution.
+ * A bounds pass reads only the image header; the sample size is then the largest
+ * power of two that keeps the image at least as large as needed, and the sampled
+ * result is scaled down the rest of the way.
+ * <p>
+ * Images are read through a file descriptor when the provider offers one, so both
+ * passes read the file directly without a stream copy; other providers are read
+ * through a stream, opened once per pass.
+ * <p>
+ * Given a BitmapPool, decodes reuse pooled bitmaps through inBitmap, and the bitmap
+ * sampled on the way to a scaled result goes back to the pool. Each thread reads
+ * through its own reused inTempStorage buffer.
+ * <p>
+ * The pixel format asked for is a preference, as chosen by the DecodePolicy: an
+ * image with transparency decodes to ARGB_8888 even if RGB_565 was asked for.
+ * HARDWARE results are decoded and scaled in software, then copied to graphics memory.
+ */
+public final class BitmapDecoder {
+
+    /** Size of the buffer decoders read through, as BitmapFactory would allocate. */
+    private static final int TEMP_STORAGE_SIZE = 16 * 1024;
+
+    private static final ThreadLocal<byte[]> TEMP_STORAGE = ThreadLocal.withInitial(() -> new byte[TEMP_STORAGE_SIZE]);
+
+    private BitmapDecoder() {
+    }
+
+    /**
+     * One way of reading an image, run once per pass.
+     */
+    private interface Source {
+        Bitmap decode(BitmapFactory.Options options) throws IOException;
+    }
+
+    /**
+     * Decodes an image for a view of the given size.
+     *
+     * @param resolver     The content resolver
+     * @param uri          The image URI
+     * @param targetWidth  The view width in pixels
+     * @param targetHeight The view height in pixels
+     * @param crop         true if the image fills the view and is cropped (centerCrop),
+     *                     false if it fits inside the view (fitCenter)
+     * @return The bitmap, or null if the image cannot be read
+     */
+    public static Bitmap decode(ContentResolver resolver, Uri uri, int targetWidth, int targetHeight, boolean crop) {
+        return decode(resolver, uri, targetWidth, targetHeight, crop, Bitmap.Config.ARGB_8888, null);
+    }
+
+    /**
+     * Decodes an image for a view of the given size in a given pixel format, reusing
+     * pooled bitmaps. Unless HARDWARE, the result is mutable, so it can be pooled in
+     * turn once no longer used.
+     *
+     * @param resolver     The content resolver
+     * @param uri          The image URI
+     * @param targetWidth  The view width in pixels
+     * @param targetHeight The view height in pixels
+     * @param crop         true to fill the view, false to fit inside it
+     * @param config       The preferred pixel format
+     * @param pool         The pool to take bitmaps from and return them to, or null
+     * @return The bitmap, or null if the image cannot be read
+     */
+    public static Bitmap decode(ContentResolver resolver, Uri uri, int targetWidth, int targetHeight, boolean crop,
+                                Bitmap.Config config, BitmapPool pool) {
+        try (ParcelFileDescriptor pfd = openFileDescriptor(resolver, uri)) {
+            Source source;
+            if (pfd != null) {
+                // Decoding leaves the descriptor's position unchanged, so every pass shares it
+                FileDescriptor fd = pfd.getFileDescriptor();
+                source = options -> BitmapFactory.decodeFileDescriptor(fd, null, options);
+            } else {
+                source = options -> {
+                    try (InputStream in = resolver.openInputStream(uri)) {
+                        return in == null ? null : BitmapFactory.decodeStream(in, null, options);
+                    }
+                };
+            }
+            BitmapFactory.Options options = readBounds(source, config);
+            if (options == null) return null;
+            options.inSampleSize = sampleSize(options.outWidth, options.outHeight, targetWidth, targetHeight, crop);
+            Bitmap bitmap = decodeInto(source, options, pool);
+            if (bitmap == null) return null;
+            bitmap = scale(bitmap, targetWidth, targetHeight, crop, pool);
+            return config == Bitmap.Config.HARDWARE ? toHardware(bitmap, pool) : bitmap;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Decodes an image file at full size, reusing pooled bitmaps.
+     *
+     * @param path   The file path
+     * @param config The preferred pixel format, not HARDWARE
+     * @param pool   The pool to take bitmaps from
+     * @return The bitmap, or null if the file cannot be read
+     */
+    static Bitmap decodeFile(String path, Bitmap.Config config, BitmapPool pool) {
+        Source source = options -> BitmapFactory.decodeFile(path, options);
+        try {
+            BitmapFactory.Options options = readBounds(source, config);
+            return options == null ? null : decodeInto(source, options, pool);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Gets the sample size for decoding an image for a view.
+     *
+     * @param width        The image width
+     * @param height       The image height
+     * @param targetWidth  The view width
+     * @param targetHeight The view height
+     * @param crop         true to fill the view, false to fit inside it
+     * @return The largest power of two not making the image smaller than needed
+     */
+    public static int sampleSize(int width, int height, int targetWidth, int targetHeight, boolean crop) {
+        float scale = scaleFactor(width, height, targetWidth, targetHeight, crop);
+        int sampleSize = 1;
+        while (sampleSize * 2 * scale <= 1) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * Gets the scale at which an image exactly fills or fits a view.
+     */
+    private static float scaleFactor(int width, int height, int targetWidth, int targetHeight, boolean crop) {
+        float scaleX = (float) targetWidth / width;
+        float scaleY = (float) targetHeight / height;
+        return crop ? Math.max(scaleX, scaleY) : Math.min(scaleX, scaleY);
+    }
+
+    /**
+     * Reads the image header and sets up the decoding pass.
+     *
+     * @return The options holding the image size, or null if the header could not be read
+     */
+    private static BitmapFactory.Options readBounds(Source source, Bitmap.Config config) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inTempStorage = TEMP_STORAGE.get();
+        options.inJustDecodeBounds = true;
+        source.decode(options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) return null;
+        options.inJustDecodeBounds = false;
+        // Scaling draws into the result, which a hardware bitmap does not allow
+        options.inPreferredConfig = config == Bitmap.Config.HARDWARE ? Bitmap.Config.ARGB_8888 : config;
+        return options;
+    }
+
+    /**
+     * Decodes an image into a pooled bitmap if one fits, or a new one otherwise.
+     */
+    private static Bitmap decodeInto(Source source, BitmapFactory.Options options, BitmapPool pool) throws IOException {
+        if (pool == null) {
+            return source.decode(options);
+        }
+        int sampleSize = Math.max(1, options.inSampleSize);
+        options.inMutable = true;
+        options.inBitmap = pool.get(ceilDiv(options.outWidth, sampleSize), ceilDiv(options.outHeight, sampleSize),
+                options.inPreferredConfig);
+        Bitmap bitmap;
+        try {
+            bitmap = source.decode(options);
+        } catch (IllegalArgumentException e) {
+            if (options.inBitmap == null) throw e;
+            // The image decodes to a format or size the pooled bitmap cannot hold
+            pool.put(options.inBitmap);
+            options.inBitmap = null;
+            bitmap = source.decode(options);
+        }
+        if (bitmap == null && options.inBitmap != null) {
+            pool.put(options.inBitmap);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Scales a sampled bitmap down to the view size; never scales up. With a pool, the
+     * result is drawn into a pooled bitmap if one fits and the sampled one is pooled.
+     */
+    private static Bitmap scale(Bitmap bitmap, int targetWidth, int targetHeight, boolean crop, BitmapPool pool) {
+        float scale = scaleFactor(bitmap.getWidth(), bitmap.getHeight(), targetWidth, targetHeight, crop);
+        if (scale >= 1) return bitmap;
+        int width = Math.max(1, Math.round(bitmap.getWidth() * scale));
+        int height = Math.max(1, Math.round(bitmap.getHeight() * scale));
+        if (pool == null) {
+            return Bitmap.createScaledBitmap(bitmap, width, height, true);
+        }
+
+        // Keep the format the decoder chose
+        Bitmap.Config config = bitmap.getConfig() != null ? bitmap.getConfig() : Bitmap.Config.ARGB_8888;
+        Bitmap scaled = pool.get(width, height, config);
+        if (scaled == null) {
+            scaled = Bitmap.createBitmap(width, height, config);
+        } else if (bitmap.hasAlpha()) {
+            // A pooled bitmap still holds its old pixels
+            scaled.eraseColor(Color.TRANSPARENT);
+        }
+        scaled.setHasAlpha(bitmap.hasAlpha());
+        new Canvas(scaled).drawBitmap(bitmap, null, new Rect(0, 0, width, height), new Paint(Paint.FILTER_BITMAP_FLAG));
+        // Only needed to scale from
+        pool.put(bitmap);
+        return scaled;
+    }
+
+    /**
+     * Copies a decoded bitmap to graphics memory.
+     *
+     * @return The hardware bitmap, or the bitmap itself if it cannot be copied
+     */
+    private static Bitmap toHardware(Bitmap bitmap, BitmapPool pool) {
+        Bitmap hardware = bitmap.copy(Bitmap.Config.HARDWARE, false);
+        if (hardware == null) return bitmap;
+        if (pool != null) {
+            pool.put(bitmap);
+        }
+        return hardware;
+    }
+
+    private static int ceilDiv(int value, int divisor) {
+        return (value + divisor - 1) / divisor;
+    }
+
+    /**
+     * Opens a file descriptor for an image.
+     *
+     * @return The descriptor, or null if the provider only offers a stream
+     */
+    private static ParcelFileDescriptor openFileDescriptor(ContentResolver resolver, Uri uri) {
+        try {
+            return resolver.openFileDescriptor(uri, "r");
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.photos.image;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Bitmaps no longer shown or cached, kept so later decodes can reuse their memory
+ * through BitmapFactory.Options.inBitmap instead of allocating a new bitmap each time.
+ * Bitmaps are grouped by the bytes they hold, and a request takes the smallest one
+ * that is big enough but not more than twice the size needed, so a small thumbnail
+ * does not pin a large allocation. The pool is bounded by bytes, dropping the
+ * bitmaps added longest ago first. Safe to call from any thread.
+ */
+public class BitmapPool {
+
+    /** Part of the app's memory class given to the pool. */
+    static final int MEMORY_CLASS_DIVISOR = 16;
+    /** Largest allocation handed out for a request, as a multiple of the bytes needed. */
+    static final int MAX_SIZE_RATIO = 2;
+
+    private static BitmapPool instance;
+
+    private final int maxBytes;
+    // Allocation size to the bitmaps of that size, most recently added last
+    private final TreeMap<Integer, ArrayDeque<Bitmap>> buckets = new TreeMap<>();
+    // Every pooled bitmap, added longest ago first
+    private final ArrayDeque<Bitmap> order = new ArrayDeque<>();
+    private int bytesInUse;
+    private int hitCount;
+    private int missCount;
+    private int dropCount;
+
+    BitmapPool(int maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Gets the singleton instance of BitmapPool.
+     *
+     * @param context Any context
+     * @return The BitmapPool instance
+     */
+    public static synchronized BitmapPool getInstance(Context context) {
+        if (instance == null) {
+            ActivityManager activityManager = context.getSystemService(ActivityManager.class);
+            int memoryClassMb = activityManager != null ? activityManager.getMemoryClass() : 64;
+            instance = new BitmapPool(memoryClassMb * 1024 * 1024 / MEMORY_CLASS_DIVISOR);
+        }
+        return instance;
+    }
+
+    /**
+     * Takes a bitmap to decode or draw into, reconfigured to the given size.
+     * Its pixels are left as they were.
+     *
+     * @param width  The width in pixels
+     * @param height The height in pixels
+     * @param config The pixel format
+     * @return A mutable bitmap, or null if none fits and a new one must be allocated
+     */
+    public Bitmap get(int width, int height, Bitmap.Config config) {
+        int bytes = width * height * bytesPerPixel(config);
+        Bitmap bitmap;
+        synchronized (this) {
+            Map.Entry<Integer, ArrayDeque<Bitmap>> bucket = buckets.ceilingEntry(bytes);
+            if (bucket == null || bucket.getKey() > (long) bytes * MAX_SIZE_RATIO) {
+                missCount++;
+                return null;
+            }
+            bitmap = bucket.getValue().pollLast();
+            if (bucket.getValue().isEmpty()) {
+                buckets.remove(bucket.getKey());
+            }
+            order.removeLastOccurrence(bitmap);
+            bytesInUse -= bucket.getKey();
+            hitCount++;
+        }
+        bitmap.reconfigure(width, height, config);
+        return bitmap;
+    }
+
+    /**
+     * Adds a bitmap nothing refers to any more. Bitmaps that cannot back a decode,
+     * or that are larger than the whole pool, are left to the garbage collector.
+     *
+     * @param bitmap The bitmap
+     */
+    public void put(Bitmap bitmap) {
+        if (bitmap.isRecycled() || !bitmap.isMutable() || bitmap.getConfig() == Bitmap.Config.HARDWARE) return;
+        int bytes = bitmap.getAllocationByteCount();
+        synchronized (this) {
+            if (bytes > maxBytes) {
+                dropCount++;
+                return;
+            }
+            buckets.computeIfAbsent(bytes, size -> new ArrayDeque<>()).addLast(bitmap);
+            order.addLast(bitmap);
+            bytesInUse += bytes;
+            trimToSize(maxBytes);
+        }
+    }
+
+    /**
+     * Drops pooled bitmaps until the pool holds at most the given bytes.
+     *
+     * @param bytes The bytes to keep
+     */
+    public synchronized void trimToSize(int bytes) {
+        Iterator<Bitmap> it = order.iterator();
+        while (bytesInUse > bytes && it.hasNext()) {
+            Bitmap eldest = it.next();
+            it.remove();
+            int size = eldest.getAllocationByteCount();
+            ArrayDeque<Bitmap> bucket = buckets.get(size);
+            bucket.removeFirstOccurrence(eldest);
+            if (bucket.isEmpty()) {
+                buckets.remove(size);
+            }
+            bytesInUse -= size;
+            dropCount++;
+        }
+    }
+
+    /**
+     * Drops every pooled bitmap.
+     */
+    public void clear() {
+        trimToSize(0);
+    }
+
+    /**
+     * Gets the fraction of requests served from the pool.
+     *
+     * @return The hit rate from 0 to 1, or 0 before any request
+     */
+    public synchronized double getHitRate() {
+        int requests = hitCount + missCount;
+        return requests == 0 ? 0 : (double) hitCount / requests;
+    }
+
+    /**
+     * Gets the number of requests the pool could not serve, each of which
+     * allocated a new bitmap.
+     *
+     * @return The allocation count
+     */
+    public synchronized int getAllocationCount() {
+        return missCount;
+    }
+
+    /**
+     * Gets the number of bitmaps dropped to stay under the byte limit.
+     *
+     * @return The drop count
+     */
+    public synchronized int getDropCount() {
+        return dropCount;
+    }
+
+    /**
+     * Gets the bytes held by the pooled bitmaps.
+     *
+     * @return The size in bytes
+     */
+    public synchronized int getBytesInUse() {
+        return bytesInUse;
+    }
+
+    /**
+     * Gets the most bytes the pooled bitmaps may hold.
+     *
+     * @return The limit in bytes
+     */
+    public int getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Gets the bytes a pixel takes in a pixel format.
+     */
+    static int bytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.ALPHA_8) return 1;
+        if (config == Bitmap.Config.RGB_565) return 2;
+        if (config == Bitmap.Config.RGBA_F16) return 8;
+        return 4;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "BitmapPool[%d/%d KB, hit rate %.0f%%, %d allocations, %d dropped]",
+                bytesInUse / 1024, maxBytes / 1024, getHitRate() * 100, missCount, dropCount);
+    }
+}
@@ -0,0 +1,109 @@
+package com.photos.image;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+
+/**
+ * Chooses the pixel format each kind of decode asks for.
+ * Grid thumbnails prefer RGB_565, half the bytes of ARGB_8888, so the caches hold
+ * twice as many; decoders only use it for opaque images, so thumbnails with
+ * transparency stay ARGB_8888. The slideshow uses HARDWARE bitmaps, which live in
+ * graphics memory and are drawn without an upload, since it never reads their
+ * pixels. The full-screen viewer keeps ARGB_8888 for the best quality when zoomed in.
+ * <p>
+ * When the system reports memory pressure, every decode prefers RGB_565 for a while.
+ */
+public class DecodePolicy {
+
+    /** What a bitmap is decoded for. */
+    public enum Use {
+        /** Thumbnails in the grids, cached in memory and on disk and pooled. */
+        THUMBNAIL,
+        /** Photos in the PhotoDisplayActivity slideshow, only ever drawn. */
+        SLIDESHOW,
+        /** Previews and tiles of the full-screen viewer. */
+        VIEWER
+    }
+
+    /** How long decodes stay reduced after the system last reported memory pressure. */
+    static final long REDUCED_FOOTPRINT_MS = 60_000;
+
+    private static DecodePolicy instance;
+
+    private volatile long reducedUntil;
+
+    DecodePolicy() {
+    }
+
+    /**
+     * Gets the singleton instance of DecodePolicy.
+     *
+     * @param context Any context
+     * @return The DecodePolicy instance
+     */
+    public static synchronized DecodePolicy getInstance(Context context) {
+        if (instance == null) {
+            DecodePolicy policy = new DecodePolicy();
+            context.getApplicationContext().registerComponentCallbacks(new ComponentCallbacks2() {
+                @Override
+                public void onTrimMemory(int level) {
+                    // Hiding the UI is not pressure, every other level is
+                    if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW
+                            && level != ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+                        policy.reduceFootprint();
+                    }
+                }
+
+                @Override
+                public void onConfigurationChanged(Configuration newConfig) {
+                }
+
+                @Override
+                public void onLowMemory() {
+                    policy.reduceFootprint();
+                }
+            });
+            instance = policy;
+        }
+        return instance;
+    }
+
+    /**
+     * Gets the pixel format to decode with.
+     *
+     * @param use What the bitmap is for
+     * @return The format to ask the decoder for
+     */
+    public Bitmap.Config configFor(Use use) {
+        if (isReducedFootprint()) {
+            return Bitmap.Config.RGB_565;
+        }
+        switch (use) {
+            case THUMBNAIL:
+                return Bitmap.Config.RGB_565;
+            case SLIDESHOW:
+                return Bitmap.Config.HARDWARE;
+            default:
+                return Bitmap.Config.ARGB_8888;
+        }
+    }
+
+    /**
+     * Makes every decode prefer RGB_565 for REDUCED_FOOTPRINT_MS from now.
+     */
+    public void reduceFootprint() {
+        reducedUntil = SystemClock.uptimeMillis() + REDUCED_FOOTPRINT_MS;
+    }
+
+    /**
+     * Checks if decodes are reduced because of recent memory pressure.
+     *
+     * @return true while reduced
+     */
+    public boolean isReducedFootprint() {
+        return SystemClock.uptimeMillis() < reducedUntil;
+    }
+}
@@ -0,0 +1,378 @@
+package com.photos.image;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Thumbnails kept on disk in the app's cache directory, so a grid shown before is
+ * drawn from a few KB per cell instead of decoding the full image again.
+ * <p>
+ * Each thumbnail is one compressed file named after a hash of its key. A journal
+ * records every write, read and removal; it is replayed on start to restore the
+ * least recently used order, and the oldest files are deleted once the cache
+ * grows past its size limit.
+ * <p>
+ * Writes are crash safe: a thumbnail is written to a temporary file, synced and
+ * then renamed into place before the journal records it. On start, temporary files
+ * and files the journal does not know about are deleted, so a half written
+ * thumbnail is never read.
+ */
+public class DiskThumbnailCache {
+
+    /** Most bytes the cached files may use. */
+    static final long MAX_BYTES = 64L * 1024 * 1024;
+    /** Compression quality of the stored thumbnails. */
+    static final int QUALITY = 80;
+
+    private static final String DIRECTORY = "thumbnails";
+    private static final String JOURNAL = "journal";
+    private static final String JOURNAL_TMP = "journal.tmp";
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final String WRITE = "W";
+    private static final String READ = "R";
+    private static final String REMOVE = "D";
+    /** Journal records beyond the live entries before the journal is rewritten. */
+    private static final int COMPACT_THRESHOLD = 2000;
+    /** Reads buffered before the journal is flushed. */
+    private static final int READ_FLUSH_INTERVAL = 32;
+
+    private static DiskThumbnailCache instance;
+
+    private final File directory;
+    private final BitmapPool pool;
+    // File name to file size, least recently used first
+    private final Map<String, Long> entries = new LinkedHashMap<>(0, 0.75f, true);
+    private long bytesInUse;
+    private int journalRecords;
+    private int unflushedReads;
+    private Writer journal;
+
+    private DiskThumbnailCache(File directory, BitmapPool pool) {
+        this.directory = directory;
+        this.pool = pool;
+        open();
+    }
+
+    /**
+     * Gets the singleton instance of DiskThumbnailCache. The first call opens the
+     * cache, reading its journal and directory, so it should not be made on the main thread.
+     *
+     * @param context Any context
+     * @return The DiskThumbnailCache instance
+     */
+    public static synchronized DiskThumbnailCache getInstance(Context context) {
+        if (instance == null) {
+            DiskThumbnailCache cache = new DiskThumbnailCache(new File(context.getCacheDir(), DIRECTORY),
+                    BitmapPool.getInstance(context));
+            // Keep the reads recorded while the app was visible
+            context.getApplicationContext().registerComponentCallbacks(new ComponentCallbacks2() {
+                @Override
+                public void onTrimMemory(int level) {
+                    if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+                        cache.flush();
+                    }
+                }
+
+                @Override
+                public void onConfigurationChanged(Configuration newConfig) {
+                }
+
+                @Override
+                public void onLowMemory() {
+                }
+            });
+            instance = cache;
+        }
+        return instance;
+    }
+
+    /**
+     * Reads a thumbnail into a pooled bitmap if one fits. Decoding happens outside
+     * the cache lock, so several threads can read at once.
+     *
+     * @param key    The thumbnail key
+     * @param config The preferred pixel format, not HARDWARE
+     * @return The thumbnail, or null if not cached or unreadable
+     */
+    public Bitmap get(String key, Bitmap.Config config) {
+        String name = fileName(key);
+        synchronized (this) {
+            if (entries.get(name) == null) return null;
+            appendJournal(READ, name, -1, false);
+        }
+        Bitmap bitmap = BitmapDecoder.decodeFile(new File(directory, name).getPath(), config, pool);
+        if (bitmap == null) {
+            // Deleted behind our back or corrupt: forget it
+            synchronized (this) {
+                removeEntry(name);
+            }
+        }
+        return bitmap;
+    }
+
+    /**
+     * Stores a thumbnail, replacing any earlier one with the same key.
+     * Compression happens outside the cache lock.
+     *
+     * @param key    The thumbnail key
+     * @param bitmap The thumbnail
+     */
+    public void put(String key, Bitmap bitmap) {
+        synchronized (this) {
+            if (journal == null) return;
+        }
+        String name = fileName(key);
+        File tmp = new File(directory, name + "." + Thread.currentThread().getId() + TMP_SUFFIX);
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            if (!bitmap.compress(compressFormat(bitmap), QUALITY, out)) {
+                throw new IOException("Could not compress thumbnail");
+            }
+            out.getFD().sync();
+        } catch (IOException e) {
+            e.printStackTrace();
+            tmp.delete();
+            return;
+        }
+
+        synchronized (this) {
+            File file = new File(directory, name);
+            if (!tmp.renameTo(file)) {
+                tmp.delete();
+                return;
+            }
+            Long previous = entries.put(name, file.length());
+            if (previous != null) {
+                bytesInUse -= previous;
+            }
+            bytesInUse += file.length();
+            appendJournal(WRITE, name, file.length(), true);
+            trimToSize();
+        }
+    }
+
+    /**
+     * Writes buffered journal records, e.g. when the app goes to the background.
+     */
+    public synchronized void flush() {
+        if (journal == null) return;
+        try {
+            journal.flush();
+            unflushedReads = 0;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Gets the bytes used by the cached files.
+     *
+     * @return The size in bytes
+     */
+    public synchronized long getBytesInUse() {
+        return bytesInUse;
+    }
+
+    /**
+     * Gets the number of cached thumbnails.
+     *
+     * @return The thumbnail count
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Restores the entries from the journal and clears anything it does not cover.
+     */
+    private void open() {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            // Without a directory the cache stays empty and disabled
+            return;
+        }
+
+        File journalFile = new File(directory, JOURNAL);
+        if (journalFile.exists()) {
+            try (BufferedReader reader = new BufferedReader(new FileReader(journalFile))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    replay(line);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                entries.clear();
+            }
+        }
+
+        // Drop entries whose file is missing or was cut short
+        Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Long> entry = it.next();
+            File file = new File(directory, entry.getKey());
+            if (!file.isFile() || file.length() != entry.getValue()) {
+                file.delete();
+                it.remove();
+            }
+        }
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (!name.equals(JOURNAL) && !entries.containsKey(name)) {
+                    file.delete();
+                }
+            }
+        }
+
+        bytesInUse = 0;
+        for (long bytes : entries.values()) {
+            bytesInUse += bytes;
+        }
+        rewriteJournal();
+        trimToSize();
+    }
+
+    private void replay(String line) {
+        String[] parts = line.split(" ");
+        if (parts.length < 2) return;
+        switch (parts[0]) {
+            case WRITE:
+                if (parts.length == 3) {
+                    try {
+                        entries.put(parts[1], Long.parseLong(parts[2]));
+                    } catch (NumberFormatException e) {
+                        entries.remove(parts[1]);
+                    }
+                }
+                break;
+            case READ:
+                // Touching the entry moves it to the most recently used end
+                entries.get(parts[1]);
+                break;
+            case REMOVE:
+                entries.remove(parts[1]);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Writes a journal holding only the live entries, oldest first, and switches to it.
+     */
+    private void rewriteJournal() {
+        try {
+            if (journal != null) {
+                journal.close();
+            }
+            File tmp = new File(directory, JOURNAL_TMP);
+            try (FileOutputStream out = new FileOutputStream(tmp);
+                 Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8))) {
+                for (Map.Entry<String, Long> entry : entries.entrySet()) {
+                    writer.write(WRITE + " " + entry.getKey() + " " + entry.getValue() + "\n");
+                }
+                writer.flush();
+                out.getFD().sync();
+            }
+            File journalFile = new File(directory, JOURNAL);
+            if (!tmp.renameTo(journalFile)) {
+                throw new IOException("Could not replace journal");
+            }
+            journal = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(journalFile, true), StandardCharsets.UTF_8));
+            journalRecords = entries.size();
+        } catch (IOException e) {
+            e.printStackTrace();
+            journal = null;
+        }
+    }
+
+    /**
+     * Records an operation. Reads are flushed in batches, since losing a few of
+     * them in a crash merely changes which thumbnails are evicted first.
+     */
+    private void appendJournal(String operation, String name, long bytes, boolean flush) {
+        if (journal == null) return;
+        try {
+            journal.write(bytes >= 0 ? operation + " " + name + " " + bytes + "\n" : operation + " " + name + "\n");
+            if (flush || ++unflushedReads >= READ_FLUSH_INTERVAL) {
+                journal.flush();
+                unflushedReads = 0;
+            }
+            journalRecords++;
+            if (journalRecords > entries.size() * 2 + COMPACT_THRESHOLD) {
+                rewriteJournal();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+        while (bytesInUse > MAX_BYTES && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            new File(directory, eldest.getKey()).delete();
+            bytesInUse -= eldest.getValue();
+            it.remove();
+            appendJournal(REMOVE, eldest.getKey(), -1, true);
+        }
+    }
+
+    private void removeEntry(String name) {
+        Long bytes = entries.remove(name);
+        if (bytes != null) {
+            bytesInUse -= bytes;
+            new File(directory, name).delete();
+            appendJournal(REMOVE, name, -1, true);
+        }
+    }
+
+    /**
+     * Gets the format a thumbnail is stored in. Lossy WebP is smaller than JPEG at the
+     * same quality and keeps transparency; before API 30 only the deprecated WEBP format
+     * has it, so JPEG is used for opaque thumbnails and WEBP for those with alpha.
+     */
+    @SuppressWarnings("deprecation")
+    private static Bitmap.CompressFormat compressFormat(Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+            return Bitmap.CompressFormat.WEBP_LOSSY;
+        }
+        return bitmap.hasAlpha() ? Bitmap.CompressFormat.WEBP : Bitmap.CompressFormat.JPEG;
+    }
+
+    /**
+     * Gets the file name of a key: a hex SHA-1, safe for any URI.
+     */
+    private static String fileName(String key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                name.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return name.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // Every Android runtime provides SHA-1
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,395 @@
+package com.photos.image;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.DocumentsContract;
+import android.provider.OpenableColumns;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+
+import com.photos.R;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads thumbnails into ImageViews off the main thread.
+ * Each request is tagged on its ImageView, so when a RecyclerView holder is rebound
+ * to another photo the old request is cancelled, and a result arriving for a view
+ * that has moved on is dropped instead of flashing the wrong image.
+ * Queued requests run newest first, so after a fling the rows on screen are
+ * decoded before the ones that scrolled past.
+ * Views asking for the same thumbnail while it is being decoded, such as an album
+ * cover and the first photo of that album, share one decode. Cancelling a view's
+ * request only drops the decode once no other view waits for it.
+ * Decoded thumbnails are kept in the shared BitmapCache, so rebinding a row or
+ * coming back to a screen shows them without decoding again, and in the
+ * DiskThumbnailCache, so a later visit reads a small file instead of the full image.
+ * The disk cache is opened on a pool thread, as opening it reads its journal and
+ * tidies its directory; decodes reaching it first wait until it is open.
+ * The bitmap a view shows is tagged on it too and counted by the BitmapCache, so
+ * once a view moves on and the cache has evicted the bitmap, its memory is reused
+ * by the next decode through the BitmapPool.
+ * Thumbnails are decoded in the format the DecodePolicy picks for them.
+ * Must be called on the main thread.
+ */
+public class ImageLoader {
+
+    /** Thumbnail size used before a view's size is known. */
+    static final int DEFAULT_THUMBNAIL_SIZE = 384;
+    /** Thumbnail sizes are rounded up to a multiple of this, so similar views share cache entries. */
+    static final int SIZE_STEP = 128;
+    /** Largest thumbnail size looked for when a thumbnail stands in for a full image. */
+    static final int MAX_PREVIEW_SIZE = 1024;
+
+    /** Most decodes running at once. */
+    static final int POOL_SIZE = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    private static ImageLoader instance;
+
+    private final Context appContext;
+    private final BitmapCache cache;
+    // Opened on a pool thread by diskCache()
+    private volatile DiskThumbnailCache diskCache;
+    private final BitmapPool pool;
+    private final DecodePolicy policy;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ThreadPoolExecutor executor;
+    // Decodes queued or running, by thumbnail key and pixel format
+    private final Map<String, Decode> decodes = new HashMap<>();
+
+    private ImageLoader(Context context) {
+        appContext = context.getApplicationContext();
+        cache = BitmapCache.getInstance(appContext);
+        pool = BitmapPool.getInstance(appContext);
+        policy = DecodePolicy.getInstance(appContext);
+        executor = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, 30, TimeUnit.SECONDS,
+                new LinkedBlockingDeque<Runnable>() {
+                    @Override
+                    public boolean offer(Runnable task) {
+                        return offerFirst(task);
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        executor.execute(this::diskCache);
+    }
+
+    /**
+     * Gets the singleton instance of ImageLoader.
+     *
+     * @param context Any context; its application context is used
+     * @return The ImageLoader instance
+     */
+    public static synchronized ImageLoader getInstance(Context context) {
+        if (instance == null) {
+            instance = new ImageLoader(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Shows a thumbnail of an image in a view, replacing any earlier request for the view.
+     * The thumbnail is decoded to cover the view, which is assumed to crop it.
+     * The placeholder is shown until the image is decoded, and stays if it cannot be.
+     *
+     * @param view        The view
+     * @param uriString   The URI string of the image
+     * @param placeholder Drawable resource shown meanwhile
+     */
+    public void loadThumbnail(ImageView view, String uriString, int placeholder) {
+        int size = thumbnailSize(view);
+        Request previous = (Request) view.getTag(R.id.image_request);
+        if (previous != null) {
+            // Rebinding a view to the image it already shows or is loading costs nothing
+            if (!previous.cancelled && previous.size == size && previous.uriString.equals(uriString)) return;
+            previous.cancel();
+            view.setTag(R.id.image_request, null);
+        }
+
+        String key = BitmapCache.key(uriString, size);
+        Bitmap cached = cache.get(key);
+        if (cached != null) {
+            show(view, cached);
+            return;
+        }
+
+        view.setImageResource(placeholder);
+        releaseShown(view);
+        Bitmap.Config config = policy.configFor(DecodePolicy.Use.THUMBNAIL);
+        String decodeKey = key + "@" + config;
+        Decode decode = decodes.get(decodeKey);
+        if (decode == null) {
+            decode = new Decode(uriString, size, config, key, decodeKey);
+            decodes.put(decodeKey, decode);
+            decode.future = executor.submit(decode);
+        }
+        Request request = new Request(view, uriString, size, decode);
+        decode.requests.add(request);
+        view.setTag(R.id.image_request, request);
+    }
+
+    /**
+     * Cancels the request for a view and clears the view, e.g. when its RecyclerView
+     * holder is recycled, so the bitmap it showed can be reused.
+     *
+     * @param view The view
+     */
+    public void cancel(ImageView view) {
+        Request request = (Request) view.getTag(R.id.image_request);
+        if (request != null) {
+            request.cancel();
+            view.setTag(R.id.image_request, null);
+        }
+        if (view.getTag(R.id.image_bitmap) != null) {
+            view.setImageDrawable(null);
+            releaseShown(view);
+        }
+    }
+
+    /**
+     * Gets the number of thumbnails queued or being decoded, each shared by the
+     * views waiting for it.
+     *
+     * @return The decode count
+     */
+    int getDecodeCount() {
+        return decodes.size();
+    }
+
+    /**
+     * Shows a bitmap in a view, counting the view as its holder.
+     */
+    private void show(ImageView view, Bitmap bitmap) {
+        cache.retain(bitmap);
+        view.setImageBitmap(bitmap);
+        releaseShown(view);
+        view.setTag(R.id.image_bitmap, bitmap);
+    }
+
+    /**
+     * Lets go of the bitmap a view showed; the view must no longer draw it.
+     */
+    private void releaseShown(ImageView view) {
+        Bitmap shown = (Bitmap) view.getTag(R.id.image_bitmap);
+        if (shown != null) {
+            view.setTag(R.id.image_bitmap, null);
+            cache.release(shown);
+        }
+    }
+
+    /**
+     * Gets the largest thumbnail of an image already decoded, from memory or else
+     * from disk, to show scaled up while the image itself is decoded.
+     * The thumbnail is counted as shown until it is passed to releasePreview().
+     *
+     * @param uriString The URI string of the image
+     * @param callback  Called on the main thread with the thumbnail, or null if none
+     *                  is cached; called at once if the thumbnail is in memory
+     */
+    public void loadPreview(String uriString, Consumer<Bitmap> callback) {
+        for (int size = MAX_PREVIEW_SIZE; size >= SIZE_STEP; size -= SIZE_STEP) {
+            Bitmap cached = cache.peek(BitmapCache.key(uriString, size));
+            if (cached != null) {
+                cache.retain(cached);
+                callback.accept(cached);
+                return;
+            }
+        }
+
+        executor.execute(() -> {
+            String stamp = sourceStamp(Uri.parse(uriString));
+            Bitmap preview = null;
+            int size = MAX_PREVIEW_SIZE;
+            for (; size >= SIZE_STEP; size -= SIZE_STEP) {
+                preview = diskCache().get(diskKey(size, stamp, uriString), policy.configFor(DecodePolicy.Use.THUMBNAIL));
+                if (preview != null) break;
+            }
+            Bitmap found = preview;
+            String key = BitmapCache.key(uriString, size);
+            mainHandler.post(() -> {
+                if (found != null) {
+                    cache.put(key, found);
+                    cache.retain(found);
+                }
+                callback.accept(found);
+            });
+        });
+    }
+
+    /**
+     * Lets go of a thumbnail from loadPreview() once it is no longer drawn.
+     *
+     * @param preview The thumbnail
+     */
+    public void releasePreview(Bitmap preview) {
+        cache.release(preview);
+    }
+
+    /**
+     * Gets the square a thumbnail is decoded to cover: the view's size from its
+     * layout parameters, or as measured, rounded up to a multiple of SIZE_STEP.
+     * Layout parameters come first so a view gets the same size before and after
+     * its first layout.
+     */
+    static int thumbnailSize(ImageView view) {
+        int size = 0;
+        ViewGroup.LayoutParams params = view.getLayoutParams();
+        if (params != null) {
+            size = Math.max(params.width, params.height);
+        }
+        if (size <= 0) {
+            size = Math.max(view.getWidth(), view.getHeight());
+        }
+        if (size <= 0) {
+            size = DEFAULT_THUMBNAIL_SIZE;
+        }
+        return (size + SIZE_STEP - 1) / SIZE_STEP * SIZE_STEP;
+    }
+
+    /**
+     * Gets a thumbnail from the disk cache, or decodes and stores it. Runs on a pool thread.
+     * The disk key includes the image's size and modification time, so an edited
+     * image is not shown with its old thumbnail.
+     *
+     * @return The bitmap, or null if the image cannot be read
+     */
+    private Bitmap loadThumbnail(String uriString, int size, Bitmap.Config config) {
+        Uri uri = Uri.parse(uriString);
+        String diskKey = diskKey(size, sourceStamp(uri), uriString);
+        Bitmap thumbnail = diskCache().get(diskKey, config);
+        if (thumbnail != null) {
+            return thumbnail;
+        }
+
+        thumbnail = BitmapDecoder.decode(appContext.getContentResolver(), uri, size, size, true, config, pool);
+        if (thumbnail == null) return null;
+        diskCache().put(diskKey, thumbnail);
+        return thumbnail;
+    }
+
+    /**
+     * Gets the disk cache, opening it on first use. Runs on a pool thread; threads
+     * calling this while the cache is being opened wait for it.
+     */
+    private DiskThumbnailCache diskCache() {
+        DiskThumbnailCache opened = diskCache;
+        if (opened == null) {
+            opened = DiskThumbnailCache.getInstance(appContext);
+            diskCache = opened;
+        }
+        return opened;
+    }
+
+    private static String diskKey(int size, String stamp, String uriString) {
+        return size + "@" + stamp + "@" + uriString;
+    }
+
+    /**
+     * Gets the size and modification time of an image, as far as its provider reports them.
+     *
+     * @return A string identifying this version of the image, empty if unknown
+     */
+    private String sourceStamp(Uri uri) {
+        ContentResolver resolver = appContext.getContentResolver();
+        try (Cursor cursor = resolver.query(uri, null, null, null, null)) {
+            if (cursor != null && cursor.moveToFirst()) {
+                int sizeIndex = cursor.getColumnIndex(OpenableColumns.SIZE);
+                int modifiedIndex = cursor.getColumnIndex(DocumentsContract.Document.COLUMN_LAST_MODIFIED);
+                long size = sizeIndex >= 0 && !cursor.isNull(sizeIndex) ? cursor.getLong(sizeIndex) : -1;
+                long modified = modifiedIndex >= 0 && !cursor.isNull(modifiedIndex) ? cursor.getLong(modifiedIndex) : -1;
+                return size + ":" + modified;
+            }
+        } catch (Exception e) {
+            // Providers that cannot be queried still get cached thumbnails
+        }
+        return "";
+    }
+
+    /**
+     * A thumbnail being loaded for one view.
+     */
+    private class Request {
+        final String uriString;
+        final int size;
+        final Decode decode;
+        final WeakReference<ImageView> viewRef;
+        boolean cancelled;
+
+        Request(ImageView view, String uriString, int size, Decode decode) {
+            this.viewRef = new WeakReference<>(view);
+            this.uriString = uriString;
+            this.size = size;
+            this.decode = decode;
+        }
+
+        void cancel() {
+            cancelled = true;
+            decode.release(this);
+        }
+    }
+
+    /**
+     * A thumbnail being decoded for one or more requests.
+     * Its requests are only touched on the main thread.
+     */
+    private class Decode implements Runnable {
+        final String uriString;
+        final int size;
+        final Bitmap.Config config;
+        final String key;
+        final String decodeKey;
+        final List<Request> requests = new ArrayList<>();
+        Future<?> future;
+
+        Decode(String uriString, int size, Bitmap.Config config, String key, String decodeKey) {
+            this.uriString = uriString;
+            this.size = size;
+            this.config = config;
+            this.key = key;
+            this.decodeKey = decodeKey;
+        }
+
+        /**
+         * Lets go of a request, dropping the decode if it was the last one and the
+         * decode has not started. A decode already running only fills the cache, and
+         * views asking for the thumbnail meanwhile still share it.
+         */
+        void release(Request request) {
+            requests.remove(request);
+            if (requests.isEmpty() && executor.remove((Runnable) future)) {
+                decodes.remove(decodeKey, this);
+            }
+        }
+
+        @Override
+        public void run() {
+            Bitmap bitmap = loadThumbnail(uriString, size, config);
+            mainHandler.post(() -> {
+                decodes.remove(decodeKey, Decode.this);
+                if (bitmap == null) return;
+                // Cached even if every request was cancelled, as the row is likely to be shown again
+                cache.put(key, bitmap);
+                for (Request request : requests) {
+                    ImageView view = request.viewRef.get();
+                    // The view may have been rebound while the image was decoding
+                    if (view != null && !request.cancelled && view.getTag(R.id.image_request) == request) {
+                        show(view, bitmap);
+                    }
+                }
+            });
+        }
+    }
+}
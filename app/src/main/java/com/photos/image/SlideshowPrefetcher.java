@@ -0,0 +1,278 @@
+package com.photos.image;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.graphics.drawable.TransitionDrawable;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decodes the photos around the one a slideshow shows ahead of time, so stepping to
+ * the next or previous photo shows an image that is already decoded.
+ * Photos are decoded for one target size on a background thread, in the order they
+ * were asked for, and kept in a small cache of their own so they do not push
+ * thumbnails out of the BitmapCache. Asking for a new set of photos drops queued
+ * decodes of photos no longer wanted, so after a jump the new photo does not wait
+ * behind stale work.
+ * <p>
+ * A photo that is not decoded yet is shown in two stages: the largest cached
+ * thumbnail, scaled up, and then the decoded photo. If the photo takes long enough
+ * for the thumbnail to have been seen, it cross-fades in. The time to the first
+ * stage is recorded in the ViewerMetrics, which are logged along with the memory
+ * cache and pool statistics when the slideshow shuts down.
+ * Must be called on the main thread.
+ */
+public class SlideshowPrefetcher {
+
+    private static final String TAG = "SlideshowPrefetcher";
+
+    /** Decoded photos kept: the shown one, its neighbours and a few further ahead. */
+    static final int CACHE_SIZE = 5;
+    /** Photos decoded ahead in the direction the slideshow is moving. */
+    static final int PREFETCH_AHEAD = 2;
+    /** Time after which a decoded photo cross-fades in over its thumbnail rather than replacing it. */
+    static final long CROSS_FADE_THRESHOLD_MS = 100;
+    /** Length of the cross-fade. */
+    static final int CROSS_FADE_MS = 150;
+
+    private final ContentResolver resolver;
+    private final ImageLoader imageLoader;
+    private final DecodePolicy policy;
+    private final BitmapCache bitmapCache;
+    private final BitmapPool pool;
+    private final int targetWidth;
+    private final int targetHeight;
+    private final LruCache<String, Bitmap> cache = new LruCache<>(CACHE_SIZE);
+    private final Map<String, Future<?>> pending = new HashMap<>();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ThreadPoolExecutor executor;
+
+    private ImageView view;
+    private String shownUri;
+    private long shownAt;
+    private boolean firstPixelShown;
+    // The thumbnail standing in for the shown photo, held until it is no longer drawn
+    private Bitmap preview;
+    private boolean shutDown;
+
+    /**
+     * Creates a prefetcher decoding photos to fit inside the given size.
+     *
+     * @param context      Any context
+     * @param targetWidth  The width of the slideshow view in pixels
+     * @param targetHeight The height of the slideshow view in pixels
+     */
+    public SlideshowPrefetcher(Context context, int targetWidth, int targetHeight) {
+        this.resolver = context.getApplicationContext().getContentResolver();
+        this.imageLoader = ImageLoader.getInstance(context);
+        this.policy = DecodePolicy.getInstance(context);
+        this.bitmapCache = BitmapCache.getInstance(context);
+        this.pool = BitmapPool.getInstance(context);
+        this.targetWidth = targetWidth;
+        this.targetHeight = targetHeight;
+        executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Gets the positions a slideshow is likely to show next: the neighbours, then a
+     * few more in the direction it is moving. The slideshow wraps around, and no
+     * position is listed twice or is the shown one.
+     *
+     * @param position  The position shown
+     * @param count     The number of photos in the slideshow
+     * @param direction 1 if the slideshow is moving forward, -1 if back
+     * @return Positions, most likely first
+     */
+    public static List<Integer> upcomingPositions(int position, int count, int direction) {
+        List<Integer> positions = new ArrayList<>();
+        for (int step = 0; step <= PREFETCH_AHEAD; step++) {
+            // Next in the direction of travel, then the one just left
+            int offset = step == 1 ? -direction : Math.max(1, step) * direction;
+            if (Math.abs(offset) >= count) continue;
+            int upcoming = Math.floorMod(position + offset, count);
+            if (!positions.contains(upcoming)) {
+                positions.add(upcoming);
+            }
+        }
+        return positions;
+    }
+
+    /**
+     * Shows a photo in a view, and starts decoding the photos likely to be shown next.
+     * A decoded photo is shown at once; otherwise its largest cached thumbnail is
+     * shown until it is decoded, or the placeholder if there is none.
+     *
+     * @param view        The slideshow view
+     * @param uriString   The URI string of the photo to show
+     * @param placeholder Drawable resource shown meanwhile
+     * @param upcoming    URI strings of the photos to decode ahead, most likely first
+     */
+    public void show(ImageView view, String uriString, int placeholder, List<String> upcoming) {
+        this.view = view;
+        this.shownUri = uriString;
+        shownAt = SystemClock.uptimeMillis();
+        firstPixelShown = false;
+
+        Bitmap bitmap = cache.get(uriString);
+        if (bitmap != null) {
+            view.setImageBitmap(bitmap);
+            releasePreview();
+            recordFirstPixel(ViewerMetrics.FirstStage.PREFETCHED);
+        } else {
+            view.setImageResource(placeholder);
+            releasePreview();
+            imageLoader.loadPreview(uriString, thumbnail -> showPreview(uriString, thumbnail));
+        }
+
+        List<String> wanted = new ArrayList<>();
+        wanted.add(uriString);
+        wanted.addAll(upcoming);
+        prefetch(wanted);
+    }
+
+    /**
+     * Decodes photos that are neither cached nor queued, dropping queued decodes
+     * of photos not in the list.
+     *
+     * @param uriStrings URI strings of the photos to decode, most likely first
+     */
+    public void prefetch(List<String> uriStrings) {
+        if (shutDown) return;
+        Iterator<Map.Entry<String, Future<?>>> it = pending.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Future<?>> entry = it.next();
+            if (!uriStrings.contains(entry.getKey())) {
+                cancel(entry.getValue());
+                it.remove();
+            }
+        }
+        for (String uriString : uriStrings) {
+            if (cache.get(uriString) == null && !pending.containsKey(uriString)) {
+                pending.put(uriString, executor.submit(() -> decode(uriString)));
+            }
+        }
+    }
+
+    /**
+     * Drops every queued decode, e.g. when the slideshow leaves the screen.
+     * A decode already running still fills the cache.
+     */
+    public void cancel() {
+        for (Future<?> future : pending.values()) {
+            cancel(future);
+        }
+        pending.clear();
+    }
+
+    /**
+     * Stops decoding and drops the decoded photos, once the slideshow is closed.
+     * Logs the time to first pixel and the memory cache and pool statistics.
+     */
+    public void shutdown() {
+        shutDown = true;
+        cancel();
+        executor.shutdown();
+        cache.evictAll();
+        releasePreview();
+        view = null;
+        Log.i(TAG, ViewerMetrics.getInstance() + " " + bitmapCache + " " + pool);
+    }
+
+    /**
+     * Shows a thumbnail in place of a photo not decoded yet.
+     */
+    private void showPreview(String uriString, Bitmap thumbnail) {
+        if (thumbnail == null) return;
+        // Too late if the slideshow moved on or the photo itself is already shown
+        if (shutDown || !uriString.equals(shownUri) || firstPixelShown) {
+            imageLoader.releasePreview(thumbnail);
+            return;
+        }
+        view.setImageBitmap(thumbnail);
+        preview = thumbnail;
+        recordFirstPixel(ViewerMetrics.FirstStage.THUMBNAIL);
+    }
+
+    /**
+     * Replaces the shown thumbnail, if any, by the decoded photo.
+     */
+    private void showDecoded(Bitmap bitmap) {
+        recordFirstPixel(ViewerMetrics.FirstStage.DECODED);
+        if (preview == null || SystemClock.uptimeMillis() - shownAt < CROSS_FADE_THRESHOLD_MS) {
+            // Quick enough that the thumbnail was barely seen
+            view.setImageBitmap(bitmap);
+            releasePreview();
+            return;
+        }
+
+        Bitmap fading = preview;
+        TransitionDrawable transition = new TransitionDrawable(new Drawable[]{
+                new BitmapDrawable(view.getResources(), fading),
+                new BitmapDrawable(view.getResources(), bitmap)});
+        transition.setCrossFadeEnabled(true);
+        view.setImageDrawable(transition);
+        transition.startTransition(CROSS_FADE_MS);
+        view.postDelayed(() -> {
+            // Drop the thumbnail from the view once faded out, unless the slideshow moved on
+            if (preview == fading && view != null) {
+                view.setImageBitmap(bitmap);
+                releasePreview();
+            }
+        }, CROSS_FADE_MS);
+    }
+
+    private void releasePreview() {
+        if (preview != null) {
+            imageLoader.releasePreview(preview);
+            preview = null;
+        }
+    }
+
+    private void recordFirstPixel(ViewerMetrics.FirstStage stage) {
+        if (firstPixelShown) return;
+        firstPixelShown = true;
+        ViewerMetrics.getInstance().recordFirstPixel(SystemClock.uptimeMillis() - shownAt, stage);
+    }
+
+    private void cancel(Future<?> future) {
+        future.cancel(false);
+        executor.remove((Runnable) future);
+    }
+
+    /**
+     * Decodes a photo and hands it to the main thread. Runs on the background thread.
+     */
+    private void decode(String uriString) {
+        Bitmap bitmap = BitmapDecoder.decode(resolver, Uri.parse(uriString), targetWidth, targetHeight, false,
+                policy.configFor(DecodePolicy.Use.SLIDESHOW), null);
+        mainHandler.post(() -> {
+            if (shutDown) return;
+            pending.remove(uriString);
+            if (bitmap == null) return;
+            cache.put(uriString, bitmap);
+            // The slideshow may have moved on while the photo was decoding
+            if (uriString.equals(shownUri) && view != null) {
+                showDecoded(bitmap);
+            }
+        });
+    }
+}
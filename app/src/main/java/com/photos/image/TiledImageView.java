@@ -0,0 +1,445 @@
+package com.photos.image;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.util.AttributeSet;
+import android.util.LruCache;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
+import android.view.View;
+
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shows an image of any size with pinch, pan and double-tap zoom.
+ * A preview decoded to fit the view is shown first. Once the user zooms past the
+ * preview's resolution, only the visible part of the image is decoded, in tiles of
+ * TILE_SIZE pixels at the sample size the zoom needs, through a BitmapRegionDecoder.
+ * Tiles are decoded on a background thread and kept in a cache bounded by the view's
+ * size; queued tiles that scroll out of view are dropped. Memory use therefore
+ * depends on the screen, not the image, so panoramas and scans can be opened.
+ * <p>
+ * Call release() when the view is no longer needed.
+ */
+public class TiledImageView extends View {
+
+    /** Width and height of a decoded tile in pixels. */
+    static final int TILE_SIZE = 256;
+    /** Screens' worth of ARGB pixels the tile cache may hold. */
+    static final int TILE_CACHE_SCREENS = 2;
+    /** Zoom, in screen pixels per image pixel, that can always be reached. */
+    static final float MAX_SCALE = 2f;
+    /** Zoom of a double tap, relative to fitting the view. */
+    static final float DOUBLE_TAP_ZOOM = 3f;
+    /** Zoom past the preview's resolution tolerated before tiles are decoded. */
+    static final float PREVIEW_TOLERANCE = 1.1f;
+
+    private final ScaleGestureDetector scaleDetector;
+    private final GestureDetector gestureDetector;
+    private final ThreadPoolExecutor executor;
+    private final DecodePolicy policy;
+    private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final RectF drawRect = new RectF();
+    private final Rect tileRect = new Rect();
+    // Main thread only
+    private final Map<Long, Future<?>> pendingTiles = new HashMap<>();
+    private final Set<Long> visibleTiles = new HashSet<>();
+    private LruCache<Long, Bitmap> tileCache;
+
+    private Uri uri;
+    private boolean loading;
+    private volatile boolean released;
+    private Bitmap preview;
+    private BitmapRegionDecoder decoder;
+    private int imageWidth;
+    private int imageHeight;
+    // Preview pixels per image pixel
+    private float previewScale;
+    // Screen pixels per image pixel, and the screen position of the image's top left
+    private float fitScale;
+    private float scale;
+    private float translateX;
+    private float translateY;
+
+    public TiledImageView(Context context) {
+        this(context, null);
+    }
+
+    public TiledImageView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        policy = DecodePolicy.getInstance(context);
+        executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+        executor.allowCoreThreadTimeOut(true);
+
+        scaleDetector = new ScaleGestureDetector(context, new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+            @Override
+            public boolean onScale(ScaleGestureDetector detector) {
+                zoomTo(scale * detector.getScaleFactor(), detector.getFocusX(), detector.getFocusY());
+                return true;
+            }
+        });
+        gestureDetector = new GestureDetector(context, new GestureDetector.SimpleOnGestureListener() {
+            @Override
+            public boolean onDown(MotionEvent e) {
+                return true;
+            }
+
+            @Override
+            public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX, float distanceY) {
+                if (scaleDetector.isInProgress()) return false;
+                translateX -= distanceX;
+                translateY -= distanceY;
+                clampTranslation();
+                invalidate();
+                return true;
+            }
+
+            @Override
+            public boolean onDoubleTap(MotionEvent e) {
+                // Zoom in on the tapped point, or back out to fit the view
+                float target = scale > fitScale * PREVIEW_TOLERANCE ? fitScale : fitScale * DOUBLE_TAP_ZOOM;
+                zoomTo(target, e.getX(), e.getY());
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Sets the image to show. Decoding starts once the view has a size.
+     *
+     * @param uri The image URI
+     */
+    public void setImageUri(Uri uri) {
+        this.uri = uri;
+        if (getWidth() > 0 && getHeight() > 0) {
+            load();
+        }
+    }
+
+    /**
+     * Stops decoding and frees the decoded image. The view shows nothing afterwards.
+     */
+    public void release() {
+        released = true;
+        for (Future<?> future : pendingTiles.values()) {
+            future.cancel(false);
+        }
+        pendingTiles.clear();
+        BitmapRegionDecoder regionDecoder = decoder;
+        decoder = null;
+        if (regionDecoder != null) {
+            // Recycled after any tile still being decoded
+            executor.execute(regionDecoder::recycle);
+        }
+        executor.shutdown();
+        if (tileCache != null) {
+            tileCache.evictAll();
+        }
+        preview = null;
+        imageWidth = 0;
+    }
+
+    @Override
+    protected void onSizeChanged(int width, int height, int oldWidth, int oldHeight) {
+        super.onSizeChanged(width, height, oldWidth, oldHeight);
+        if (tileCache != null) {
+            tileCache.evictAll();
+        }
+        tileCache = new LruCache<Long, Bitmap>(TILE_CACHE_SCREENS * width * height * 4) {
+            @Override
+            protected int sizeOf(Long key, Bitmap tile) {
+                return tile.getAllocationByteCount();
+            }
+        };
+        if (uri != null && !loading) {
+            load();
+        } else {
+            resetZoom();
+        }
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        if (imageWidth == 0) return super.onTouchEvent(event);
+        scaleDetector.onTouchEvent(event);
+        gestureDetector.onTouchEvent(event);
+        return true;
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        if (imageWidth == 0) return;
+        if (preview != null) {
+            mapToView(0, 0, imageWidth, imageHeight);
+            canvas.drawBitmap(preview, null, drawRect, paint);
+        }
+        drawTiles(canvas);
+    }
+
+    /**
+     * Decodes the preview and opens the region decoder on the background thread.
+     */
+    private void load() {
+        if (released) return;
+        loading = true;
+        Uri imageUri = uri;
+        int width = getWidth();
+        int height = getHeight();
+        ContentResolver resolver = getContext().getContentResolver();
+        executor.execute(() -> {
+            Bitmap bitmap = BitmapDecoder.decode(resolver, imageUri, width, height, false,
+                    policy.configFor(DecodePolicy.Use.VIEWER), null);
+            BitmapRegionDecoder regionDecoder = openRegionDecoder(resolver, imageUri);
+            if (released) {
+                if (regionDecoder != null) {
+                    regionDecoder.recycle();
+                }
+                return;
+            }
+            post(() -> onLoaded(bitmap, regionDecoder));
+        });
+    }
+
+    private void onLoaded(Bitmap bitmap, BitmapRegionDecoder regionDecoder) {
+        if (released) {
+            // Nothing else has used the decoder yet
+            if (regionDecoder != null) {
+                regionDecoder.recycle();
+            }
+            return;
+        }
+        preview = bitmap;
+        decoder = regionDecoder;
+        if (regionDecoder != null) {
+            imageWidth = regionDecoder.getWidth();
+            imageHeight = regionDecoder.getHeight();
+        } else if (bitmap != null) {
+            // Without a region decoder the preview is all there is to zoom into
+            imageWidth = bitmap.getWidth();
+            imageHeight = bitmap.getHeight();
+        }
+        previewScale = bitmap != null && imageWidth > 0 ? (float) bitmap.getWidth() / imageWidth : 0;
+        resetZoom();
+        invalidate();
+    }
+
+    /**
+     * Opens a region decoder for an image.
+     *
+     * @return The decoder, or null if the image format does not support region decoding
+     */
+    private static BitmapRegionDecoder openRegionDecoder(ContentResolver resolver, Uri uri) {
+        try (ParcelFileDescriptor pfd = resolver.openFileDescriptor(uri, "r")) {
+            if (pfd != null) {
+                // The decoder keeps its own duplicate of the descriptor
+                return BitmapRegionDecoder.newInstance(pfd.getFileDescriptor(), false);
+            }
+        } catch (Exception e) {
+            // Fall back to reading a stream
+        }
+        try (InputStream in = resolver.openInputStream(uri)) {
+            return in == null ? null : BitmapRegionDecoder.newInstance(in, false);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private void resetZoom() {
+        if (imageWidth == 0 || getWidth() == 0 || getHeight() == 0) return;
+        fitScale = Math.min((float) getWidth() / imageWidth, (float) getHeight() / imageHeight);
+        scale = fitScale;
+        clampTranslation();
+    }
+
+    /**
+     * Zooms around a point of the view, which stays over the same point of the image.
+     */
+    private void zoomTo(float target, float focusX, float focusY) {
+        float newScale = Math.max(fitScale, Math.min(maxScale(), target));
+        translateX = focusX - (focusX - translateX) * newScale / scale;
+        translateY = focusY - (focusY - translateY) * newScale / scale;
+        scale = newScale;
+        clampTranslation();
+        invalidate();
+    }
+
+    private float maxScale() {
+        return Math.max(MAX_SCALE, fitScale * DOUBLE_TAP_ZOOM);
+    }
+
+    /**
+     * Keeps the image covering the view where it is large enough, centered otherwise.
+     */
+    private void clampTranslation() {
+        float width = imageWidth * scale;
+        float height = imageHeight * scale;
+        translateX = width <= getWidth() ? (getWidth() - width) / 2
+                : Math.max(getWidth() - width, Math.min(0, translateX));
+        translateY = height <= getHeight() ? (getHeight() - height) / 2
+                : Math.max(getHeight() - height, Math.min(0, translateY));
+    }
+
+    private void mapToView(float left, float top, float right, float bottom) {
+        drawRect.set(translateX + left * scale, translateY + top * scale,
+                translateX + right * scale, translateY + bottom * scale);
+    }
+
+    /**
+     * Draws the cached visible tiles and requests the missing ones.
+     */
+    private void drawTiles(Canvas canvas) {
+        visibleTiles.clear();
+        int sampleSize = tileSampleSize();
+        if (sampleSize > 0) {
+            int span = TILE_SIZE * sampleSize;
+            int firstColumn = (int) (visibleLeft() / span);
+            int lastColumn = (int) Math.ceil(visibleRight() / span) - 1;
+            int firstRow = (int) (visibleTop() / span);
+            int lastRow = (int) Math.ceil(visibleBottom() / span) - 1;
+            for (int row = firstRow; row <= lastRow; row++) {
+                for (int column = firstColumn; column <= lastColumn; column++) {
+                    long key = tileKey(sampleSize, column, row);
+                    visibleTiles.add(key);
+                    tileRect.set(column * span, row * span,
+                            Math.min(imageWidth, (column + 1) * span), Math.min(imageHeight, (row + 1) * span));
+                    Bitmap tile = tileCache.get(key);
+                    if (tile != null) {
+                        mapToView(tileRect.left, tileRect.top, tileRect.right, tileRect.bottom);
+                        canvas.drawBitmap(tile, null, drawRect, paint);
+                    } else if (!pendingTiles.containsKey(key)) {
+                        requestTile(key, new Rect(tileRect), sampleSize);
+                    }
+                }
+            }
+        }
+
+        // Drop queued tiles that scrolled out of view or belong to another zoom
+        Iterator<Map.Entry<Long, Future<?>>> it = pendingTiles.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Long, Future<?>> entry = it.next();
+            if (!visibleTiles.contains(entry.getKey())) {
+                entry.getValue().cancel(false);
+                executor.remove((Runnable) entry.getValue());
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Gets the sample size to decode tiles at for the current zoom.
+     *
+     * @return The sample size, or 0 if the preview is sharp enough
+     */
+    private int tileSampleSize() {
+        if (decoder == null || tileCache == null) return 0;
+        return tileSampleSize(scale, previewScale, visibleLeft(), visibleTop(), visibleRight(), visibleBottom(),
+                tileCache.maxSize());
+    }
+
+    /**
+     * Gets the sample size to decode tiles at for a zoom: the largest power of two
+     * that keeps them at least as sharp as the screen, made coarser if the visible
+     * tiles would not fit in the cache.
+     *
+     * @param scale        The zoom, in screen pixels per image pixel
+     * @param previewScale The preview's width over the image's
+     * @param left         Left edge of the visible part of the image, in image pixels
+     * @param top          Top edge of the visible part
+     * @param right        Right edge of the visible part
+     * @param bottom       Bottom edge of the visible part
+     * @param cacheBytes   The most bytes the tile cache holds
+     * @return The sample size, or 0 if the preview is sharp enough or no sharper tiles fit
+     */
+    static int tileSampleSize(float scale, float previewScale, float left, float top, float right, float bottom,
+                              long cacheBytes) {
+        if (scale <= previewScale * PREVIEW_TOLERANCE) return 0;
+        int sampleSize = 1;
+        while (sampleSize * 2 * scale <= 1) {
+            sampleSize *= 2;
+        }
+        while (1f / sampleSize > previewScale) {
+            if (visibleTileBytes(sampleSize, left, top, right, bottom) <= cacheBytes) return sampleSize;
+            sampleSize *= 2;
+        }
+        return 0;
+    }
+
+    /**
+     * Gets the bytes of the tiles covering the visible part of the image at a sample size.
+     */
+    static long visibleTileBytes(int sampleSize, float left, float top, float right, float bottom) {
+        int span = TILE_SIZE * sampleSize;
+        long columns = (long) Math.ceil(right / span) - (int) (left / span);
+        long rows = (long) Math.ceil(bottom / span) - (int) (top / span);
+        return columns * rows * TILE_SIZE * TILE_SIZE * 4;
+    }
+
+    private float visibleLeft() {
+        return Math.max(0, -translateX / scale);
+    }
+
+    private float visibleTop() {
+        return Math.max(0, -translateY / scale);
+    }
+
+    private float visibleRight() {
+        return Math.min(imageWidth, (getWidth() - translateX) / scale);
+    }
+
+    private float visibleBottom() {
+        return Math.min(imageHeight, (getHeight() - translateY) / scale);
+    }
+
+    private static long tileKey(int sampleSize, int column, int row) {
+        return ((long) sampleSize << 48) | ((long) row << 24) | column;
+    }
+
+    private void requestTile(long key, Rect region, int sampleSize) {
+        BitmapRegionDecoder regionDecoder = decoder;
+        Bitmap.Config config = policy.configFor(DecodePolicy.Use.VIEWER);
+        pendingTiles.put(key, executor.submit(() -> {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inSampleSize = sampleSize;
+            options.inPreferredConfig = config;
+            Bitmap tile;
+            try {
+                tile = regionDecoder.decodeRegion(region, options);
+            } catch (IllegalArgumentException e) {
+                e.printStackTrace();
+                tile = null;
+            }
+            Bitmap decoded = tile;
+            post(() -> onTileDecoded(key, decoded));
+        }));
+    }
+
+    private void onTileDecoded(long key, Bitmap tile) {
+        if (released) return;
+        pendingTiles.remove(key);
+        if (tile != null) {
+            tileCache.put(key, tile);
+            invalidate();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.photos.image;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Time to first pixel of the photo viewer: how long after a photo is opened or
+ * stepped to something other than the placeholder is put on screen. Kept for the
+ * most recent photos, along with what was shown first.
+ */
+public class ViewerMetrics {
+
+    /** What a photo was first shown as. */
+    public enum FirstStage {
+        /** The photo, decoded ahead of time. */
+        PREFETCHED,
+        /** A cached thumbnail, scaled up until the photo is decoded. */
+        THUMBNAIL,
+        /** The photo, decoded after it was opened. */
+        DECODED
+    }
+
+    /** Number of most recent photos kept. */
+    static final int SAMPLE_COUNT = 100;
+
+    private static ViewerMetrics instance;
+
+    private final long[] samples = new long[SAMPLE_COUNT];
+    private final int[] stageCounts = new int[FirstStage.values().length];
+    private int sampleCount;
+    private int next;
+
+    private ViewerMetrics() {
+    }
+
+    /**
+     * Gets the singleton instance of ViewerMetrics.
+     *
+     * @return The ViewerMetrics instance
+     */
+    public static synchronized ViewerMetrics getInstance() {
+        if (instance == null) {
+            instance = new ViewerMetrics();
+        }
+        return instance;
+    }
+
+    /**
+     * Records the first pixel of a photo.
+     *
+     * @param millis Milliseconds since the photo was opened
+     * @param stage  What was shown
+     */
+    public synchronized void recordFirstPixel(long millis, FirstStage stage) {
+        samples[next] = millis;
+        next = (next + 1) % SAMPLE_COUNT;
+        sampleCount = Math.min(sampleCount + 1, SAMPLE_COUNT);
+        stageCounts[stage.ordinal()]++;
+    }
+
+    /**
+     * Gets a percentile of the time to first pixel over the most recent photos.
+     *
+     * @param percent The percentile, from 0 to 100
+     * @return Milliseconds, or 0 before any photo was shown
+     */
+    public synchronized long getPercentile(int percent) {
+        if (sampleCount == 0) return 0;
+        long[] sorted = Arrays.copyOf(samples, sampleCount);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percent / 100.0 * sampleCount) - 1;
+        return sorted[Math.max(0, Math.min(sampleCount - 1, index))];
+    }
+
+    /**
+     * Gets the number of photos first shown as the given stage, since the app started.
+     *
+     * @param stage The stage
+     * @return The count
+     */
+    public synchronized int getCount(FirstStage stage) {
+        return stageCounts[stage.ordinal()];
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US,
+                "ViewerMetrics[first pixel p50 %d ms, p90 %d ms, %d prefetched, %d thumbnail, %d decoded]",
+                getPercentile(50), getPercentile(90), getCount(FirstStage.PREFETCHED),
+                getCount(FirstStage.THUMBNAIL), getCount(FirstStage.DECODED));
+    }
+}
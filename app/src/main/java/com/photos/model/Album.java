@@ -11,8 +11,11 @@ import java.util.List;
 public class Album implements Serializable {
     private static final long serialVersionUID = 1L;
 
+    private long id;
     private String name;
     private List<Photo> photos;
+    private TagSketch tagSketch;
+    private boolean tagSketchStale;
 
     /**
      * Constructs a new Album with the specified name.
@@ -24,6 +27,25 @@ public class Album implements Serializable {
         this.photos = new ArrayList<>();
     }
 
+    /**
+     * Gets the stable ID of this album, assigned by DataManager.
+     * Unlike the name, the ID does not change when the album is renamed.
+     *
+     * @return The album ID, or 0 if not yet assigned
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Sets the stable ID of this album.
+     *
+     * @param id The album ID
+     */
+    void setId(long id) {
+        this.id = id;
+    }
+
     /**
      * Gets the name of this album.
      *
@@ -51,6 +73,15 @@ public class Album implements Serializable {
         return photos;
     }
 
+    /**
+     * Checks if this album is a smart album defined by a saved query.
+     *
+     * @return true for smart albums
+     */
+    public boolean isSmart() {
+        return false;
+    }
+
     /**
      * Adds a photo to this album if it doesn't already exist.
      *
@@ -94,6 +125,38 @@ public class Album implements Serializable {
         return photos.contains(photo);
     }
 
+    /**
+     * Gets the summary of the tag values used in this album, rebuilding it if
+     * tags were removed since it was built.
+     *
+     * @return The tag sketch
+     */
+    public TagSketch getTagSketch() {
+        if (tagSketch == null || tagSketchStale || tagSketch.isOverfull()) {
+            tagSketch = TagSketch.build(this);
+            tagSketchStale = false;
+        }
+        return tagSketch;
+    }
+
+    /**
+     * Records a tag newly used in this album in the tag sketch.
+     *
+     * @param tag The tag
+     */
+    void recordTag(Tag tag) {
+        if (tagSketch != null && !tagSketchStale) {
+            tagSketch.add(tag);
+        }
+    }
+
+    /**
+     * Marks the tag sketch for a rebuild after tags were removed from this album.
+     */
+    void invalidateTagSketch() {
+        tagSketchStale = true;
+    }
+
     /**
      * Gets a photo by its URI string.
      *
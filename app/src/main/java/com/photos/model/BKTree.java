@@ -0,0 +1,141 @@
+package com.photos.model;
+
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A BK-tree over strings using Levenshtein distance.
+ * Finds all strings within a maximum edit distance of a query while only
+ * computing the distance to a small part of the dictionary, using the
+ * triangle inequality to skip whole subtrees.
+ */
+public class BKTree implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private Node root;
+    private int size;
+
+    /**
+     * Adds a string to the tree. Duplicate strings are ignored.
+     *
+     * @param value The string to add
+     */
+    public void add(String value) {
+        if (root == null) {
+            root = new Node(value);
+            size++;
+            return;
+        }
+        Node node = root;
+        while (true) {
+            int distance = distance(node.value, value);
+            if (distance == 0) {
+                return;
+            }
+            Node child = node.children.get(distance);
+            if (child == null) {
+                node.children.put(distance, new Node(value));
+                size++;
+                return;
+            }
+            node = child;
+        }
+    }
+
+    /**
+     * Finds all strings within a maximum edit distance of the query.
+     *
+     * @param query       The string to search for
+     * @param maxDistance The maximum edit distance
+     * @return List of matches, in no particular order
+     */
+    public List<Match> search(String query, int maxDistance) {
+        List<Match> matches = new ArrayList<>();
+        if (root == null) {
+            return matches;
+        }
+        Deque<Node> pending = new ArrayDeque<>();
+        pending.push(root);
+        while (!pending.isEmpty()) {
+            Node node = pending.pop();
+            int distance = distance(node.value, query);
+            if (distance <= maxDistance) {
+                matches.add(new Match(node.value, distance));
+            }
+            // Only children at distance [d - max, d + max] from this node can match
+            for (Map.Entry<Integer, Node> entry : node.children.entrySet()) {
+                int edge = entry.getKey();
+                if (edge >= distance - maxDistance && edge <= distance + maxDistance) {
+                    pending.push(entry.getValue());
+                }
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Gets the number of distinct strings in the tree.
+     *
+     * @return The size
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Computes the Levenshtein distance between two strings.
+     *
+     * @param a First string
+     * @param b Second string
+     * @return The number of single-character insertions, deletions or substitutions
+     */
+    public static int distance(String a, String b) {
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            char ca = a.charAt(i - 1);
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = ca == b.charAt(j - 1) ? 0 : 1;
+                current[j] = Math.min(Math.min(current[j - 1] + 1, previous[j] + 1),
+                        previous[j - 1] + cost);
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[b.length()];
+    }
+
+    /**
+     * A string found by a search and its distance from the query.
+     */
+    public static class Match {
+        public final String value;
+        public final int distance;
+
+        public Match(String value, int distance) {
+            this.value = value;
+            this.distance = distance;
+        }
+    }
+
+    private static class Node implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final String value;
+        final Map<Integer, Node> children = new HashMap<>();
+
+        Node(String value) {
+            this.value = value;
+        }
+    }
+}
@@ -1,7 +1,16 @@
 package com.photos.model;
 
+import android.app.Activity;
+import android.app.Application;
 import android.content.Context;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -9,9 +18,15 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Manages data persistence and retrieval for the application.
@@ -21,17 +36,53 @@ import java.util.Set;
 public class DataManager implements Serializable {
     private static final long serialVersionUID = 1L;
     private static final String DATA_FILE = "photos_data.dat";
+    private static final String INDEX_FILE = "photos_index.dat";
+    private static final String TMP_SUFFIX = ".tmp";
+    /** Longest time metadata read by MetadataScanner stays unsaved. */
+    static final long METADATA_CHECKPOINT_MS = 10_000;
 
     private static DataManager instance;
     private static Context appContext;
 
     private List<Album> albums;
+    private transient volatile long generation;
+    private transient volatile long indexedGeneration = -1;
+    // Bumped by metadata-only changes, which do not invalidate searches
+    private transient volatile long metadataRevision;
+    private transient volatile long indexedMetadataRevision = -1;
+    private transient long savedMetadataRevision;
+    private transient boolean checkpointPending;
+    private transient Handler mainHandler = new Handler(Looper.getMainLooper());
+    private transient ExecutorService dataWriter = Executors.newSingleThreadExecutor();
+    private transient final Object dataFileLock = new Object();
+    // Held while the indexes change, and while dataWriter serializes them
+    private transient final Object indexLock = new Object();
+    // Snapshots of the library are numbered so an older one never overwrites a newer one
+    private transient long snapshotCount;
+    private transient long writtenSnapshot;
+    private transient long nextId = 1;
+    private transient Map<Long, Album> albumsById = new HashMap<>();
+    private transient Map<Long, Album> ownersByPhotoId = new HashMap<>();
+    private transient Map<Long, Photo> photosById = new HashMap<>();
+    private transient Map<Integer, SearchCursor> resultSets = new HashMap<>();
+    private transient List<LibraryListener> listeners = new ArrayList<>();
+    private transient List<MetadataListener> metadataListeners = new ArrayList<>();
+    private transient TagFacets tagFacets;
+    private transient TagCooccurrence tagCooccurrence;
+    private transient RangeIndex rangeIndex;
+    private transient GeoIndex geoIndex;
+    private transient TimelineIndex timelineIndex;
+    private transient long albumsScanned;
+    private transient long albumsPruned;
+    private transient int nextResultSetHandle = 1;
+    private transient TagDictionary tagDictionary;
 
     /**
      * Private constructor for singleton pattern.
      */
     private DataManager() {
         albums = new ArrayList<>();
+        buildIndexes();
     }
 
     /**
@@ -41,7 +92,12 @@ public class DataManager implements Serializable {
      * @param context The application context
      */
     public static void init(Context context) {
+        boolean first = appContext == null;
         appContext = context.getApplicationContext();
+        if (first && appContext instanceof Application) {
+            // Write the search indexes whenever a screen goes to the background
+            ((Application) appContext).registerActivityLifecycleCallbacks(new IndexSaver());
+        }
     }
 
     /**
@@ -65,11 +121,194 @@ public class DataManager implements Serializable {
         if (appContext == null) return;
 
         try (FileInputStream fis = appContext.openFileInput(DATA_FILE);
-             ObjectInputStream ois = new ObjectInputStream(fis)) {
+             ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(fis))) {
             albums = (List<Album>) ois.readObject();
+            try {
+                generation = ois.readLong();
+                metadataRevision = ois.readLong();
+            } catch (EOFException e) {
+                // Saved before generations or metadata revisions were recorded
+            }
         } catch (IOException | ClassNotFoundException e) {
             // File doesn't exist or error reading - start fresh
             albums = new ArrayList<>();
+            generation = 0;
+            metadataRevision = 0;
+        }
+        savedMetadataRevision = metadataRevision;
+        assignIds();
+        if (!loadIndexes()) {
+            buildIndexes();
+        }
+    }
+
+    /**
+     * Loads the search indexes saved by saveIndexes.
+     * They are only used if they were saved at the generation and metadata revision
+     * of the loaded library.
+     *
+     * @return true if the indexes were loaded
+     */
+    private boolean loadIndexes() {
+        if (generation == 0) return false;
+
+        try (FileInputStream fis = appContext.openFileInput(INDEX_FILE);
+             ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(fis))) {
+            if (ois.readLong() != generation || ois.readLong() != metadataRevision) {
+                return false;
+            }
+            TagFacets facets = (TagFacets) ois.readObject();
+            TagCooccurrence cooccurrence = (TagCooccurrence) ois.readObject();
+            RangeIndex ranges = (RangeIndex) ois.readObject();
+            GeoIndex positions = (GeoIndex) ois.readObject();
+            TimelineIndex timeline = (TimelineIndex) ois.readObject();
+            TagDictionary dictionary = (TagDictionary) ois.readObject();
+
+            tagFacets = facets;
+            tagCooccurrence = cooccurrence;
+            rangeIndex = ranges;
+            geoIndex = positions;
+            timelineIndex = timeline;
+            if (dictionary != null) {
+                tagDictionary = dictionary;
+                indexedGeneration = generation;
+                indexedMetadataRevision = metadataRevision;
+            } else {
+                // Saved while the dictionary was only built on demand: build it once and
+                // have saveIndexes write it, instead of rebuilding every index
+                tagDictionary = TagDictionary.build(albums);
+                indexedGeneration = -1;
+            }
+            registerListeners();
+            return true;
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            // Missing, stale or unreadable - rebuild from the library
+            return false;
+        }
+    }
+
+    /**
+     * Saves the search indexes next to the library, tagged with the current generation,
+     * so the next start can skip rebuilding them. The tag dictionary is always current,
+     * so it is always written along with the others.
+     * The indexes are serialized and written on a background thread, holding off
+     * changes to them meanwhile, and the file is replaced atomically.
+     * Does nothing if they were already saved at this generation and metadata revision.
+     */
+    public void saveIndexes() {
+        if (appContext == null || areIndexesSaved()) return;
+        dataWriter.execute(this::writeIndexes);
+    }
+
+    /**
+     * Checks if the saved indexes match the library: loaded or written at the current
+     * generation and metadata revision.
+     *
+     * @return true if the indexes need not be saved
+     */
+    boolean areIndexesSaved() {
+        return indexedGeneration == generation && indexedMetadataRevision == metadataRevision;
+    }
+
+    /**
+     * Serializes the indexes and writes them to INDEX_FILE. Runs on dataWriter.
+     * A generation saved a moment after the indexes changed only makes the next
+     * start rebuild them, as it no longer matches the library.
+     */
+    private void writeIndexes() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        long savedGeneration;
+        long savedMetadataRevision;
+        synchronized (indexLock) {
+            savedGeneration = generation;
+            savedMetadataRevision = metadataRevision;
+            if (indexedGeneration == savedGeneration && indexedMetadataRevision == savedMetadataRevision) return;
+            try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+                oos.writeLong(savedGeneration);
+                oos.writeLong(savedMetadataRevision);
+                oos.writeObject(tagFacets);
+                oos.writeObject(tagCooccurrence);
+                oos.writeObject(rangeIndex);
+                oos.writeObject(geoIndex);
+                oos.writeObject(timelineIndex);
+                oos.writeObject(tagDictionary);
+            } catch (IOException e) {
+                e.printStackTrace();
+                return;
+            }
+        }
+        try {
+            writeFile(INDEX_FILE, bytes.toByteArray());
+            indexedGeneration = savedGeneration;
+            indexedMetadataRevision = savedMetadataRevision;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Waits until the library and index writes queued so far are done.
+     */
+    void awaitWrites() {
+        try {
+            dataWriter.submit(() -> { }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Builds the incrementally maintained search structures from the loaded albums.
+     */
+    private void buildIndexes() {
+        tagFacets = TagFacets.build(albums);
+        tagCooccurrence = TagCooccurrence.build(albums);
+        rangeIndex = RangeIndex.build(albums);
+        geoIndex = GeoIndex.build(albums);
+        timelineIndex = TimelineIndex.build(albums);
+        tagDictionary = TagDictionary.build(albums);
+        registerListeners();
+    }
+
+    private void registerListeners() {
+        listeners.clear();
+        listeners.add(tagFacets);
+        listeners.add(tagCooccurrence);
+        listeners.add(rangeIndex);
+        listeners.add(geoIndex);
+        listeners.add(timelineIndex);
+        listeners.add(tagDictionary);
+        listeners.add(new SmartAlbumUpdater(albums));
+        listeners.add(new TagSketchUpdater());
+    }
+
+    /**
+     * Gives every album and photo a stable ID.
+     * Libraries saved before IDs existed load with 0 and are numbered here.
+     */
+    private void assignIds() {
+        for (Album album : albums) {
+            nextId = Math.max(nextId, album.getId() + 1);
+            for (Photo photo : album.getPhotos()) {
+                nextId = Math.max(nextId, photo.getId() + 1);
+            }
+        }
+        for (Album album : albums) {
+            if (album.getId() == 0) {
+                album.setId(nextId++);
+            }
+            albumsById.put(album.getId(), album);
+            for (Photo photo : album.getPhotos()) {
+                if (photo.getId() == 0) {
+                    photo.setId(nextId++);
+                }
+                if (!album.isSmart()) {
+                    ownersByPhotoId.put(photo.getId(), album);
+                    photosById.put(photo.getId(), photo);
+                }
+            }
         }
     }
 
@@ -77,16 +316,111 @@ public class DataManager implements Serializable {
      * Saves data to storage.
      */
     public void saveData() {
+        generation++;
         if (appContext == null) return;
 
-        try (FileOutputStream fos = appContext.openFileOutput(DATA_FILE, Context.MODE_PRIVATE);
-             ObjectOutputStream oos = new ObjectOutputStream(fos)) {
+        byte[] data = serializeData();
+        if (data != null) {
+            writeDataFile(data, ++snapshotCount);
+        }
+    }
+
+    /**
+     * Saves metadata applied since the last save, if any, on a background thread.
+     * Called when a metadata scan ends and when the app may be about to be killed;
+     * otherwise metadata is saved at most METADATA_CHECKPOINT_MS after it was read.
+     */
+    public void checkpoint() {
+        if (appContext == null || savedMetadataRevision == metadataRevision) return;
+
+        // The albums are only touched on the main thread, so they are serialized here
+        byte[] data = serializeData();
+        if (data != null) {
+            long snapshot = ++snapshotCount;
+            dataWriter.execute(() -> writeDataFile(data, snapshot));
+        }
+    }
+
+    /**
+     * Serializes the library as it is now.
+     *
+     * @return The file contents, or null if the library could not be serialized
+     */
+    private byte[] serializeData() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
             oos.writeObject(albums);
+            // Lets loadIndexes check that the saved indexes belong to this library
+            oos.writeLong(generation);
+            oos.writeLong(metadataRevision);
         } catch (IOException e) {
             e.printStackTrace();
+            return null;
+        }
+        savedMetadataRevision = metadataRevision;
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Writes a serialized library, unless a newer snapshot was written already.
+     */
+    private void writeDataFile(byte[] data, long snapshot) {
+        synchronized (dataFileLock) {
+            if (snapshot < writtenSnapshot) return;
+            try {
+                writeFile(DATA_FILE, data);
+                writtenSnapshot = snapshot;
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Replaces a file in the app's files directory. The contents are written to a
+     * temporary file and synced before it is renamed over the old one, so a process
+     * killed mid-write leaves the previous file intact instead of a truncated one.
+     *
+     * @param name The file name
+     * @param data The new contents
+     * @throws IOException If the file could not be written or replaced
+     */
+    private static void writeFile(String name, byte[] data) throws IOException {
+        File file = appContext.getFileStreamPath(name);
+        File tmp = appContext.getFileStreamPath(name + TMP_SUFFIX);
+        try (FileOutputStream fos = new FileOutputStream(tmp)) {
+            fos.write(data);
+            fos.getFD().sync();
+        } catch (IOException e) {
+            tmp.delete();
+            throw e;
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Could not replace " + file);
         }
     }
 
+    /**
+     * Gets the library generation.
+     * Incremented every time the data is saved, i.e. after every change to the library.
+     * Metadata read by MetadataScanner does not change it, since searches do not use it.
+     *
+     * @return The current generation
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Gets the tag facet counts, kept up to date as the library changes.
+     *
+     * @return The tag facets
+     */
+    public TagFacets getTagFacets() {
+        return tagFacets;
+    }
+
     /**
      * Gets all albums.
      *
@@ -106,7 +440,20 @@ public class DataManager implements Serializable {
         if (getAlbumByName(album.getName()) != null) {
             return false;
         }
+        if (album.getId() == 0) {
+            album.setId(nextId++);
+        }
         albums.add(album);
+        albumsById.put(album.getId(), album);
+        if (!album.isSmart()) {
+            for (Photo photo : album.getPhotos()) {
+                if (photo.getId() == 0) {
+                    photo.setId(nextId++);
+                }
+                firePhotoAdded(album, photo);
+            }
+            scanNewPhotos();
+        }
         saveData();
         return true;
     }
@@ -120,6 +467,12 @@ public class DataManager implements Serializable {
     public boolean removeAlbum(Album album) {
         boolean removed = albums.remove(album);
         if (removed) {
+            albumsById.remove(album.getId());
+            if (!album.isSmart()) {
+                for (Photo photo : new ArrayList<>(album.getPhotos())) {
+                    firePhotoRemoved(album, photo);
+                }
+            }
             saveData();
         }
         return removed;
@@ -140,6 +493,16 @@ public class DataManager implements Serializable {
         return null;
     }
 
+    /**
+     * Gets an album by its stable ID.
+     *
+     * @param id The album ID
+     * @return The album if found, null otherwise
+     */
+    public Album getAlbumById(long id) {
+        return albumsById.get(id);
+    }
+
     /**
      * Renames an album.
      *
@@ -156,6 +519,307 @@ public class DataManager implements Serializable {
         return true;
     }
 
+    /**
+     * Adds a photo to an album, giving it a stable ID.
+     *
+     * @param album The album to add to
+     * @param photo The photo to add
+     * @return true if added, false if the album already contains the photo
+     */
+    public boolean addPhoto(Album album, Photo photo) {
+        if (!album.addPhoto(photo)) {
+            return false;
+        }
+        if (photo.getId() == 0) {
+            photo.setId(nextId++);
+        }
+        firePhotoAdded(album, photo);
+        saveData();
+        scanNewPhotos();
+        return true;
+    }
+
+    /**
+     * Removes a photo from an album.
+     *
+     * @param album The album to remove from
+     * @param photo The photo to remove
+     * @return true if removed, false if the album did not contain the photo
+     */
+    public boolean removePhoto(Album album, Photo photo) {
+        if (album.isSmart() || !album.removePhoto(photo)) {
+            return false;
+        }
+        firePhotoRemoved(album, photo);
+        saveData();
+        return true;
+    }
+
+    /**
+     * Adds a tag to a photo.
+     *
+     * @param album The album containing the photo
+     * @param photo The photo to tag
+     * @param tag   The tag to add
+     * @return true if added, false if the photo already has the tag
+     */
+    public boolean addTag(Album album, Photo photo, Tag tag) {
+        if (!photo.addTag(tag)) {
+            return false;
+        }
+        synchronized (indexLock) {
+            for (LibraryListener listener : listeners) {
+                listener.onTagAdded(getOwner(album, photo), photo, tag);
+            }
+        }
+        saveData();
+        return true;
+    }
+
+    /**
+     * Removes a tag from a photo.
+     *
+     * @param album The album containing the photo
+     * @param photo The photo
+     * @param tag   The tag to remove
+     * @return true if removed, false if the photo did not have the tag
+     */
+    public boolean removeTag(Album album, Photo photo, Tag tag) {
+        if (!photo.removeTag(tag)) {
+            return false;
+        }
+        synchronized (indexLock) {
+            for (LibraryListener listener : listeners) {
+                listener.onTagRemoved(getOwner(album, photo), photo, tag);
+            }
+        }
+        saveData();
+        return true;
+    }
+
+    /**
+     * Creates a smart album whose photos are the photos matching a query.
+     * Membership is computed once here and then kept up to date incrementally.
+     *
+     * @param name  The album name
+     * @param query The query defining the album
+     * @return The new album, or null if an album with the same name exists
+     */
+    public SmartAlbum addSmartAlbum(String name, SearchQuery query) {
+        if (getAlbumByName(name) != null) {
+            return null;
+        }
+        SmartAlbum album = new SmartAlbum(name, query);
+        SearchCursor matches = collectCursor(query);
+        for (int i = 0; i < matches.getCount(); i++) {
+            album.addMember(matches.getPhoto(i));
+        }
+        addAlbum(album);
+        return album;
+    }
+
+    /**
+     * Gets the photos of a smart album together with the regular albums containing them.
+     *
+     * @param album The smart album
+     * @return List of results, in smart album order
+     */
+    public List<PhotoResult> getSmartAlbumResults(SmartAlbum album) {
+        List<PhotoResult> results = new ArrayList<>();
+        for (Photo photo : album.getPhotos()) {
+            Album owner = ownersByPhotoId.get(photo.getId());
+            if (owner != null) {
+                results.add(new PhotoResult(photo, owner, -1));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Gets the regular album containing a photo.
+     *
+     * @param photo The photo
+     * @return The album, or null if the photo is not in the library
+     */
+    public Album getAlbumOf(Photo photo) {
+        return ownersByPhotoId.get(photo.getId());
+    }
+
+    /**
+     * Gets a photo by its stable ID.
+     *
+     * @param id The photo ID
+     * @return The photo in its regular album, or null if not in the library
+     */
+    public Photo getPhotoById(long id) {
+        return photosById.get(id);
+    }
+
+    /**
+     * Gets the spatial index over photo GPS positions.
+     *
+     * @return The geo index
+     */
+    public GeoIndex getGeoIndex() {
+        return geoIndex;
+    }
+
+    /**
+     * Gets the index backing the "All Photos" timeline.
+     *
+     * @return The timeline index
+     */
+    public TimelineIndex getTimelineIndex() {
+        return timelineIndex;
+    }
+
+    /**
+     * Gets the photos whose EXIF metadata has not been read yet.
+     *
+     * @return List of photos in regular albums
+     */
+    List<Photo> getPhotosPendingMetadataScan() {
+        List<Photo> pending = new ArrayList<>();
+        for (Photo photo : photosById.values()) {
+            if (!photo.isMetadataScanned()) {
+                pending.add(photo);
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * Records GPS positions and capture times read by MetadataScanner.
+     * They are saved by a checkpoint shortly after, so a scan interrupted later
+     * resumes close to where it stopped, without writing the library per batch.
+     * Photos removed from the library in the meantime are skipped.
+     *
+     * @param photoIds    The photo IDs
+     * @param latitudes   The latitudes, NaN for photos without a position
+     * @param longitudes  The longitudes, NaN for photos without a position
+     * @param capturedAts The capture times in milliseconds since the epoch, 0 if unknown
+     */
+    void applyPhotoMetadata(long[] photoIds, double[] latitudes, double[] longitudes, long[] capturedAts) {
+        synchronized (indexLock) {
+            for (int i = 0; i < photoIds.length; i++) {
+                Photo photo = photosById.get(photoIds[i]);
+                if (photo == null) continue;
+                photo.setMetadata(latitudes[i], longitudes[i], capturedAts[i]);
+                if (photo.hasLocation()) {
+                    geoIndex.add(photo.getId(), photo.getLatitude(), photo.getLongitude());
+                }
+                timelineIndex.update(photo);
+            }
+            metadataRevision++;
+        }
+        for (MetadataListener listener : new ArrayList<>(metadataListeners)) {
+            listener.onMetadataApplied();
+        }
+        if (!checkpointPending) {
+            checkpointPending = true;
+            mainHandler.postDelayed(() -> {
+                checkpointPending = false;
+                checkpoint();
+            }, METADATA_CHECKPOINT_MS);
+        }
+    }
+
+    /**
+     * Registers a listener told whenever metadata read by MetadataScanner is applied.
+     *
+     * @param listener The listener
+     */
+    public void addMetadataListener(MetadataListener listener) {
+        metadataListeners.add(listener);
+    }
+
+    /**
+     * Unregisters a listener added with addMetadataListener.
+     *
+     * @param listener The listener
+     */
+    public void removeMetadataListener(MetadataListener listener) {
+        metadataListeners.remove(listener);
+    }
+
+    /**
+     * Searches for photos taken within a distance of another photo, nearest first.
+     *
+     * @param photo    The photo to search around
+     * @param radiusKm The distance in kilometres
+     * @return Cursor over the other photos within the distance, or an empty cursor
+     *         if the photo has no position
+     */
+    public SearchCursor searchNear(Photo photo, double radiusKm) {
+        if (!photo.hasLocation()) {
+            return SearchCursor.empty();
+        }
+        long[] photoIds = geoIndex.findNear(photo.getLatitude(), photo.getLongitude(), radiusKm);
+        return cursorForPhotoIds(photoIds, null, photo.getId());
+    }
+
+    /**
+     * Searches for photos taken inside a bounding box.
+     * A box with minLongitude greater than maxLongitude crosses the 180th meridian.
+     *
+     * @param minLatitude  Southern edge in degrees
+     * @param minLongitude Western edge in degrees
+     * @param maxLatitude  Northern edge in degrees
+     * @param maxLongitude Eastern edge in degrees
+     * @return Cursor over the photos inside the box
+     */
+    public SearchCursor searchInBox(double minLatitude, double minLongitude,
+                                    double maxLatitude, double maxLongitude) {
+        long[] photoIds = geoIndex.findInBox(minLatitude, minLongitude, maxLatitude, maxLongitude);
+        return cursorForPhotoIds(photoIds, null, 0);
+    }
+
+    /**
+     * Gets the ordered index over date, rating and number tags.
+     *
+     * @return The range index
+     */
+    public RangeIndex getRangeIndex() {
+        return rangeIndex;
+    }
+
+    /**
+     * Has MetadataScanner read photos just added, without waiting for the next app start.
+     */
+    private void scanNewPhotos() {
+        if (appContext != null) {
+            MetadataScanner.getInstance().start(appContext);
+        }
+    }
+
+    private Album getOwner(Album album, Photo photo) {
+        if (!album.isSmart()) {
+            return album;
+        }
+        Album owner = ownersByPhotoId.get(photo.getId());
+        return owner != null ? owner : album;
+    }
+
+    private void firePhotoAdded(Album album, Photo photo) {
+        ownersByPhotoId.put(photo.getId(), album);
+        photosById.put(photo.getId(), photo);
+        synchronized (indexLock) {
+            for (LibraryListener listener : listeners) {
+                listener.onPhotoAdded(album, photo);
+            }
+        }
+    }
+
+    private void firePhotoRemoved(Album album, Photo photo) {
+        ownersByPhotoId.remove(photo.getId());
+        photosById.remove(photo.getId());
+        synchronized (indexLock) {
+            for (LibraryListener listener : listeners) {
+                listener.onPhotoRemoved(album, photo);
+            }
+        }
+    }
+
     /**
      * Gets all unique tag values for a given tag type across all albums.
      *
@@ -163,34 +827,262 @@ public class DataManager implements Serializable {
      * @return Set of unique tag values
      */
     public Set<String> getAllTagValues(String tagType) {
-        Set<String> values = new HashSet<>();
-        for (Album album : albums) {
-            for (Photo photo : album.getPhotos()) {
-                values.addAll(photo.getTagValues(tagType));
-            }
-        }
-        return values;
+        return new HashSet<>(tagFacets.getValuesWithPrefix(tagType, ""));
     }
 
     /**
-     * Gets tag values that start with the given prefix.
+     * Gets tag values that start with the given prefix, in alphabetical order.
      *
      * @param tagType The tag type
      * @param prefix  The prefix to match
      * @return List of matching tag values
      */
     public List<String> getTagValuesWithPrefix(String tagType, String prefix) {
-        Set<String> allValues = getAllTagValues(tagType);
-        List<String> matches = new ArrayList<>();
-        String lowerPrefix = prefix.toLowerCase();
-        for (String value : allValues) {
-            if (value.toLowerCase().startsWith(lowerPrefix)) {
-                matches.add(value);
+        return tagFacets.getValuesWithPrefix(tagType, prefix);
+    }
+
+    /**
+     * Suggests values of a tag type for a photo, most likely first.
+     * Values seen on the same photos as the photo's current tags rank highest,
+     * then values common in the album, then values common in the whole library.
+     * Values the photo already has are left out.
+     *
+     * @param album   The album containing the photo
+     * @param photo   The photo being tagged
+     * @param tagType The tag type
+     * @param limit   The maximum number of suggestions
+     * @return List of tag values
+     */
+    public List<String> suggestTagValues(Album album, Photo photo, String tagType, int limit) {
+        String type = tagType.toLowerCase();
+        Map<String, String> values = new HashMap<>();
+        Map<String, Integer> scores = new HashMap<>();
+        for (Tag tag : photo.getTags()) {
+            for (TagCooccurrence.Pair pair : tagCooccurrence.getPairs(tag).values()) {
+                if (pair.getType().equals(type)) {
+                    String key = pair.getValue().toLowerCase();
+                    values.putIfAbsent(key, pair.getValue());
+                    // Co-occurrence outweighs plain popularity in the album
+                    scores.merge(key, 2 * pair.getCount(), Integer::sum);
+                }
             }
         }
+        Album owner = getOwner(album, photo);
+        for (TagFacets.Facet facet : tagFacets.getAlbumTopValues(owner.getId(), type, limit)) {
+            String key = facet.getValue().toLowerCase();
+            values.putIfAbsent(key, facet.getValue());
+            scores.merge(key, facet.getCount(), Integer::sum);
+        }
+        for (TagFacets.Facet facet : tagFacets.getTopValues(type, limit)) {
+            String key = facet.getValue().toLowerCase();
+            values.putIfAbsent(key, facet.getValue());
+            scores.putIfAbsent(key, 0);
+        }
+
+        List<String> keys = new ArrayList<>(scores.keySet());
+        keys.removeIf(key -> photo.hasTag(type, key));
+        keys.sort((a, b) -> {
+            int byScore = Integer.compare(scores.get(b), scores.get(a));
+            if (byScore != 0) return byScore;
+            int byCount = Integer.compare(tagFacets.getCount(type, b), tagFacets.getCount(type, a));
+            if (byCount != 0) return byCount;
+            return a.compareTo(b);
+        });
+
+        List<String> suggestions = new ArrayList<>();
+        for (int i = 0; i < keys.size() && i < limit; i++) {
+            suggestions.add(values.get(keys.get(i)));
+        }
+        return suggestions;
+    }
+
+    /**
+     * Gets the dictionary of distinct tag values, kept up to date as the library changes.
+     *
+     * @return The tag dictionary
+     */
+    public TagDictionary getTagDictionary() {
+        return tagDictionary;
+    }
+
+    /**
+     * Gets tag values matching a query in the given mode, for auto-completion.
+     * Fuzzy matches are ranked by edit distance and then by how many photos carry them;
+     * substring matches list values starting with the query first.
+     *
+     * @param tagType The tag type
+     * @param query   The value typed so far
+     * @param mode    How the query is compared against tag values
+     * @return List of matching tag values
+     */
+    public List<String> getTagValuesMatching(String tagType, String query, MatchMode mode) {
+        if (mode == MatchMode.PREFIX) {
+            return getTagValuesWithPrefix(tagType, query);
+        }
+        TagDictionary dictionary = getTagDictionary();
+        List<TagDictionary.Entry> entries = mode == MatchMode.FUZZY
+                ? dictionary.findSimilar(tagType, query)
+                : dictionary.findContaining(tagType, query);
+        List<String> matches = new ArrayList<>();
+        for (TagDictionary.Entry entry : entries) {
+            matches.add(entry.getValue());
+        }
         return matches;
     }
 
+    /**
+     * Searches for photos matching a query across all albums.
+     * Disjunctions list each photo URI only once.
+     *
+     * @param query The query to evaluate
+     * @return List of matching photos with their album info
+     */
+    public List<PhotoResult> search(SearchQuery query) {
+        return searchCursor(query).toResults();
+    }
+
+    /**
+     * Searches for photos matching a query across all albums, without creating
+     * an object per match. Disjunctions list each photo URI only once.
+     *
+     * @param query The query to evaluate
+     * @return Cursor over the matching photos
+     */
+    public SearchCursor searchCursor(SearchQuery query) {
+        query = resolve(query);
+        SearchCursor matches = collectCursor(query);
+        return query.isDisjunction() ? matches.dedupeByUri() : matches;
+    }
+
+    /**
+     * Binds the query terms that need the tag dictionary to their matching values.
+     *
+     * @param query The query to resolve
+     * @return A query ready for evaluation
+     */
+    SearchQuery resolve(SearchQuery query) {
+        for (SearchQuery.Term term : query.getTerms()) {
+            if (term.getMode() != MatchMode.PREFIX) {
+                return query.resolve(getTagDictionary());
+            }
+        }
+        return query;
+    }
+
+    /**
+     * Collects every photo matching a query into a cursor, in album order,
+     * without removing duplicate URIs.
+     * Albums that cannot match are skipped and large libraries are scanned in parallel.
+     *
+     * @param query The query to evaluate
+     * @return Cursor over the matching photos
+     */
+    SearchCursor collectCursor(SearchQuery query) {
+        query = resolve(query);
+        SearchQuery.Term rangeTerm = mostSelectiveRangeTerm(query);
+        if (rangeTerm != null) {
+            return collectFromRangeIndex(query, rangeTerm);
+        }
+        return ParallelSearch.collectCursor(candidateAlbums(query), query);
+    }
+
+    /**
+     * Gets the range term of a conjunction matching the fewest tags, if it has one.
+     */
+    private SearchQuery.Term mostSelectiveRangeTerm(SearchQuery query) {
+        if (query.isDisjunction()) return null;
+        SearchQuery.Term best = null;
+        int bestCount = Integer.MAX_VALUE;
+        for (SearchQuery.Term term : query.getTerms()) {
+            if (term.getMode() != MatchMode.RANGE) continue;
+            int count = rangeIndex.countInRange(term.getTagType(), term.getMin(), term.getMax());
+            if (count < bestCount) {
+                best = term;
+                bestCount = count;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Answers a conjunction from the range index: only the photos in range of the given
+     * term are checked against the whole query. Results are ordered by that term's value.
+     */
+    private SearchCursor collectFromRangeIndex(SearchQuery query, SearchQuery.Term term) {
+        long[] photoIds = rangeIndex.findInRange(term.getTagType(), term.getMin(), term.getMax());
+        return cursorForPhotoIds(photoIds, query, 0);
+    }
+
+    /**
+     * Builds a cursor over photos found by ID in an index, keeping the given order.
+     *
+     * @param photoIds  The photo IDs, possibly repeated
+     * @param filter    Query the photos must also match, or null
+     * @param excludeId ID of a photo to leave out, or 0
+     */
+    private SearchCursor cursorForPhotoIds(long[] photoIds, SearchQuery filter, long excludeId) {
+        List<Album> snapshot = new ArrayList<>(albums);
+        Map<Album, Integer> albumIndexes = new IdentityHashMap<>();
+        for (int i = 0; i < snapshot.size(); i++) {
+            albumIndexes.put(snapshot.get(i), i);
+        }
+
+        SearchCursor cursor = new SearchCursor(snapshot, photoIds.length);
+        Set<Long> added = new HashSet<>();
+        for (long photoId : photoIds) {
+            Photo photo = photosById.get(photoId);
+            Album owner = ownersByPhotoId.get(photoId);
+            if (photo == null || owner == null || photoId == excludeId) continue;
+            if (filter != null && !filter.matches(photo)) continue;
+            // A photo found several times, e.g. with several values in a range, is listed once
+            if (added.add(photoId)) {
+                cursor.add(albumIndexes.get(owner), photo);
+            }
+        }
+        return cursor;
+    }
+
+    /**
+     * Searches for the best matches of a query across all albums.
+     * Only the top results are kept while scanning, however many photos match.
+     *
+     * @param query The query to evaluate
+     * @param limit The maximum number of results
+     * @return Up to limit ranked hits, best first
+     */
+    public List<RankedSearch.Hit> searchRanked(SearchQuery query, int limit) {
+        query = resolve(query);
+        return RankedSearch.topK(candidateAlbums(query), query, limit, System.currentTimeMillis());
+    }
+
+    /**
+     * Gets the regular albums that may hold matches of a resolved query.
+     */
+    private List<Album> candidateAlbums(SearchQuery query) {
+        // Skip albums whose tag sketch shows that none of their photos can match
+        List<Album> candidates = new ArrayList<>();
+        for (Album album : albums) {
+            if (album.isSmart()) continue;
+            if (album.getTagSketch().mightMatch(query)) {
+                candidates.add(album);
+                albumsScanned++;
+            } else {
+                albumsPruned++;
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Gets the share of albums skipped by searches because their tag sketch ruled them out.
+     *
+     * @return The prune rate since startup, between 0 and 1
+     */
+    public double getAlbumPruneRate() {
+        long total = albumsScanned + albumsPruned;
+        return total == 0 ? 0 : (double) albumsPruned / total;
+    }
+
     /**
      * Searches for photos matching a single tag (prefix match, case-insensitive).
      *
@@ -199,15 +1091,7 @@ public class DataManager implements Serializable {
      * @return List of matching photos with their album info
      */
     public List<PhotoResult> searchByTag(String tagType, String valuePrefix) {
-        List<PhotoResult> results = new ArrayList<>();
-        for (Album album : albums) {
-            for (Photo photo : album.getPhotos()) {
-                if (photo.hasTagWithPrefix(tagType, valuePrefix)) {
-                    results.add(new PhotoResult(photo, album));
-                }
-            }
-        }
-        return results;
+        return search(SearchQuery.single(tagType, valuePrefix));
     }
 
     /**
@@ -221,16 +1105,7 @@ public class DataManager implements Serializable {
      */
     public List<PhotoResult> searchByTagsAnd(String tagType1, String valuePrefix1,
                                               String tagType2, String valuePrefix2) {
-        List<PhotoResult> results = new ArrayList<>();
-        for (Album album : albums) {
-            for (Photo photo : album.getPhotos()) {
-                if (photo.hasTagWithPrefix(tagType1, valuePrefix1) &&
-                        photo.hasTagWithPrefix(tagType2, valuePrefix2)) {
-                    results.add(new PhotoResult(photo, album));
-                }
-            }
-        }
-        return results;
+        return search(SearchQuery.and(tagType1, valuePrefix1, tagType2, valuePrefix2));
     }
 
     /**
@@ -244,19 +1119,49 @@ public class DataManager implements Serializable {
      */
     public List<PhotoResult> searchByTagsOr(String tagType1, String valuePrefix1,
                                              String tagType2, String valuePrefix2) {
-        List<PhotoResult> results = new ArrayList<>();
-        Set<String> addedUris = new HashSet<>();
-        for (Album album : albums) {
-            for (Photo photo : album.getPhotos()) {
-                if (!addedUris.contains(photo.getUriString()) &&
-                        (photo.hasTagWithPrefix(tagType1, valuePrefix1) ||
-                                photo.hasTagWithPrefix(tagType2, valuePrefix2))) {
-                    results.add(new PhotoResult(photo, album));
-                    addedUris.add(photo.getUriString());
-                }
-            }
-        }
-        return results;
+        return search(SearchQuery.or(tagType1, valuePrefix1, tagType2, valuePrefix2));
+    }
+
+    /**
+     * Searches for photos matching a single tag using the given match mode.
+     *
+     * @param tagType The tag type
+     * @param value   The value to match
+     * @param mode    How the value is compared against tag values
+     * @return List of matching photos with their album info
+     */
+    public List<PhotoResult> searchByTag(String tagType, String value, MatchMode mode) {
+        return search(SearchQuery.single(tagType, value, mode));
+    }
+
+    /**
+     * Searches for photos matching two tags with AND using the given match mode.
+     *
+     * @param tagType1 First tag type
+     * @param value1   First value
+     * @param tagType2 Second tag type
+     * @param value2   Second value
+     * @param mode     How the values are compared against tag values
+     * @return List of matching photos
+     */
+    public List<PhotoResult> searchByTagsAnd(String tagType1, String value1,
+                                              String tagType2, String value2, MatchMode mode) {
+        return search(SearchQuery.and(tagType1, value1, tagType2, value2, mode));
+    }
+
+    /**
+     * Searches for photos matching two tags with OR using the given match mode.
+     *
+     * @param tagType1 First tag type
+     * @param value1   First value
+     * @param tagType2 Second tag type
+     * @param value2   Second value
+     * @param mode     How the values are compared against tag values
+     * @return List of matching photos
+     */
+    public List<PhotoResult> searchByTagsOr(String tagType1, String value1,
+                                             String tagType2, String value2, MatchMode mode) {
+        return search(SearchQuery.or(tagType1, value1, tagType2, value2, mode));
     }
 
     /**
@@ -266,29 +1171,125 @@ public class DataManager implements Serializable {
      * @param sourceAlbum The source album
      * @param targetAlbum The target album
      * @return true if moved successfully, false if photo already exists in target
+     *         or either album is a smart album
      */
     public boolean movePhoto(Photo photo, Album sourceAlbum, Album targetAlbum) {
-        if (targetAlbum.containsPhoto(photo)) {
+        if (sourceAlbum.isSmart() || targetAlbum.isSmart() || targetAlbum.containsPhoto(photo)) {
             return false;
         }
         sourceAlbum.removePhoto(photo);
+        firePhotoRemoved(sourceAlbum, photo);
         targetAlbum.addPhoto(photo);
+        firePhotoAdded(targetAlbum, photo);
         saveData();
         return true;
     }
 
+    /**
+     * Keeps a result list available to other screens under an integer handle,
+     * so they can walk the results without re-running the query.
+     *
+     * @param results The results to keep
+     * @return The handle for getResultSet
+     */
+    public int registerResultSet(SearchCursor results) {
+        int handle = nextResultSetHandle++;
+        resultSets.put(handle, results);
+        return handle;
+    }
+
+    /**
+     * Gets a result list registered with registerResultSet.
+     * The cursor is shared; copy it before changing it.
+     *
+     * @param handle The result set handle
+     * @return The results, or null if the handle was released or is unknown
+     */
+    public SearchCursor getResultSet(int handle) {
+        return resultSets.get(handle);
+    }
+
+    /**
+     * Releases a result list registered with registerResultSet.
+     *
+     * @param handle The result set handle
+     */
+    public void releaseResultSet(int handle) {
+        resultSets.remove(handle);
+    }
+
     /**
      * Helper class to hold photo search results with album context.
+     * Also records the stable IDs and the photo's position in its album at query time,
+     * so the photo can be opened without searching the album for it.
      */
     public static class PhotoResult implements Serializable {
         private static final long serialVersionUID = 1L;
         public Photo photo;
         public Album album;
+        public final long photoId;
+        public final long albumId;
+        public final int position;
 
-        public PhotoResult(Photo photo, Album album) {
+        public PhotoResult(Photo photo, Album album, int position) {
             this.photo = photo;
             this.album = album;
+            this.photoId = photo.getId();
+            this.albumId = album.getId();
+            this.position = position;
+        }
+
+        /**
+         * Gets the photo's current position in its album.
+         * The position captured at query time is checked first, so this is
+         * constant time unless the album changed since the search.
+         *
+         * @return The position, or -1 if the photo is no longer in the album
+         */
+        public int resolvePosition() {
+            List<Photo> photos = album.getPhotos();
+            if (position >= 0 && position < photos.size() && photos.get(position) == photo) {
+                return position;
+            }
+            return photos.indexOf(photo);
         }
     }
-}
 
+    /**
+     * Saves the search indexes when an activity stops, i.e. whenever the app may be about
+     * to be killed in the background.
+     */
+    private static class IndexSaver implements Application.ActivityLifecycleCallbacks {
+        @Override
+        public void onActivityStopped(Activity activity) {
+            if (instance != null) {
+                instance.checkpoint();
+                instance.saveIndexes();
+            }
+        }
+
+        @Override
+        public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+        }
+
+        @Override
+        public void onActivityStarted(Activity activity) {
+        }
+
+        @Override
+        public void onActivityResumed(Activity activity) {
+        }
+
+        @Override
+        public void onActivityPaused(Activity activity) {
+        }
+
+        @Override
+        public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+        }
+
+        @Override
+        public void onActivityDestroyed(Activity activity) {
+        }
+    }
+}
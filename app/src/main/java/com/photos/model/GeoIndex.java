@@ -0,0 +1,326 @@
+package com.photos.model;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Spatial index over photo GPS positions.
+ * Positions are keyed by geohash in a sorted map, so every photo inside one geohash
+ * cell is found with a single ordered range lookup. A bounding box is covered by a
+ * few cells of a suitable size, making box and radius queries logarithmic in the
+ * number of indexed photos plus the photos returned.
+ */
+public class GeoIndex implements LibraryListener, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /** Geohash length of stored positions, about 5 m across. */
+    static final int PRECISION = 9;
+    /** Most cells checked for one bounding box. */
+    static final int MAX_CELLS = 16;
+
+    private static final String BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz";
+    private static final double EARTH_RADIUS_KM = 6371.0088;
+    private static final double KM_PER_DEGREE = 111.32;
+
+    private final TreeMap<String, List<Entry>> cells = new TreeMap<>();
+    private final Map<Long, String> hashesByPhotoId = new HashMap<>();
+
+    /**
+     * Builds the index from every located photo in the given albums.
+     *
+     * @param albums The albums to index
+     * @return The index
+     */
+    public static GeoIndex build(List<Album> albums) {
+        GeoIndex index = new GeoIndex();
+        for (Album album : albums) {
+            if (album.isSmart()) continue;
+            for (Photo photo : album.getPhotos()) {
+                index.onPhotoAdded(album, photo);
+            }
+        }
+        return index;
+    }
+
+    @Override
+    public void onPhotoAdded(Album album, Photo photo) {
+        if (photo.hasLocation()) {
+            add(photo.getId(), photo.getLatitude(), photo.getLongitude());
+        }
+    }
+
+    @Override
+    public void onPhotoRemoved(Album album, Photo photo) {
+        remove(photo.getId());
+    }
+
+    @Override
+    public void onTagAdded(Album album, Photo photo, Tag tag) {
+    }
+
+    @Override
+    public void onTagRemoved(Album album, Photo photo, Tag tag) {
+    }
+
+    /**
+     * Adds or moves a photo's position.
+     *
+     * @param photoId   The photo ID
+     * @param latitude  The latitude in degrees
+     * @param longitude The longitude in degrees
+     */
+    public void add(long photoId, double latitude, double longitude) {
+        remove(photoId);
+        String hash = encode(latitude, longitude, PRECISION);
+        List<Entry> entries = cells.get(hash);
+        if (entries == null) {
+            entries = new ArrayList<>(1);
+            cells.put(hash, entries);
+        }
+        entries.add(new Entry(photoId, latitude, longitude));
+        hashesByPhotoId.put(photoId, hash);
+    }
+
+    /**
+     * Removes a photo's position.
+     *
+     * @param photoId The photo ID
+     */
+    public void remove(long photoId) {
+        String hash = hashesByPhotoId.remove(photoId);
+        if (hash == null) return;
+        List<Entry> entries = cells.get(hash);
+        if (entries == null) return;
+        Iterator<Entry> it = entries.iterator();
+        while (it.hasNext()) {
+            if (it.next().photoId == photoId) {
+                it.remove();
+            }
+        }
+        if (entries.isEmpty()) {
+            cells.remove(hash);
+        }
+    }
+
+    /**
+     * Gets the number of photos with a known position.
+     *
+     * @return The photo count
+     */
+    public int size() {
+        return hashesByPhotoId.size();
+    }
+
+    /**
+     * Finds the photos inside a bounding box.
+     * A box with minLongitude greater than maxLongitude crosses the 180th meridian.
+     *
+     * @param minLatitude  Southern edge in degrees
+     * @param minLongitude Western edge in degrees
+     * @param maxLatitude  Northern edge in degrees
+     * @param maxLongitude Eastern edge in degrees
+     * @return IDs of the photos inside the box, in no particular order
+     */
+    public long[] findInBox(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude) {
+        List<Entry> found = new ArrayList<>();
+        if (minLongitude > maxLongitude) {
+            collectInBox(minLatitude, minLongitude, maxLatitude, 180, found);
+            collectInBox(minLatitude, -180, maxLatitude, maxLongitude, found);
+        } else {
+            collectInBox(minLatitude, minLongitude, maxLatitude, maxLongitude, found);
+        }
+        long[] photoIds = new long[found.size()];
+        for (int i = 0; i < photoIds.length; i++) {
+            photoIds[i] = found.get(i).photoId;
+        }
+        return photoIds;
+    }
+
+    /**
+     * Finds the photos within a distance of a point, nearest first.
+     *
+     * @param latitude  The latitude of the point in degrees
+     * @param longitude The longitude of the point in degrees
+     * @param radiusKm  The distance in kilometres
+     * @return IDs of the photos within the distance, nearest first
+     */
+    public long[] findNear(double latitude, double longitude, double radiusKm) {
+        double latDelta = radiusKm / KM_PER_DEGREE;
+        double cos = Math.cos(Math.toRadians(latitude));
+        double lonDelta = cos < 1e-6 ? 180 : Math.min(180, radiusKm / (KM_PER_DEGREE * cos));
+        double minLat = Math.max(-90, latitude - latDelta);
+        double maxLat = Math.min(90, latitude + latDelta);
+
+        List<Entry> found = new ArrayList<>();
+        if (lonDelta >= 180 || minLat == -90 || maxLat == 90) {
+            // The circle reaches a pole or wraps around: check every longitude
+            collectInBox(minLat, -180, maxLat, 180, found);
+        } else {
+            double minLon = wrapLongitude(longitude - lonDelta);
+            double maxLon = wrapLongitude(longitude + lonDelta);
+            if (minLon > maxLon) {
+                collectInBox(minLat, minLon, maxLat, 180, found);
+                collectInBox(minLat, -180, maxLat, maxLon, found);
+            } else {
+                collectInBox(minLat, minLon, maxLat, maxLon, found);
+            }
+        }
+
+        List<double[]> near = new ArrayList<>();
+        for (Entry entry : found) {
+            double distance = distanceKm(latitude, longitude, entry.latitude, entry.longitude);
+            if (distance <= radiusKm) {
+                near.add(new double[]{distance, entry.photoId});
+            }
+        }
+        near.sort((a, b) -> Double.compare(a[0], b[0]));
+        long[] photoIds = new long[near.size()];
+        for (int i = 0; i < photoIds.length; i++) {
+            photoIds[i] = (long) near.get(i)[1];
+        }
+        return photoIds;
+    }
+
+    /**
+     * Collects the entries inside a box that does not cross the 180th meridian.
+     */
+    private void collectInBox(double minLat, double minLon, double maxLat, double maxLon, List<Entry> found) {
+        for (String cell : coveringCells(minLat, minLon, maxLat, maxLon)) {
+            SortedMap<String, List<Entry>> inCell = cell.isEmpty()
+                    ? cells : cells.subMap(cell, cell + Character.MAX_VALUE);
+            for (List<Entry> entries : inCell.values()) {
+                for (Entry entry : entries) {
+                    if (entry.latitude >= minLat && entry.latitude <= maxLat
+                            && entry.longitude >= minLon && entry.longitude <= maxLon) {
+                        found.add(entry);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the geohash cells covering a box, using the longest hashes for which
+     * at most MAX_CELLS cells are needed.
+     */
+    static Set<String> coveringCells(double minLat, double minLon, double maxLat, double maxLon) {
+        for (int precision = PRECISION; precision > 0; precision--) {
+            double cellHeight = 180 / Math.pow(2, (5 * precision) / 2);
+            double cellWidth = 360 / Math.pow(2, (5 * precision + 1) / 2);
+            long rows = (long) Math.floor(maxLat / cellHeight) - (long) Math.floor(minLat / cellHeight) + 1;
+            long columns = (long) Math.floor(maxLon / cellWidth) - (long) Math.floor(minLon / cellWidth) + 1;
+            if (rows * columns > MAX_CELLS) continue;
+
+            Set<String> hashes = new LinkedHashSet<>();
+            for (long row = 0; row < rows; row++) {
+                double lat = Math.min(maxLat, minLat + row * cellHeight);
+                for (long column = 0; column < columns; column++) {
+                    double lon = Math.min(maxLon, minLon + column * cellWidth);
+                    hashes.add(encode(lat, lon, precision));
+                }
+                hashes.add(encode(lat, maxLon, precision));
+            }
+            for (long column = 0; column < columns; column++) {
+                hashes.add(encode(maxLat, Math.min(maxLon, minLon + column * cellWidth), precision));
+            }
+            hashes.add(encode(maxLat, maxLon, precision));
+            return hashes;
+        }
+        // Larger than the biggest cells: check everything
+        Set<String> all = new LinkedHashSet<>();
+        all.add("");
+        return all;
+    }
+
+    /**
+     * Encodes a position as a geohash.
+     *
+     * @param latitude  The latitude in degrees
+     * @param longitude The longitude in degrees
+     * @param precision The number of characters
+     * @return The geohash
+     */
+    public static String encode(double latitude, double longitude, int precision) {
+        double minLat = -90;
+        double maxLat = 90;
+        double minLon = -180;
+        double maxLon = 180;
+        StringBuilder hash = new StringBuilder(precision);
+        boolean evenBit = true;
+        int bit = 0;
+        int ch = 0;
+        while (hash.length() < precision) {
+            if (evenBit) {
+                double middle = (minLon + maxLon) / 2;
+                if (longitude >= middle) {
+                    ch = (ch << 1) | 1;
+                    minLon = middle;
+                } else {
+                    ch <<= 1;
+                    maxLon = middle;
+                }
+            } else {
+                double middle = (minLat + maxLat) / 2;
+                if (latitude >= middle) {
+                    ch = (ch << 1) | 1;
+                    minLat = middle;
+                } else {
+                    ch <<= 1;
+                    maxLat = middle;
+                }
+            }
+            evenBit = !evenBit;
+            if (++bit == 5) {
+                hash.append(BASE32.charAt(ch));
+                bit = 0;
+                ch = 0;
+            }
+        }
+        return hash.toString();
+    }
+
+    /**
+     * Gets the great-circle distance between two points.
+     *
+     * @return The distance in kilometres
+     */
+    public static double distanceKm(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
+                * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    private static double wrapLongitude(double longitude) {
+        if (longitude > 180) return longitude - 360;
+        if (longitude < -180) return longitude + 360;
+        return longitude;
+    }
+
+    /**
+     * A photo's position.
+     */
+    private static class Entry implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final long photoId;
+        final double latitude;
+        final double longitude;
+
+        Entry(long photoId, double latitude, double longitude) {
+            this.photoId = photoId;
+            this.latitude = latitude;
+            this.longitude = longitude;
+        }
+    }
+}
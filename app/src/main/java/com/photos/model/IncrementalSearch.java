@@ -0,0 +1,107 @@
+package com.photos.model;
+
+/**
+ * Evaluates search-as-you-type queries.
+ * When a query only narrows the previous one (longer prefix, extra AND term),
+ * the previous matches are filtered instead of scanning every album again.
+ * Any other query, or a change to the library, falls back to a fresh evaluation.
+ */
+public class IncrementalSearch {
+
+    private final DataManager dataManager;
+
+    private SearchQuery lastQuery;
+    private SearchCursor lastMatches;
+    private long lastGeneration;
+
+    private long lastEvaluationNanos;
+    private boolean lastRefined;
+    private int refineCount;
+    private int freshCount;
+
+    /**
+     * Constructs a new IncrementalSearch over the given data.
+     *
+     * @param dataManager The data manager to search
+     */
+    public IncrementalSearch(DataManager dataManager) {
+        this.dataManager = dataManager;
+    }
+
+    /**
+     * Evaluates a query, refining the previous result set when possible.
+     *
+     * @param query The query to evaluate
+     * @return Cursor over the matching photos, in the same order as DataManager.search
+     */
+    public SearchCursor search(SearchQuery query) {
+        long start = System.nanoTime();
+        query = dataManager.resolve(query);
+
+        SearchCursor matches;
+        lastRefined = lastMatches != null &&
+                lastGeneration == dataManager.getGeneration() &&
+                query.isNarrowingOf(lastQuery);
+        if (lastRefined) {
+            matches = lastMatches.filter(query);
+            refineCount++;
+        } else {
+            matches = dataManager.collectCursor(query);
+            freshCount++;
+        }
+
+        lastQuery = query;
+        lastMatches = matches;
+        lastGeneration = dataManager.getGeneration();
+
+        // Matches are kept with duplicates so that a later refinement can still
+        // find a photo whose first occurrence stopped matching
+        SearchCursor results = query.isDisjunction() ? matches.dedupeByUri() : matches;
+        lastEvaluationNanos = System.nanoTime() - start;
+        return results;
+    }
+
+    /**
+     * Discards the previous result set so the next query is evaluated from scratch.
+     */
+    public void reset() {
+        lastQuery = null;
+        lastMatches = null;
+    }
+
+    /**
+     * Gets the time taken by the last call to search.
+     *
+     * @return The evaluation time in nanoseconds
+     */
+    public long getLastEvaluationNanos() {
+        return lastEvaluationNanos;
+    }
+
+    /**
+     * Checks if the last query was answered by refining the previous results.
+     *
+     * @return true if the last query was refined
+     */
+    public boolean wasLastRefined() {
+        return lastRefined;
+    }
+
+    /**
+     * Gets the number of queries answered by refining previous results.
+     *
+     * @return The refine count
+     */
+    public int getRefineCount() {
+        return refineCount;
+    }
+
+    /**
+     * Gets the number of queries evaluated from scratch.
+     *
+     * @return The fresh evaluation count
+     */
+    public int getFreshCount() {
+        return freshCount;
+    }
+}
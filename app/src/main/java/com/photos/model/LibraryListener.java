@@ -0,0 +1,44 @@
+package com.photos.model;
+
+/**
+ * Receives changes to the library from DataManager.
+ * Used by the search structures that are kept up to date incrementally
+ * instead of being rebuilt from every photo.
+ * Callbacks run after the change has been applied to the album or photo.
+ */
+public interface LibraryListener {
+
+    /**
+     * Called when a photo, with all its tags, is added to an album.
+     *
+     * @param album The album
+     * @param photo The photo
+     */
+    void onPhotoAdded(Album album, Photo photo);
+
+    /**
+     * Called when a photo, with all its tags, is removed from an album.
+     *
+     * @param album The album
+     * @param photo The photo
+     */
+    void onPhotoRemoved(Album album, Photo photo);
+
+    /**
+     * Called when a tag is added to a photo.
+     *
+     * @param album The album containing the photo
+     * @param photo The photo
+     * @param tag   The new tag
+     */
+    void onTagAdded(Album album, Photo photo, Tag tag);
+
+    /**
+     * Called when a tag is removed from a photo.
+     *
+     * @param album The album containing the photo
+     * @param photo The photo
+     * @param tag   The removed tag
+     */
+    void onTagRemoved(Album album, Photo photo, Tag tag);
+}
@@ -0,0 +1,16 @@
+package com.photos.model;
+
+/**
+ * How a search value is compared against tag values.
+ * All modes are case-insensitive.
+ */
+public enum MatchMode {
+    /** Tag value starts with the search value. */
+    PREFIX,
+    /** Tag value is within a small edit distance of the search value. */
+    FUZZY,
+    /** Tag value contains the search value anywhere. */
+    CONTAINS,
+    /** Numeric or date tag value lies within a range. */
+    RANGE
+}
@@ -0,0 +1,14 @@
+package com.photos.model;
+
+/**
+ * Receives notice from DataManager that metadata read by MetadataScanner was applied.
+ * Used by screens laid out from capture times or positions, which change without
+ * the library generation changing. Called on the main thread.
+ */
+public interface MetadataListener {
+
+    /**
+     * Called after a batch of photos got their GPS positions and capture times.
+     */
+    void onMetadataApplied();
+}
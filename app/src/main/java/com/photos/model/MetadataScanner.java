@@ -0,0 +1,196 @@
+package com.photos.model;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.media.ExifInterface;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.DocumentsContract;
+import android.provider.MediaStore;
+
+import java.io.File;
+import java.io.InputStream;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Reads photo GPS positions and capture times from EXIF data in the background.
+ * Only photos that were never scanned are read, and results are applied in batches
+ * on the main thread and saved by DataManager checkpoints, so a large library is
+ * scanned across several runs if the app is closed part way through.
+ */
+public class MetadataScanner {
+
+    /** Number of photos read before their metadata is applied. */
+    static final int BATCH_SIZE = 25;
+
+    private static final DateTimeFormatter EXIF_DATE_TIME =
+            DateTimeFormatter.ofPattern("yyyy:MM:dd HH:mm:ss");
+
+    private static MetadataScanner instance;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private boolean running;
+    // Photos were added while a scan was running and still need reading
+    private boolean rescanRequested;
+    private Context appContext;
+
+    private MetadataScanner() {
+    }
+
+    /**
+     * Gets the singleton instance of MetadataScanner.
+     *
+     * @return The MetadataScanner instance
+     */
+    public static synchronized MetadataScanner getInstance() {
+        if (instance == null) {
+            instance = new MetadataScanner();
+        }
+        return instance;
+    }
+
+    /**
+     * Starts reading the metadata of photos not scanned yet.
+     * If a scan is already running, another one starts when it ends, so photos
+     * added meanwhile are read too. Must be called on the main thread.
+     *
+     * @param context Any context; its application context is used
+     */
+    public void start(Context context) {
+        appContext = context.getApplicationContext();
+        if (running) {
+            rescanRequested = true;
+            return;
+        }
+        List<Photo> pending = DataManager.getInstance().getPhotosPendingMetadataScan();
+        if (pending.isEmpty()) return;
+
+        running = true;
+        // Only URI strings go to the background thread; photos are updated on the main thread
+        long[] photoIds = new long[pending.size()];
+        String[] uris = new String[pending.size()];
+        for (int i = 0; i < pending.size(); i++) {
+            photoIds[i] = pending.get(i).getId();
+            uris[i] = pending.get(i).getUriString();
+        }
+        executor.execute(() -> scan(appContext, photoIds, uris));
+    }
+
+    /**
+     * Checks if a scan is running.
+     *
+     * @return true while photos are being read
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    private void scan(Context context, long[] photoIds, String[] uris) {
+        for (int from = 0; from < photoIds.length; from += BATCH_SIZE) {
+            int to = Math.min(photoIds.length, from + BATCH_SIZE);
+            double[] latitudes = new double[to - from];
+            double[] longitudes = new double[to - from];
+            long[] capturedAts = new long[to - from];
+            Arrays.fill(latitudes, Double.NaN);
+            Arrays.fill(longitudes, Double.NaN);
+            for (int i = from; i < to; i++) {
+                ExifInterface exif = readExif(context, uris[i]);
+                float[] position = new float[2];
+                if (exif != null && exif.getLatLong(position)) {
+                    latitudes[i - from] = position[0];
+                    longitudes[i - from] = position[1];
+                }
+                capturedAts[i - from] = readCaptureTime(context, uris[i], exif);
+            }
+            long[] batch = Arrays.copyOfRange(photoIds, from, to);
+            mainHandler.post(() -> DataManager.getInstance()
+                    .applyPhotoMetadata(batch, latitudes, longitudes, capturedAts));
+        }
+        mainHandler.post(() -> {
+            running = false;
+            DataManager.getInstance().checkpoint();
+            if (rescanRequested) {
+                rescanRequested = false;
+                start(appContext);
+            }
+        });
+    }
+
+    /**
+     * Reads an image's EXIF data.
+     *
+     * @return The EXIF data, or null if the image cannot be read
+     */
+    private static ExifInterface readExif(Context context, String uriString) {
+        try (InputStream in = context.getContentResolver().openInputStream(Uri.parse(uriString))) {
+            if (in == null) return null;
+            // The attributes are parsed in the constructor, so the stream can be closed afterwards
+            return new ExifInterface(in);
+        } catch (Exception e) {
+            // Unreadable or missing images count as having no metadata
+            return null;
+        }
+    }
+
+    /**
+     * Gets the time a photo was taken, falling back to the file's modification time.
+     * EXIF times carry no zone and are read as local time.
+     *
+     * @param exif The EXIF data, or null if the image could not be read
+     * @return Milliseconds since the epoch, or 0 if the image has no usable time
+     */
+    private static long readCaptureTime(Context context, String uriString, ExifInterface exif) {
+        String value = null;
+        if (exif != null) {
+            value = exif.getAttribute(ExifInterface.TAG_DATETIME_ORIGINAL);
+            if (value == null) {
+                value = exif.getAttribute(ExifInterface.TAG_DATETIME);
+            }
+        }
+        if (value != null) {
+            try {
+                return LocalDateTime.parse(value.trim(), EXIF_DATE_TIME)
+                        .atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            } catch (DateTimeParseException e) {
+                // Malformed EXIF time; use the file's time instead
+            }
+        }
+        return readModifiedTime(context, uriString);
+    }
+
+    /**
+     * Gets the time an image file was last modified, as far as its provider reports it.
+     *
+     * @return Milliseconds since the epoch, or 0 if unknown
+     */
+    private static long readModifiedTime(Context context, String uriString) {
+        Uri uri = Uri.parse(uriString);
+        if ("file".equals(uri.getScheme()) && uri.getPath() != null) {
+            return new File(uri.getPath()).lastModified();
+        }
+        try (Cursor cursor = context.getContentResolver().query(uri, null, null, null, null)) {
+            if (cursor == null || !cursor.moveToFirst()) return 0;
+            // Document providers report milliseconds, the media store seconds
+            int index = cursor.getColumnIndex(DocumentsContract.Document.COLUMN_LAST_MODIFIED);
+            if (index >= 0 && !cursor.isNull(index)) {
+                return cursor.getLong(index);
+            }
+            index = cursor.getColumnIndex(MediaStore.MediaColumns.DATE_MODIFIED);
+            if (index >= 0 && !cursor.isNull(index)) {
+                return cursor.getLong(index) * 1000;
+            }
+        } catch (Exception e) {
+            // Providers that cannot be queried leave the time unknown
+        }
+        return 0;
+    }
+}
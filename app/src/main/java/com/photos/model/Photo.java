@@ -19,8 +19,16 @@ import java.util.List;
 public class Photo implements Serializable {
     private static final long serialVersionUID = 1L;
 
+    private long id;
     private String uriString;
     private List<Tag> tags;
+    private boolean metadataScanned;
+    private long capturedAt;
+    private boolean hasLocation;
+    private double latitude;
+    private double longitude;
+    // Name resolved through the ContentResolver, kept for the lifetime of the process
+    private transient volatile String displayName;
 
     /**
      * Constructs a new Photo from a URI string.
@@ -32,6 +40,84 @@ public class Photo implements Serializable {
         this.tags = new ArrayList<>();
     }
 
+    /**
+     * Gets the stable ID of this photo, assigned by DataManager.
+     *
+     * @return The photo ID, or 0 if not yet assigned
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Sets the stable ID of this photo.
+     *
+     * @param id The photo ID
+     */
+    void setId(long id) {
+        this.id = id;
+    }
+
+    /**
+     * Checks if the photo's GPS coordinates are known.
+     *
+     * @return true if the image had a GPS position in its EXIF data
+     */
+    public boolean hasLocation() {
+        return hasLocation;
+    }
+
+    /**
+     * Gets the latitude the photo was taken at.
+     *
+     * @return The latitude in degrees, only meaningful if hasLocation is true
+     */
+    public double getLatitude() {
+        return latitude;
+    }
+
+    /**
+     * Gets the longitude the photo was taken at.
+     *
+     * @return The longitude in degrees, only meaningful if hasLocation is true
+     */
+    public double getLongitude() {
+        return longitude;
+    }
+
+    /**
+     * Gets the time the photo was taken.
+     *
+     * @return Milliseconds since the epoch, or 0 if unknown
+     */
+    public long getCapturedAt() {
+        return capturedAt;
+    }
+
+    /**
+     * Checks if the image's EXIF data has already been read.
+     *
+     * @return true if the photo was scanned, whether or not anything was found
+     */
+    public boolean isMetadataScanned() {
+        return metadataScanned;
+    }
+
+    /**
+     * Records the result of reading the image's EXIF data.
+     *
+     * @param latitude   The latitude in degrees, or NaN if the image has no position
+     * @param longitude  The longitude in degrees, or NaN if the image has no position
+     * @param capturedAt The capture time in milliseconds since the epoch, or 0 if unknown
+     */
+    void setMetadata(double latitude, double longitude, long capturedAt) {
+        this.metadataScanned = true;
+        this.hasLocation = !Double.isNaN(latitude) && !Double.isNaN(longitude);
+        this.latitude = hasLocation ? latitude : 0;
+        this.longitude = hasLocation ? longitude : 0;
+        this.capturedAt = capturedAt;
+    }
+
     /**
      * Gets the URI string of this photo.
      *
@@ -48,6 +134,7 @@ public class Photo implements Serializable {
      */
     public void setUriString(String uriString) {
         this.uriString = uriString;
+        this.displayName = null;
     }
 
     /**
@@ -61,12 +148,36 @@ public class Photo implements Serializable {
 
     /**
      * Gets the display name (filename) of this photo.
-     * Uses ContentResolver for content URIs to get the actual display name.
+     * Uses ContentResolver for content URIs to get the actual display name; the
+     * result is kept, so only the first call with a context queries the provider.
      *
      * @param context The context to use for ContentResolver (can be null)
      * @return The display name
      */
     public String getDisplayName(Context context) {
+        String cached = displayName;
+        if (cached != null) {
+            return cached;
+        }
+        if (context == null) {
+            return resolveDisplayName(null);
+        }
+        cached = resolveDisplayName(context);
+        displayName = cached;
+        return cached;
+    }
+
+    /**
+     * Gets the display name if it was already resolved through the ContentResolver,
+     * without querying it.
+     *
+     * @return The display name, or null if not resolved yet
+     */
+    public String getCachedDisplayName() {
+        return displayName;
+    }
+
+    private String resolveDisplayName(Context context) {
         Uri uri = Uri.parse(uriString);
         
         // Try to get display name from ContentResolver for content URIs
@@ -187,8 +298,8 @@ public class Photo implements Serializable {
      * @return true if the photo has a matching tag
      */
     public boolean hasTagWithPrefix(String type, String valuePrefix) {
-        for (Tag tag : tags) {
-            if (tag.matchesPrefix(type, valuePrefix)) {
+        for (int i = 0; i < tags.size(); i++) {
+            if (tags.get(i).matchesPrefix(type, valuePrefix)) {
                 return true;
             }
         }
@@ -0,0 +1,202 @@
+package com.photos.model;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Ordered index over date, rating and number tags.
+ * Each tag type keeps its (value, photo ID) pairs in sorted parallel arrays, so a
+ * range lookup is two binary searches plus the matches it returns.
+ * Updated from LibraryListener callbacks; inserts and removals shift the arrays,
+ * which stays cheap since a library holds far fewer range tags than photos are scanned.
+ */
+public class RangeIndex implements LibraryListener, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final Map<String, Column> columns = new HashMap<>();
+
+    /**
+     * Builds the index from every photo in the given albums.
+     *
+     * @param albums The albums to index
+     * @return The index
+     */
+    public static RangeIndex build(List<Album> albums) {
+        RangeIndex index = new RangeIndex();
+        for (Album album : albums) {
+            if (album.isSmart()) continue;
+            for (Photo photo : album.getPhotos()) {
+                index.onPhotoAdded(album, photo);
+            }
+        }
+        return index;
+    }
+
+    @Override
+    public void onPhotoAdded(Album album, Photo photo) {
+        for (Tag tag : photo.getTags()) {
+            onTagAdded(album, photo, tag);
+        }
+    }
+
+    @Override
+    public void onPhotoRemoved(Album album, Photo photo) {
+        for (Tag tag : photo.getTags()) {
+            onTagRemoved(album, photo, tag);
+        }
+    }
+
+    @Override
+    public void onTagAdded(Album album, Photo photo, Tag tag) {
+        double value = tag.getNumericValue();
+        if (Double.isNaN(value)) return;
+        String type = tag.getTagName().toLowerCase();
+        Column column = columns.get(type);
+        if (column == null) {
+            column = new Column();
+            columns.put(type, column);
+        }
+        column.insert(value, photo.getId());
+    }
+
+    @Override
+    public void onTagRemoved(Album album, Photo photo, Tag tag) {
+        double value = tag.getNumericValue();
+        if (Double.isNaN(value)) return;
+        Column column = columns.get(tag.getTagName().toLowerCase());
+        if (column != null) {
+            column.remove(value, photo.getId());
+        }
+    }
+
+    /**
+     * Gets the photos with a tag value in a range, ordered by value.
+     * A photo with several values in the range is listed once per value.
+     *
+     * @param tagType The tag type
+     * @param min     The lowest value, inclusive
+     * @param max     The highest value, inclusive
+     * @return Array of photo IDs
+     */
+    public long[] findInRange(String tagType, double min, double max) {
+        Column column = columns.get(tagType.toLowerCase());
+        if (column == null || min > max) return new long[0];
+        int from = column.lowerBound(min);
+        int to = column.upperBound(max);
+        return Arrays.copyOfRange(column.photoIds, from, Math.max(from, to));
+    }
+
+    /**
+     * Counts the tag values in a range without listing them.
+     *
+     * @param tagType The tag type
+     * @param min     The lowest value, inclusive
+     * @param max     The highest value, inclusive
+     * @return The number of (value, photo) pairs in the range
+     */
+    public int countInRange(String tagType, double min, double max) {
+        Column column = columns.get(tagType.toLowerCase());
+        if (column == null || min > max) return 0;
+        return Math.max(0, column.upperBound(max) - column.lowerBound(min));
+    }
+
+    /**
+     * Sorted (value, photo ID) pairs of one tag type.
+     * Each pair counts the tags behind it, as tags such as "4" and "04" on the
+     * same photo parse to the same value; it is removed with the last of them.
+     */
+    private static class Column implements Serializable {
+        private static final long serialVersionUID = 2L;
+
+        double[] values = new double[16];
+        long[] photoIds = new long[16];
+        int[] counts = new int[16];
+        int size;
+
+        void insert(double value, long photoId) {
+            int index = find(value, photoId);
+            if (index >= 0) {
+                counts[index]++;
+                return;
+            }
+            index = -index - 1;
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+                photoIds = Arrays.copyOf(photoIds, size * 2);
+                counts = Arrays.copyOf(counts, size * 2);
+            }
+            System.arraycopy(values, index, values, index + 1, size - index);
+            System.arraycopy(photoIds, index, photoIds, index + 1, size - index);
+            System.arraycopy(counts, index, counts, index + 1, size - index);
+            values[index] = value;
+            photoIds[index] = photoId;
+            counts[index] = 1;
+            size++;
+        }
+
+        void remove(double value, long photoId) {
+            int index = find(value, photoId);
+            if (index < 0) return;
+            if (--counts[index] > 0) return;
+            System.arraycopy(values, index + 1, values, index, size - index - 1);
+            System.arraycopy(photoIds, index + 1, photoIds, index, size - index - 1);
+            System.arraycopy(counts, index + 1, counts, index, size - index - 1);
+            size--;
+        }
+
+        /**
+         * Binary search for a pair, ordered by value and then by photo ID.
+         * Returns the index if found, otherwise (-(insertion point) - 1).
+         */
+        int find(double value, long photoId) {
+            int low = 0;
+            int high = size - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                int cmp = Double.compare(values[middle], value);
+                if (cmp == 0) cmp = Long.compare(photoIds[middle], photoId);
+                if (cmp < 0) {
+                    low = middle + 1;
+                } else if (cmp > 0) {
+                    high = middle - 1;
+                } else {
+                    return middle;
+                }
+            }
+            return -(low + 1);
+        }
+
+        /** Index of the first value not below min. */
+        int lowerBound(double min) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (values[middle] < min) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        /** Index of the first value above max. */
+        int upperBound(double max) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (values[middle] <= max) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+    }
+}
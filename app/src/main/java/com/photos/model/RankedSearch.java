@@ -0,0 +1,199 @@
+package com.photos.model;
+
+import com.photos.model.DataManager.PhotoResult;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Evaluates a query and keeps only the best scoring matches.
+ * Matches are ranked by the number of terms they satisfy, then by how many of those
+ * are exact value matches, then by how recently the matching tags were added.
+ * Only the current best k matches are held during the scan, so memory and sorting
+ * cost depend on k and not on the number of matches.
+ */
+public class RankedSearch {
+
+    /** Score for each query term a photo matches. */
+    public static final double TERM_WEIGHT = 4.0;
+    /** Extra score for each term matched by a tag equal to the query value. */
+    public static final double EXACT_WEIGHT = 2.0;
+    /** Age at which the recency bonus drops to half. */
+    public static final long RECENCY_HALF_LIFE_MILLIS = 30L * 24 * 60 * 60 * 1000;
+
+    /** Best hit first; equal scores keep album order. */
+    private static final Comparator<Hit> BEST_FIRST = (a, b) -> {
+        int byScore = Double.compare(b.score, a.score);
+        if (byScore != 0) return byScore;
+        return Integer.compare(a.order, b.order);
+    };
+
+    private RankedSearch() {
+    }
+
+    /**
+     * Collects the k best matches of a query.
+     * Photos sharing a URI are only returned once, keeping the better scoring copy.
+     *
+     * @param albums The albums to search
+     * @param query  The resolved query to evaluate
+     * @param k      The maximum number of results
+     * @param now    The current time, used for the recency bonus
+     * @return Up to k hits, best first
+     */
+    public static List<Hit> topK(List<Album> albums, SearchQuery query, int k, long now) {
+        List<Hit> hits = new ArrayList<>();
+        if (k <= 0) {
+            return hits;
+        }
+
+        // Min-heap on score: the head is the weakest hit currently kept
+        PriorityQueue<Hit> heap = new PriorityQueue<>(k + 1, Collections.reverseOrder(BEST_FIRST));
+        Map<String, Hit> keptByUri = new HashMap<>();
+        int order = 0;
+        for (Album album : albums) {
+            if (album.isSmart()) continue;
+            List<Photo> photos = album.getPhotos();
+            for (int position = 0; position < photos.size(); position++, order++) {
+                Photo photo = photos.get(position);
+                if (!query.matches(photo)) continue;
+
+                Hit hit = score(query, photo, now);
+                hit.order = order;
+                if (heap.size() == k && BEST_FIRST.compare(hit, heap.peek()) >= 0) {
+                    continue;
+                }
+                Hit kept = keptByUri.get(photo.getUriString());
+                if (kept != null) {
+                    if (BEST_FIRST.compare(hit, kept) >= 0) continue;
+                    heap.remove(kept);
+                }
+                hit.result = new PhotoResult(photo, album, position);
+                heap.add(hit);
+                keptByUri.put(photo.getUriString(), hit);
+                if (heap.size() > k) {
+                    keptByUri.remove(heap.poll().result.photo.getUriString());
+                }
+            }
+        }
+
+        hits.addAll(heap);
+        hits.sort(BEST_FIRST);
+        return hits;
+    }
+
+    /**
+     * Computes the score components of a photo for a query.
+     *
+     * @param query The resolved query
+     * @param photo The photo to score
+     * @param now   The current time, used for the recency bonus
+     * @return The scored hit, without a result attached
+     */
+    public static Hit score(SearchQuery query, Photo photo, long now) {
+        Hit hit = new Hit();
+        for (SearchQuery.Term term : query.getTerms()) {
+            boolean matched = false;
+            boolean exact = false;
+            for (Tag tag : photo.getTags()) {
+                if (!term.matches(tag)) continue;
+                matched = true;
+                exact |= tag.getTagValue().equalsIgnoreCase(term.getValue());
+                hit.newestTagTime = Math.max(hit.newestTagTime, tag.getCreatedAt());
+            }
+            if (matched) hit.termsMatched++;
+            if (exact) hit.exactMatches++;
+        }
+        hit.recency = recencyBonus(hit.newestTagTime, now);
+        hit.score = hit.termsMatched * TERM_WEIGHT + hit.exactMatches * EXACT_WEIGHT + hit.recency;
+        return hit;
+    }
+
+    /**
+     * Gets the recency bonus for a tag age, halving every RECENCY_HALF_LIFE_MILLIS.
+     * Always below 1 so it only orders photos that tie on the other components.
+     *
+     * @param tagTime The time the tag was added, or 0 if unknown
+     * @param now     The current time
+     * @return The bonus, between 0 and 1
+     */
+    public static double recencyBonus(long tagTime, long now) {
+        if (tagTime <= 0) {
+            return 0;
+        }
+        long age = Math.max(0, now - tagTime);
+        return 0.999 * Math.pow(0.5, (double) age / RECENCY_HALF_LIFE_MILLIS);
+    }
+
+    /**
+     * A ranked match and the components of its score.
+     */
+    public static class Hit {
+        private PhotoResult result;
+        private int order;
+        private int termsMatched;
+        private int exactMatches;
+        private long newestTagTime;
+        private double recency;
+        private double score;
+
+        /**
+         * Gets the matching photo with its album context.
+         *
+         * @return The result, or null for a hit returned by score
+         */
+        public PhotoResult getResult() {
+            return result;
+        }
+
+        /**
+         * Gets the number of query terms the photo matches.
+         *
+         * @return The matched term count
+         */
+        public int getTermsMatched() {
+            return termsMatched;
+        }
+
+        /**
+         * Gets the number of terms matched by a tag equal to the query value.
+         *
+         * @return The exact match count
+         */
+        public int getExactMatches() {
+            return exactMatches;
+        }
+
+        /**
+         * Gets the creation time of the newest tag matching the query.
+         *
+         * @return The time in milliseconds since the epoch, or 0 if unknown
+         */
+        public long getNewestTagTime() {
+            return newestTagTime;
+        }
+
+        /**
+         * Gets the recency part of the score.
+         *
+         * @return The recency bonus, between 0 and 1
+         */
+        public double getRecency() {
+            return recency;
+        }
+
+        /**
+         * Gets the total score.
+         *
+         * @return The score; higher is better
+         */
+        public double getScore() {
+            return score;
+        }
+    }
+}
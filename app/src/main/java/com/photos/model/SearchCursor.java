@@ -0,0 +1,332 @@
+package com.photos.model;
+
+import com.photos.model.DataManager.PhotoResult;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Search results stored as pairs of (album index, photo index) in primitive arrays,
+ * so a search allocates no object per hit.
+ * Indexes refer to the album list the cursor was built over and to the photo
+ * positions at query time. Each result also keeps its photo ID, so a photo that
+ * has moved within its album since is reported as gone rather than replaced by
+ * whichever photo now sits at its position; run the search again after the
+ * library changes.
+ * PhotoResult objects are only created on request, e.g. when a result is opened.
+ */
+public class SearchCursor {
+
+    /** Slots a cursor starts with; it doubles as hits are added. */
+    static final int INITIAL_CAPACITY = 64;
+
+    private final List<Album> albums;
+    private int[] albumIndexes;
+    private int[] photoIndexes;
+    private long[] photoIds;
+    private Photo[] photos;
+    private int count;
+
+    SearchCursor(List<Album> albums) {
+        this(albums, INITIAL_CAPACITY);
+    }
+
+    SearchCursor(List<Album> albums, int capacity) {
+        this.albums = albums;
+        this.albumIndexes = new int[Math.max(capacity, 1)];
+        this.photoIndexes = new int[Math.max(capacity, 1)];
+        this.photoIds = new long[Math.max(capacity, 1)];
+    }
+
+    /**
+     * Creates an empty cursor.
+     *
+     * @return A cursor with no results
+     */
+    public static SearchCursor empty() {
+        return new SearchCursor(new ArrayList<>(), 1);
+    }
+
+    /**
+     * Creates a cursor over an existing result list, keeping its order.
+     *
+     * @param results The results
+     * @return A cursor holding the same results
+     */
+    public static SearchCursor of(List<PhotoResult> results) {
+        List<Album> albums = new ArrayList<>();
+        Map<Album, Integer> albumIndexes = new IdentityHashMap<>();
+        SearchCursor cursor = new SearchCursor(albums, results.size());
+        for (PhotoResult result : results) {
+            Integer albumIndex = albumIndexes.get(result.album);
+            if (albumIndex == null) {
+                albumIndex = albums.size();
+                albums.add(result.album);
+                albumIndexes.put(result.album, albumIndex);
+            }
+            cursor.append(albumIndex, result.position, result.photoId, result.photo);
+        }
+        return cursor;
+    }
+
+    /**
+     * Appends a result.
+     *
+     * @param albumIndex The index of the album in the cursor's album list
+     * @param photoIndex The position of the photo in that album
+     * @param photoId    The ID of the photo
+     */
+    void add(int albumIndex, int photoIndex, long photoId) {
+        append(albumIndex, photoIndex, photoId, null);
+    }
+
+    /**
+     * Appends a result found without its album position, e.g. from an index lookup.
+     * The photo is kept by reference and its position is looked up only if asked for.
+     *
+     * @param albumIndex The index of the album in the cursor's album list
+     * @param photo      The photo
+     */
+    void add(int albumIndex, Photo photo) {
+        append(albumIndex, -1, photo.getId(), photo);
+    }
+
+    private void append(int albumIndex, int photoIndex, long photoId, Photo photo) {
+        if (count == albumIndexes.length) {
+            albumIndexes = Arrays.copyOf(albumIndexes, count * 2);
+            photoIndexes = Arrays.copyOf(photoIndexes, count * 2);
+            photoIds = Arrays.copyOf(photoIds, count * 2);
+            if (photos != null) {
+                photos = Arrays.copyOf(photos, count * 2);
+            }
+        }
+        if (photo != null && photos == null) {
+            photos = new Photo[albumIndexes.length];
+        }
+        albumIndexes[count] = albumIndex;
+        photoIndexes[count] = photoIndex;
+        photoIds[count] = photoId;
+        if (photos != null) {
+            photos[count] = photo;
+        }
+        count++;
+    }
+
+    /**
+     * Gets the number of results.
+     *
+     * @return The result count
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Checks if there are no results.
+     *
+     * @return true if the cursor is empty
+     */
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * Gets the index of a result's album in the cursor's album list.
+     *
+     * @param index The result index
+     * @return The album index
+     */
+    public int getAlbumIndex(int index) {
+        return albumIndexes[index];
+    }
+
+    /**
+     * Gets the position of a result's photo in its album at query time.
+     *
+     * @param index The result index
+     * @return The photo position
+     */
+    public int getPhotoIndex(int index) {
+        if (photoIndexes[index] < 0 && photos != null && photos[index] != null) {
+            return getAlbum(index).getPhotos().indexOf(photos[index]);
+        }
+        return photoIndexes[index];
+    }
+
+    /**
+     * Gets the ID of a result's photo.
+     *
+     * @param index The result index
+     * @return The photo ID
+     */
+    public long getPhotoId(int index) {
+        return photoIds[index];
+    }
+
+    /**
+     * Gets the album of a result.
+     *
+     * @param index The result index
+     * @return The album
+     */
+    public Album getAlbum(int index) {
+        return albums.get(albumIndexes[index]);
+    }
+
+    /**
+     * Gets the photo of a result.
+     *
+     * @param index The result index
+     * @return The photo, or null if it is no longer at its query-time position
+     */
+    public Photo getPhoto(int index) {
+        if (photos != null && photos[index] != null) {
+            return photos[index];
+        }
+        List<Photo> albumPhotos = getAlbum(index).getPhotos();
+        int position = photoIndexes[index];
+        if (position < 0 || position >= albumPhotos.size()) return null;
+        Photo photo = albumPhotos.get(position);
+        return photo.getId() == photoIds[index] ? photo : null;
+    }
+
+    /**
+     * Creates the PhotoResult for one result.
+     *
+     * @param index The result index
+     * @return The result, or null if the photo is no longer at its query-time position
+     */
+    public PhotoResult getResult(int index) {
+        Photo photo = getPhoto(index);
+        return photo == null ? null : new PhotoResult(photo, getAlbum(index), photoIndexes[index]);
+    }
+
+    /**
+     * Copies the cursor, e.g. before changing results that other screens share.
+     * Only the arrays are copied; no object is created per result.
+     *
+     * @return A new cursor holding the same results
+     */
+    public SearchCursor copy() {
+        SearchCursor copy = new SearchCursor(new ArrayList<>(albums), count);
+        System.arraycopy(albumIndexes, 0, copy.albumIndexes, 0, count);
+        System.arraycopy(photoIndexes, 0, copy.photoIndexes, 0, count);
+        System.arraycopy(photoIds, 0, copy.photoIds, 0, count);
+        if (photos != null) {
+            copy.photos = Arrays.copyOf(photos, copy.albumIndexes.length);
+        }
+        copy.count = count;
+        return copy;
+    }
+
+    /**
+     * Replaces a result, e.g. after its photo was moved to another album.
+     *
+     * @param index    The result index
+     * @param album    The album now containing the photo
+     * @param position The photo's position in that album
+     * @param photo    The photo
+     */
+    public void set(int index, Album album, int position, Photo photo) {
+        int albumIndex = albums.indexOf(album);
+        if (albumIndex < 0) {
+            albumIndex = albums.size();
+            albums.add(album);
+        }
+        albumIndexes[index] = albumIndex;
+        photoIndexes[index] = position;
+        photoIds[index] = photo.getId();
+        if (photos != null) {
+            photos[index] = null;
+        }
+    }
+
+    /**
+     * Removes a result; the results after it move up by one.
+     *
+     * @param index The result index
+     */
+    public void remove(int index) {
+        int moved = count - index - 1;
+        System.arraycopy(albumIndexes, index + 1, albumIndexes, index, moved);
+        System.arraycopy(photoIndexes, index + 1, photoIndexes, index, moved);
+        System.arraycopy(photoIds, index + 1, photoIds, index, moved);
+        if (photos != null) {
+            System.arraycopy(photos, index + 1, photos, index, moved);
+            photos[count - 1] = null;
+        }
+        count--;
+    }
+
+    /**
+     * Creates the PhotoResult for every result.
+     * Results whose photo is gone are left out, so list indexes can differ from
+     * cursor indexes; walk the cursor itself to keep them aligned.
+     *
+     * @return List of results, in cursor order
+     */
+    public List<PhotoResult> toResults() {
+        List<PhotoResult> results = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            PhotoResult result = getResult(i);
+            if (result != null) {
+                results.add(result);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Keeps the results whose photo matches a query.
+     *
+     * @param query The resolved query
+     * @return A new cursor over the same albums
+     */
+    SearchCursor filter(SearchQuery query) {
+        SearchCursor matches = new SearchCursor(albums, count);
+        for (int i = 0; i < count; i++) {
+            Photo photo = getPhoto(i);
+            if (photo != null && query.matches(photo)) {
+                matches.append(albumIndexes[i], photoIndexes[i], photoIds[i], photos != null ? photos[i] : null);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Keeps only the first result for each photo URI.
+     * Uses an open-addressing table of result indexes, so no object is created per result.
+     *
+     * @return A new cursor over the same albums
+     */
+    SearchCursor dedupeByUri() {
+        SearchCursor unique = new SearchCursor(albums, count);
+        // At least twice as many slots as results keeps probe sequences short
+        int[] table = new int[Integer.highestOneBit(Math.max(count, 1) * 2) << 1];
+        int mask = table.length - 1;
+        for (int i = 0; i < count; i++) {
+            Photo photo = getPhoto(i);
+            if (photo == null) continue;
+            String uri = photo.getUriString();
+            int hash = uri.hashCode();
+            int slot = (hash ^ (hash >>> 16)) & mask;
+            boolean seen = false;
+            while (table[slot] != 0) {
+                if (unique.getPhoto(table[slot] - 1).getUriString().equals(uri)) {
+                    seen = true;
+                    break;
+                }
+                slot = (slot + 1) & mask;
+            }
+            if (!seen) {
+                // Slots hold the index in the unique cursor plus one; zero marks an empty slot
+                table[slot] = unique.count + 1;
+                unique.append(albumIndexes[i], photoIndexes[i], photoIds[i], photos != null ? photos[i] : null);
+            }
+        }
+        return unique;
+    }
+}
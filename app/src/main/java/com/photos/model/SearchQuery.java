@@ -0,0 +1,465 @@
+package com.photos.model;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Represents a tag search query.
+ * A query is a list of terms combined with AND (conjunction) or OR (disjunction).
+ * A single tag search is a conjunction with one term.
+ */
+public class SearchQuery implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final boolean disjunction;
+    private final List<Term> terms;
+
+    private SearchQuery(boolean disjunction, List<Term> terms) {
+        this.disjunction = disjunction;
+        this.terms = Collections.unmodifiableList(terms);
+    }
+
+    /**
+     * Creates a query matching a single tag.
+     *
+     * @param tagType     The tag type
+     * @param valuePrefix The value prefix to match
+     * @return The query
+     */
+    public static SearchQuery single(String tagType, String valuePrefix) {
+        return single(tagType, valuePrefix, MatchMode.PREFIX);
+    }
+
+    /**
+     * Creates a query matching a single tag.
+     *
+     * @param tagType The tag type
+     * @param value   The value to match
+     * @param mode    How the value is compared against tag values
+     * @return The query
+     */
+    public static SearchQuery single(String tagType, String value, MatchMode mode) {
+        List<Term> terms = new ArrayList<>();
+        terms.add(new Term(tagType, value, mode));
+        return new SearchQuery(false, terms);
+    }
+
+    /**
+     * Creates a query matching photos that have both tags.
+     *
+     * @param tagType1     First tag type
+     * @param valuePrefix1 First value prefix
+     * @param tagType2     Second tag type
+     * @param valuePrefix2 Second value prefix
+     * @return The query
+     */
+    public static SearchQuery and(String tagType1, String valuePrefix1,
+                                  String tagType2, String valuePrefix2) {
+        return and(tagType1, valuePrefix1, tagType2, valuePrefix2, MatchMode.PREFIX);
+    }
+
+    /**
+     * Creates a query matching photos that have both tags.
+     *
+     * @param tagType1 First tag type
+     * @param value1   First value
+     * @param tagType2 Second tag type
+     * @param value2   Second value
+     * @param mode     How the values are compared against tag values
+     * @return The query
+     */
+    public static SearchQuery and(String tagType1, String value1,
+                                  String tagType2, String value2, MatchMode mode) {
+        List<Term> terms = new ArrayList<>();
+        terms.add(new Term(tagType1, value1, mode));
+        terms.add(new Term(tagType2, value2, mode));
+        return new SearchQuery(false, terms);
+    }
+
+    /**
+     * Creates a query matching photos that have either tag.
+     *
+     * @param tagType1     First tag type
+     * @param valuePrefix1 First value prefix
+     * @param tagType2     Second tag type
+     * @param valuePrefix2 Second value prefix
+     * @return The query
+     */
+    public static SearchQuery or(String tagType1, String valuePrefix1,
+                                 String tagType2, String valuePrefix2) {
+        return or(tagType1, valuePrefix1, tagType2, valuePrefix2, MatchMode.PREFIX);
+    }
+
+    /**
+     * Creates a query matching photos that have either tag.
+     *
+     * @param tagType1 First tag type
+     * @param value1   First value
+     * @param tagType2 Second tag type
+     * @param value2   Second value
+     * @param mode     How the values are compared against tag values
+     * @return The query
+     */
+    public static SearchQuery or(String tagType1, String value1,
+                                 String tagType2, String value2, MatchMode mode) {
+        List<Term> terms = new ArrayList<>();
+        terms.add(new Term(tagType1, value1, mode));
+        terms.add(new Term(tagType2, value2, mode));
+        return new SearchQuery(true, terms);
+    }
+
+    /**
+     * Creates a query matching photos that match every term.
+     *
+     * @param terms The terms
+     * @return The query
+     */
+    public static SearchQuery and(Term... terms) {
+        return new SearchQuery(false, new ArrayList<>(Arrays.asList(terms)));
+    }
+
+    /**
+     * Creates a query matching photos that match any of the terms.
+     *
+     * @param terms The terms
+     * @return The query
+     */
+    public static SearchQuery or(Term... terms) {
+        return new SearchQuery(true, new ArrayList<>(Arrays.asList(terms)));
+    }
+
+    /**
+     * Checks if this query combines its terms with OR.
+     *
+     * @return true for a disjunction, false for a conjunction
+     */
+    public boolean isDisjunction() {
+        return disjunction && terms.size() > 1;
+    }
+
+    /**
+     * Gets the terms of this query.
+     *
+     * @return Unmodifiable list of terms
+     */
+    public List<Term> getTerms() {
+        return terms;
+    }
+
+    /**
+     * Binds the terms that need the tag dictionary to the values they match,
+     * so the query can be checked against photos without recomputing them.
+     *
+     * @param dictionary The current tag dictionary
+     * @return A query ready for evaluation, or this query if nothing needed resolving
+     */
+    public SearchQuery resolve(TagDictionary dictionary) {
+        List<Term> resolved = new ArrayList<>();
+        boolean changed = false;
+        for (Term term : terms) {
+            Term bound = term.resolve(dictionary);
+            changed |= bound != term;
+            resolved.add(bound);
+        }
+        return changed ? new SearchQuery(disjunction, resolved) : this;
+    }
+
+    /**
+     * Checks if a photo matches this query.
+     *
+     * @param photo The photo to check
+     * @return true if the photo matches
+     */
+    public boolean matches(Photo photo) {
+        // Indexed loops: this runs for every photo scanned and should not create iterators
+        if (isDisjunction()) {
+            for (int i = 0; i < terms.size(); i++) {
+                if (terms.get(i).matches(photo)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        for (int i = 0; i < terms.size(); i++) {
+            if (!terms.get(i).matches(photo)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks if every photo matching this query also matches the previous query,
+     * so that this query can be evaluated by filtering the previous matches.
+     * This holds when each term extends the prefix of the corresponding previous term,
+     * and for conjunctions also when extra terms are appended.
+     *
+     * @param previous The previously evaluated query
+     * @return true if this query only narrows the previous one
+     */
+    public boolean isNarrowingOf(SearchQuery previous) {
+        if (previous == null) return false;
+        if (isDisjunction() != previous.isDisjunction()) return false;
+        if (isDisjunction() ? terms.size() != previous.terms.size()
+                : terms.size() < previous.terms.size()) {
+            return false;
+        }
+        for (int i = 0; i < previous.terms.size(); i++) {
+            if (!terms.get(i).isNarrowingOf(previous.terms.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < terms.size(); i++) {
+            if (i > 0) sb.append(isDisjunction() ? " OR " : " AND ");
+            sb.append(terms.get(i));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * A single tag criterion: a tag type and a case-insensitive value,
+     * compared according to its match mode.
+     * Range terms instead hold the lowest and highest numeric value to match.
+     */
+    public static class Term implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String tagType;
+        private final String value;
+        private final MatchMode mode;
+        private final double min;
+        private final double max;
+        private final transient Set<String> resolvedValues;
+
+        public Term(String tagType, String valuePrefix) {
+            this(tagType, valuePrefix, MatchMode.PREFIX);
+        }
+
+        public Term(String tagType, String value, MatchMode mode) {
+            this(tagType, value, mode, null);
+        }
+
+        private Term(String tagType, String value, MatchMode mode, Set<String> resolvedValues) {
+            this.tagType = tagType;
+            this.value = value;
+            this.mode = mode;
+            this.min = Double.NaN;
+            this.max = Double.NaN;
+            this.resolvedValues = resolvedValues;
+        }
+
+        private Term(String tagType, double min, double max) {
+            this.tagType = tagType;
+            this.value = formatBound(tagType, min) + ".." + formatBound(tagType, max);
+            this.mode = MatchMode.RANGE;
+            this.min = min;
+            this.max = max;
+            this.resolvedValues = null;
+        }
+
+        private static String formatBound(String tagType, double bound) {
+            return Double.isInfinite(bound) ? "" : Tag.formatValue(tagType, bound);
+        }
+
+        /**
+         * Creates a term matching date, rating or number tags with a value in a range.
+         *
+         * @param tagType The tag type
+         * @param min     The lowest value, inclusive
+         * @param max     The highest value, inclusive
+         * @return The term
+         */
+        public static Term range(String tagType, double min, double max) {
+            return new Term(tagType, min, max);
+        }
+
+        /**
+         * Parses a range expression for a date, rating or number tag type.
+         * Accepts a single value ("4"), a closed range ("2024-06-01..2024-08-31")
+         * and open ranges (">=4", "<=2024-08-31"), with values written as in tags.
+         *
+         * @param tagType    The tag type
+         * @param expression The expression
+         * @return The term, or null if the expression is not valid for the type
+         */
+        public static Term parseRange(String tagType, String expression) {
+            String text = expression.trim();
+            double min;
+            double max;
+            if (text.startsWith(">=")) {
+                min = Tag.parseValue(tagType, text.substring(2));
+                max = Double.POSITIVE_INFINITY;
+            } else if (text.startsWith("<=")) {
+                min = Double.NEGATIVE_INFINITY;
+                max = Tag.parseValue(tagType, text.substring(2));
+            } else if (text.contains("..")) {
+                int split = text.indexOf("..");
+                min = Tag.parseValue(tagType, text.substring(0, split));
+                max = Tag.parseValue(tagType, text.substring(split + 2));
+            } else {
+                min = Tag.parseValue(tagType, text);
+                max = min;
+            }
+            if (Double.isNaN(min) || Double.isNaN(max) || min > max) {
+                return null;
+            }
+            return new Term(tagType, min, max);
+        }
+
+        public String getTagType() {
+            return tagType;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        public MatchMode getMode() {
+            return mode;
+        }
+
+        /**
+         * Gets the lowest value matched by a range term.
+         *
+         * @return The lower bound, or NaN for other terms
+         */
+        public double getMin() {
+            return min;
+        }
+
+        /**
+         * Gets the highest value matched by a range term.
+         *
+         * @return The upper bound, or NaN for other terms
+         */
+        public double getMax() {
+            return max;
+        }
+
+        /**
+         * Gets the lower-case tag values this term was resolved to.
+         *
+         * @return The values, or null for prefix and unresolved terms
+         */
+        Set<String> getResolvedValues() {
+            return resolvedValues;
+        }
+
+        /**
+         * Looks up the lower-case tag values this term matches.
+         * Prefix terms are checked directly and are returned unchanged.
+         *
+         * @param dictionary The current tag dictionary
+         * @return A term bound to its matching values
+         */
+        Term resolve(TagDictionary dictionary) {
+            if (mode == MatchMode.PREFIX || mode == MatchMode.RANGE || resolvedValues != null) {
+                return this;
+            }
+            Set<String> values = mode == MatchMode.FUZZY
+                    ? dictionary.findSimilarKeys(tagType, value)
+                    : dictionary.findContainingKeys(tagType, value);
+            return new Term(tagType, value, mode, values);
+        }
+
+        /**
+         * Checks if a photo has a tag matching this term.
+         *
+         * @param photo The photo to check
+         * @return true if the photo matches
+         */
+        public boolean matches(Photo photo) {
+            if (mode == MatchMode.PREFIX) {
+                return photo.hasTagWithPrefix(tagType, value);
+            }
+            List<Tag> tags = photo.getTags();
+            for (int i = 0; i < tags.size(); i++) {
+                if (matches(tags.get(i))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Checks if a single tag matches this term.
+         *
+         * @param tag The tag to check
+         * @return true if the tag matches
+         */
+        public boolean matches(Tag tag) {
+            if (mode == MatchMode.PREFIX) {
+                return tag.matchesPrefix(tagType, value);
+            }
+            if (mode == MatchMode.RANGE) {
+                if (!tag.getTagName().equalsIgnoreCase(tagType)) return false;
+                double number = tag.getNumericValue();
+                return number >= min && number <= max;
+            }
+            return tag.getTagName().equalsIgnoreCase(tagType) && matchesValue(tag.getTagValue());
+        }
+
+        private boolean matchesValue(String tagValue) {
+            String key = tagValue.toLowerCase();
+            if (resolvedValues != null) {
+                return resolvedValues.contains(key);
+            }
+            String query = value.toLowerCase();
+            if (mode == MatchMode.CONTAINS) {
+                return key.contains(query);
+            }
+            return BKTree.distance(key, query) <= TagDictionary.maxEditsFor(query);
+        }
+
+        /**
+         * Checks if every tag matching this term also matches the previous term.
+         * Prefix terms narrow when they extend the previous prefix, substring terms
+         * when they contain the previous text, and fuzzy terms only when unchanged.
+         *
+         * @param previous The previous term
+         * @return true if this term narrows the previous one
+         */
+        public boolean isNarrowingOf(Term previous) {
+            if (!tagType.equalsIgnoreCase(previous.tagType) || mode != previous.mode) {
+                return false;
+            }
+            if (mode == MatchMode.PREFIX) {
+                return value.toLowerCase().startsWith(previous.value.toLowerCase());
+            }
+            if (mode == MatchMode.CONTAINS) {
+                return value.toLowerCase().contains(previous.value.toLowerCase());
+            }
+            if (mode == MatchMode.RANGE) {
+                return min >= previous.min && max <= previous.max;
+            }
+            return value.equalsIgnoreCase(previous.value);
+        }
+
+        @Override
+        public String toString() {
+            switch (mode) {
+                case FUZZY:
+                    return tagType + "~" + value;
+                case CONTAINS:
+                    return tagType + "=*" + value + "*";
+                case RANGE:
+                    if (min == Double.NEGATIVE_INFINITY) return tagType + "<=" + Tag.formatValue(tagType, max);
+                    if (max == Double.POSITIVE_INFINITY) return tagType + ">=" + Tag.formatValue(tagType, min);
+                    if (min == max) return tagType + "=" + Tag.formatValue(tagType, min);
+                    return tagType + " in " + value;
+                default:
+                    return tagType + "=" + value;
+            }
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.photos.model;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * An album defined by a saved tag query.
+ * Its photos are the photos of regular albums that match the query; membership is
+ * kept up to date by DataManager as tags and albums change, so opening the album
+ * never re-runs the search. Photos cannot be added to or moved into a smart album.
+ */
+public class SmartAlbum extends Album {
+    private static final long serialVersionUID = 1L;
+
+    private final SearchQuery query;
+    // IDs of the member photos, rebuilt from the photo list after loading
+    private transient Set<Long> memberIds;
+
+    /**
+     * Constructs a new SmartAlbum with the specified name and query.
+     *
+     * @param name  The name of the album
+     * @param query The query photos must match
+     */
+    public SmartAlbum(String name, SearchQuery query) {
+        super(name);
+        this.query = query;
+    }
+
+    /**
+     * Gets the query defining this album.
+     *
+     * @return The query
+     */
+    public SearchQuery getQuery() {
+        return query;
+    }
+
+    @Override
+    public boolean isSmart() {
+        return true;
+    }
+
+    /**
+     * Smart album membership follows the query, so photos cannot be added directly.
+     *
+     * @param photo The photo to add
+     * @return false, always
+     */
+    @Override
+    public boolean addPhoto(Photo photo) {
+        return false;
+    }
+
+    /**
+     * Re-checks a photo against the query, adding or removing it as needed.
+     *
+     * @param photo The photo whose tags or album changed
+     */
+    void update(Photo photo) {
+        boolean member = getMemberIds().contains(photo.getId());
+        boolean matches = query.matches(photo);
+        if (matches && !member) {
+            addMember(photo);
+        } else if (!matches && member) {
+            remove(photo);
+        }
+    }
+
+    /**
+     * Adds a photo known to match the query to this album's members.
+     *
+     * @param photo The photo to add
+     */
+    void addMember(Photo photo) {
+        if (getMemberIds().add(photo.getId())) {
+            getPhotos().add(photo);
+        }
+    }
+
+    /**
+     * Removes a photo from this album's members.
+     *
+     * @param photo The photo to remove
+     */
+    void remove(Photo photo) {
+        if (!getMemberIds().remove(photo.getId())) return;
+        int index = indexOfSame(photo);
+        if (index >= 0) {
+            getPhotos().remove(index);
+        }
+    }
+
+    /**
+     * Gets the IDs of the member photos, so checking a photo does not scan the list.
+     * Photos with the same URI from different albums have their own IDs and are
+     * separate members.
+     */
+    private Set<Long> getMemberIds() {
+        if (memberIds == null) {
+            memberIds = new HashSet<>();
+            for (Photo photo : getPhotos()) {
+                memberIds.add(photo.getId());
+            }
+        }
+        return memberIds;
+    }
+
+    /**
+     * Finds a photo by identity, as equal URIs do not make the same member.
+     */
+    private int indexOfSame(Photo photo) {
+        List<Photo> photos = getPhotos();
+        for (int i = 0; i < photos.size(); i++) {
+            if (photos.get(i) == photo) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
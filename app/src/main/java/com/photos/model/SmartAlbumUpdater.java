@@ -0,0 +1,48 @@
+package com.photos.model;
+
+import java.util.List;
+
+/**
+ * Keeps smart album membership up to date.
+ * Each change only re-checks the photo it touched against each smart album's query.
+ */
+class SmartAlbumUpdater implements LibraryListener {
+
+    private final List<Album> albums;
+
+    SmartAlbumUpdater(List<Album> albums) {
+        this.albums = albums;
+    }
+
+    @Override
+    public void onPhotoAdded(Album album, Photo photo) {
+        update(photo);
+    }
+
+    @Override
+    public void onPhotoRemoved(Album album, Photo photo) {
+        for (Album candidate : albums) {
+            if (candidate.isSmart()) {
+                ((SmartAlbum) candidate).remove(photo);
+            }
+        }
+    }
+
+    @Override
+    public void onTagAdded(Album album, Photo photo, Tag tag) {
+        update(photo);
+    }
+
+    @Override
+    public void onTagRemoved(Album album, Photo photo, Tag tag) {
+        update(photo);
+    }
+
+    private void update(Photo photo) {
+        for (Album candidate : albums) {
+            if (candidate.isSmart()) {
+                ((SmartAlbum) candidate).update(photo);
+            }
+        }
+    }
+}
@@ -1,20 +1,30 @@
 package com.photos.model;
 
 import java.io.Serializable;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
 
 /**
  * Represents a tag with a name and value pair.
  * Tags are used to categorize and search photos.
- * Only "person" and "location" tag types are valid.
+ * "person" and "location" tags hold free text; "date", "rating" and "number" tags
+ * hold ordered values that can be searched by range.
  */
 public class Tag implements Serializable {
     private static final long serialVersionUID = 1L;
 
     public static final String TYPE_PERSON = "person";
     public static final String TYPE_LOCATION = "location";
+    public static final String TYPE_DATE = "date";
+    public static final String TYPE_RATING = "rating";
+    public static final String TYPE_NUMBER = "number";
+
+    /** Highest valid rating. */
+    public static final int MAX_RATING = 5;
 
     private String tagName;
     private String tagValue;
+    private long createdAt;
 
     /**
      * Constructs a new Tag with the specified name and value.
@@ -25,6 +35,16 @@ public class Tag implements Serializable {
     public Tag(String tagName, String tagValue) {
         this.tagName = tagName;
         this.tagValue = tagValue;
+        this.createdAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Gets the time this tag was created.
+     *
+     * @return The creation time in milliseconds since the epoch, or 0 for tags saved before it was recorded
+     */
+    public long getCreatedAt() {
+        return createdAt;
     }
 
     /**
@@ -63,6 +83,73 @@ public class Tag implements Serializable {
         this.tagValue = tagValue;
     }
 
+    /**
+     * Gets the value of a date, rating or number tag as a number.
+     *
+     * @return The numeric value, or NaN if this is not a valid range-type tag
+     */
+    public double getNumericValue() {
+        return parseValue(tagName, tagValue);
+    }
+
+    /**
+     * Checks if a tag type holds ordered values that can be searched by range.
+     *
+     * @param type The tag type
+     * @return true for date, rating and number tags
+     */
+    public static boolean isRangeType(String type) {
+        return TYPE_DATE.equalsIgnoreCase(type) || TYPE_RATING.equalsIgnoreCase(type)
+                || TYPE_NUMBER.equalsIgnoreCase(type);
+    }
+
+    /**
+     * Parses the value of a range-type tag.
+     * Dates are written as yyyy-MM-dd and become days since 1970-01-01;
+     * ratings are whole numbers from 0 to MAX_RATING.
+     *
+     * @param type  The tag type
+     * @param value The text value
+     * @return The numeric value, or NaN if the type is not a range type or the value is invalid
+     */
+    public static double parseValue(String type, String value) {
+        if (value == null) return Double.NaN;
+        String text = value.trim();
+        try {
+            if (TYPE_DATE.equalsIgnoreCase(type)) {
+                return LocalDate.parse(text).toEpochDay();
+            }
+            if (TYPE_RATING.equalsIgnoreCase(type)) {
+                int rating = Integer.parseInt(text);
+                return rating >= 0 && rating <= MAX_RATING ? rating : Double.NaN;
+            }
+            if (TYPE_NUMBER.equalsIgnoreCase(type)) {
+                double number = Double.parseDouble(text);
+                return Double.isInfinite(number) ? Double.NaN : number;
+            }
+        } catch (NumberFormatException | DateTimeParseException e) {
+            return Double.NaN;
+        }
+        return Double.NaN;
+    }
+
+    /**
+     * Formats a numeric value of a range-type tag the way it is written.
+     *
+     * @param type  The tag type
+     * @param value The numeric value
+     * @return The text value
+     */
+    public static String formatValue(String type, double value) {
+        if (TYPE_DATE.equalsIgnoreCase(type)) {
+            return LocalDate.ofEpochDay((long) value).toString();
+        }
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+
     /**
      * Checks if this tag matches the given criteria (case-insensitive prefix match).
      *
@@ -71,8 +158,9 @@ public class Tag implements Serializable {
      * @return true if this tag matches
      */
     public boolean matchesPrefix(String type, String valuePrefix) {
+        // regionMatches avoids creating lower-case copies for every tag checked
         return tagName.equalsIgnoreCase(type) &&
-                tagValue.toLowerCase().startsWith(valuePrefix.toLowerCase());
+                tagValue.regionMatches(true, 0, valuePrefix, 0, valuePrefix.length());
     }
 
     /**
@@ -0,0 +1,173 @@
+package com.photos.model;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counts how often two tags appear on the same photo.
+ * Updated from LibraryListener callbacks; adding or removing one tag only touches
+ * the pairs it forms with the other tags of that photo.
+ * Tags are compared case-insensitively.
+ */
+public class TagCooccurrence implements LibraryListener, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final Map<String, Map<String, Pair>> pairs = new HashMap<>();
+
+    /**
+     * Builds co-occurrence counts from every photo in the given albums.
+     *
+     * @param albums The albums to count
+     * @return The co-occurrence counts
+     */
+    public static TagCooccurrence build(List<Album> albums) {
+        TagCooccurrence cooccurrence = new TagCooccurrence();
+        for (Album album : albums) {
+            if (album.isSmart()) continue;
+            for (Photo photo : album.getPhotos()) {
+                cooccurrence.onPhotoAdded(album, photo);
+            }
+        }
+        return cooccurrence;
+    }
+
+    @Override
+    public void onPhotoAdded(Album album, Photo photo) {
+        List<Tag> tags = photo.getTags();
+        for (int i = 0; i < tags.size(); i++) {
+            for (int j = 0; j < i; j++) {
+                update(tags.get(i), tags.get(j), 1);
+            }
+        }
+    }
+
+    @Override
+    public void onPhotoRemoved(Album album, Photo photo) {
+        List<Tag> tags = photo.getTags();
+        for (int i = 0; i < tags.size(); i++) {
+            for (int j = 0; j < i; j++) {
+                update(tags.get(i), tags.get(j), -1);
+            }
+        }
+    }
+
+    @Override
+    public void onTagAdded(Album album, Photo photo, Tag tag) {
+        for (Tag other : photo.getTags()) {
+            if (!other.equals(tag)) {
+                update(tag, other, 1);
+            }
+        }
+    }
+
+    @Override
+    public void onTagRemoved(Album album, Photo photo, Tag tag) {
+        for (Tag other : photo.getTags()) {
+            if (!other.equals(tag)) {
+                update(tag, other, -1);
+            }
+        }
+    }
+
+    /**
+     * Gets the number of photos carrying both tags.
+     *
+     * @param tag   One tag
+     * @param other The other tag
+     * @return The photo count
+     */
+    public int getCount(Tag tag, Tag other) {
+        Pair pair = getPairs(tag).get(key(other));
+        return pair == null ? 0 : pair.count;
+    }
+
+    /**
+     * Gets the tags seen on the same photos as a tag, with their counts.
+     *
+     * @param tag The tag
+     * @return Unmodifiable map from co-occurring tag to photo count
+     */
+    public Map<String, Pair> getPairs(Tag tag) {
+        Map<String, Pair> related = pairs.get(key(tag));
+        return related == null ? Collections.emptyMap() : Collections.unmodifiableMap(related);
+    }
+
+    private void update(Tag a, Tag b, int delta) {
+        updateOneWay(a, b, delta);
+        updateOneWay(b, a, delta);
+    }
+
+    private void updateOneWay(Tag from, Tag to, int delta) {
+        String fromKey = key(from);
+        Map<String, Pair> related = pairs.get(fromKey);
+        if (related == null) {
+            if (delta < 0) return;
+            related = new HashMap<>();
+            pairs.put(fromKey, related);
+        }
+        String toKey = key(to);
+        Pair pair = related.get(toKey);
+        if (pair == null) {
+            if (delta < 0) return;
+            pair = new Pair(to.getTagName().toLowerCase(), to.getTagValue());
+            related.put(toKey, pair);
+        }
+        pair.count += delta;
+        if (pair.count <= 0) {
+            related.remove(toKey);
+            if (related.isEmpty()) {
+                pairs.remove(fromKey);
+            }
+        }
+    }
+
+    private static String key(Tag tag) {
+        return tag.getTagName().toLowerCase() + ":" + tag.getTagValue().toLowerCase();
+    }
+
+    /**
+     * A tag seen together with another tag, and the number of photos carrying both.
+     */
+    public static class Pair implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String type;
+        private final String value;
+        private int count;
+
+        Pair(String type, String value) {
+            this.type = type;
+            this.value = value;
+        }
+
+        /**
+         * Gets the lower-case tag type.
+         *
+         * @return The tag type
+         */
+        public String getType() {
+            return type;
+        }
+
+        /**
+         * Gets the tag value as first seen together with the other tag.
+         *
+         * @return The tag value
+         */
+        public String getValue() {
+            return value;
+        }
+
+        /**
+         * Gets the number of photos carrying both tags.
+         *
+         * @return The photo count
+         */
+        public int getCount() {
+            return count;
+        }
+    }
+}
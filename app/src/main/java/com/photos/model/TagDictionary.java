@@ -0,0 +1,366 @@
+package com.photos.model;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dictionary of the distinct tag values in the library, per tag type.
+ * Values are keyed by their lower-case form and remember how many photos carry them.
+ * Fuzzy lookups are answered from a BK-tree and substring lookups from a
+ * trigram index, both built on first use.
+ * Kept up to date from LibraryListener callbacks, so a lookup after an edit only
+ * touches the matching values. A value no photo carries any more leaves the trigram
+ * index at once; BK-trees cannot drop nodes, so its node is skipped by lookups
+ * until stale nodes outnumber live values and the tree is rebuilt.
+ */
+public class TagDictionary implements LibraryListener, Serializable {
+    private static final long serialVersionUID = 2L;
+
+    private final Map<String, Map<String, Entry>> valuesByType = new HashMap<>();
+    // Trees are added by fuzzy lookups, which may run while DataManager saves the indexes
+    private final Map<String, BKTree> bkTrees = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, Set<String>>> trigramIndexes = new HashMap<>();
+
+    /**
+     * Builds a dictionary from every photo in the given albums.
+     *
+     * @param albums The albums to index
+     * @return The dictionary
+     */
+    public static TagDictionary build(List<Album> albums) {
+        TagDictionary dictionary = new TagDictionary();
+        for (Album album : albums) {
+            if (album.isSmart()) continue;
+            for (Photo photo : album.getPhotos()) {
+                dictionary.onPhotoAdded(album, photo);
+            }
+        }
+        return dictionary;
+    }
+
+    /**
+     * Records one more photo carrying the given tag value.
+     *
+     * @param tagType The tag type
+     * @param value   The tag value
+     */
+    public void add(String tagType, String value) {
+        String type = tagType.toLowerCase();
+        Map<String, Entry> values = valuesByType.get(type);
+        if (values == null) {
+            values = new HashMap<>();
+            valuesByType.put(type, values);
+        }
+        String key = value.toLowerCase();
+        Entry entry = values.get(key);
+        if (entry == null) {
+            entry = new Entry(value);
+            values.put(key, entry);
+            BKTree tree = bkTrees.get(type);
+            if (tree != null) {
+                tree.add(key);
+            }
+            Map<String, Set<String>> trigrams = trigramIndexes.get(type);
+            if (trigrams != null) {
+                addTrigrams(trigrams, key);
+            }
+        }
+        entry.count++;
+    }
+
+    /**
+     * Records one photo fewer carrying the given tag value.
+     * The value is dropped once no photo carries it.
+     *
+     * @param tagType The tag type
+     * @param value   The tag value
+     */
+    public void remove(String tagType, String value) {
+        String type = tagType.toLowerCase();
+        Map<String, Entry> values = valuesByType.get(type);
+        if (values == null) return;
+        String key = value.toLowerCase();
+        Entry entry = values.get(key);
+        if (entry == null) return;
+        entry.count--;
+        if (entry.count > 0) return;
+
+        values.remove(key);
+        Map<String, Set<String>> trigrams = trigramIndexes.get(type);
+        if (trigrams != null) {
+            removeTrigrams(trigrams, key);
+        }
+        BKTree tree = bkTrees.get(type);
+        if (tree != null && tree.size() > 2 * values.size()) {
+            // Mostly stale; rebuilt from the live values on the next fuzzy lookup
+            bkTrees.remove(type);
+        }
+    }
+
+    @Override
+    public void onPhotoAdded(Album album, Photo photo) {
+        for (Tag tag : photo.getTags()) {
+            add(tag.getTagName(), tag.getTagValue());
+        }
+    }
+
+    @Override
+    public void onPhotoRemoved(Album album, Photo photo) {
+        for (Tag tag : photo.getTags()) {
+            remove(tag.getTagName(), tag.getTagValue());
+        }
+    }
+
+    @Override
+    public void onTagAdded(Album album, Photo photo, Tag tag) {
+        add(tag.getTagName(), tag.getTagValue());
+    }
+
+    @Override
+    public void onTagRemoved(Album album, Photo photo, Tag tag) {
+        remove(tag.getTagName(), tag.getTagValue());
+    }
+
+    /**
+     * Gets all values of a tag type.
+     *
+     * @param tagType The tag type
+     * @return The dictionary entries for that type
+     */
+    public Collection<Entry> getEntries(String tagType) {
+        Map<String, Entry> values = valuesByType.get(tagType.toLowerCase());
+        return values == null ? Collections.emptyList() : values.values();
+    }
+
+    /**
+     * Gets the entry for a tag value (case-insensitive).
+     *
+     * @param tagType The tag type
+     * @param value   The tag value
+     * @return The entry, or null if no photo carries this value
+     */
+    public Entry get(String tagType, String value) {
+        Map<String, Entry> values = valuesByType.get(tagType.toLowerCase());
+        return values == null ? null : values.get(value.toLowerCase());
+    }
+
+    /**
+     * Finds values within a small edit distance of the query,
+     * ranked by distance and then by the number of photos carrying them.
+     *
+     * @param tagType The tag type
+     * @param query   The value to look for
+     * @return List of matching entries, best first
+     */
+    public List<Entry> findSimilar(String tagType, String query) {
+        String type = tagType.toLowerCase();
+        Map<String, Entry> values = valuesByType.get(type);
+        List<Entry> results = new ArrayList<>();
+        if (values == null) {
+            return results;
+        }
+
+        BKTree tree = bkTrees.get(type);
+        if (tree == null) {
+            tree = new BKTree();
+            for (String key : values.keySet()) {
+                tree.add(key);
+            }
+            bkTrees.put(type, tree);
+        }
+
+        String key = query.toLowerCase();
+        List<BKTree.Match> matches = tree.search(key, maxEditsFor(key));
+        Map<Entry, Integer> distances = new HashMap<>();
+        for (BKTree.Match match : matches) {
+            Entry entry = values.get(match.value);
+            // Values no photo carries any more stay in the tree until it is rebuilt
+            if (entry == null) continue;
+            results.add(entry);
+            distances.put(entry, match.distance);
+        }
+        results.sort((a, b) -> {
+            int byDistance = Integer.compare(distances.get(a), distances.get(b));
+            if (byDistance != 0) return byDistance;
+            int byCount = Integer.compare(b.count, a.count);
+            if (byCount != 0) return byCount;
+            return a.value.compareToIgnoreCase(b.value);
+        });
+        return results;
+    }
+
+    /**
+     * Gets the lower-case values within a small edit distance of the query.
+     *
+     * @param tagType The tag type
+     * @param query   The value to look for
+     * @return Set of lower-case tag values
+     */
+    public Set<String> findSimilarKeys(String tagType, String query) {
+        Set<String> keys = new HashSet<>();
+        for (Entry entry : findSimilar(tagType, query)) {
+            keys.add(entry.value.toLowerCase());
+        }
+        return keys;
+    }
+
+    /**
+     * Finds values containing the query anywhere, case-insensitive.
+     * Values starting with the query come first, then values carried by more photos.
+     * Queries of three or more characters only verify the values sharing all of
+     * their trigrams; shorter queries check every distinct value of the type.
+     *
+     * @param tagType The tag type
+     * @param query   The text to look for
+     * @return List of matching entries, best first
+     */
+    public List<Entry> findContaining(String tagType, String query) {
+        String type = tagType.toLowerCase();
+        Map<String, Entry> values = valuesByType.get(type);
+        List<Entry> results = new ArrayList<>();
+        if (values == null) {
+            return results;
+        }
+
+        String key = query.toLowerCase();
+        Collection<String> candidates = values.keySet();
+        if (key.length() >= 3) {
+            Map<String, Set<String>> trigrams = trigramIndexes.get(type);
+            if (trigrams == null) {
+                trigrams = new HashMap<>();
+                for (String value : values.keySet()) {
+                    addTrigrams(trigrams, value);
+                }
+                trigramIndexes.put(type, trigrams);
+            }
+            candidates = rarestPostings(trigrams, key);
+        }
+
+        for (String candidate : candidates) {
+            if (candidate.contains(key)) {
+                results.add(values.get(candidate));
+            }
+        }
+        results.sort((a, b) -> {
+            boolean aPrefix = a.value.toLowerCase().startsWith(key);
+            boolean bPrefix = b.value.toLowerCase().startsWith(key);
+            if (aPrefix != bPrefix) return aPrefix ? -1 : 1;
+            int byCount = Integer.compare(b.count, a.count);
+            if (byCount != 0) return byCount;
+            return a.value.compareToIgnoreCase(b.value);
+        });
+        return results;
+    }
+
+    /**
+     * Gets the lower-case values containing the query.
+     *
+     * @param tagType The tag type
+     * @param query   The text to look for
+     * @return Set of lower-case tag values
+     */
+    public Set<String> findContainingKeys(String tagType, String query) {
+        Set<String> keys = new HashSet<>();
+        for (Entry entry : findContaining(tagType, query)) {
+            keys.add(entry.value.toLowerCase());
+        }
+        return keys;
+    }
+
+    private static void addTrigrams(Map<String, Set<String>> trigrams, String key) {
+        for (int i = 0; i + 3 <= key.length(); i++) {
+            String trigram = key.substring(i, i + 3);
+            Set<String> postings = trigrams.get(trigram);
+            if (postings == null) {
+                postings = new HashSet<>();
+                trigrams.put(trigram, postings);
+            }
+            postings.add(key);
+        }
+    }
+
+    private static void removeTrigrams(Map<String, Set<String>> trigrams, String key) {
+        for (int i = 0; i + 3 <= key.length(); i++) {
+            String trigram = key.substring(i, i + 3);
+            Set<String> postings = trigrams.get(trigram);
+            if (postings != null) {
+                postings.remove(key);
+                if (postings.isEmpty()) {
+                    trigrams.remove(trigram);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the values sharing every trigram of the query, starting from the
+     * smallest posting set so the intersection stays small.
+     */
+    private static Collection<String> rarestPostings(Map<String, Set<String>> trigrams, String key) {
+        List<Set<String>> postings = new ArrayList<>();
+        for (int i = 0; i + 3 <= key.length(); i++) {
+            Set<String> set = trigrams.get(key.substring(i, i + 3));
+            if (set == null) {
+                return Collections.emptyList();
+            }
+            postings.add(set);
+        }
+        postings.sort((a, b) -> Integer.compare(a.size(), b.size()));
+        Set<String> candidates = new HashSet<>(postings.get(0));
+        for (int i = 1; i < postings.size() && !candidates.isEmpty(); i++) {
+            candidates.retainAll(postings.get(i));
+        }
+        return candidates;
+    }
+
+    /**
+     * Gets the edit distance tolerated for a query.
+     * Short values allow one typo, longer ones two.
+     *
+     * @param query The query
+     * @return The maximum edit distance
+     */
+    public static int maxEditsFor(String query) {
+        return query.length() <= 3 ? 1 : 2;
+    }
+
+    /**
+     * A distinct tag value and the number of photos carrying it.
+     */
+    public static class Entry implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String value;
+        private int count;
+
+        Entry(String value) {
+            this.value = value;
+        }
+
+        /**
+         * Gets the tag value as first seen in the library.
+         *
+         * @return The tag value
+         */
+        public String getValue() {
+            return value;
+        }
+
+        /**
+         * Gets the number of photos carrying this value.
+         *
+         * @return The photo count
+         */
+        public int getCount() {
+            return count;
+        }
+    }
+}
@@ -0,0 +1,367 @@
+package com.photos.model;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Counts how many photos carry each tag value, for the whole library and per album.
+ * Counts are updated from LibraryListener callbacks, so reading them never scans photos.
+ * Values are compared case-insensitively.
+ */
+public class TagFacets implements LibraryListener, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private static final Comparator<Facet> BY_COUNT = (a, b) -> {
+        int byCount = Integer.compare(b.count, a.count);
+        if (byCount != 0) return byCount;
+        return a.key.compareTo(b.key);
+    };
+
+    private final Map<String, TypeFacets> types = new HashMap<>();
+    private final Map<Long, Map<String, Facet>> albumFacets = new HashMap<>();
+
+    /**
+     * Builds facet counts from every photo in the given albums.
+     *
+     * @param albums The albums to count
+     * @return The facet counts
+     */
+    public static TagFacets build(List<Album> albums) {
+        TagFacets facets = new TagFacets();
+        for (Album album : albums) {
+            if (album.isSmart()) continue;
+            for (Photo photo : album.getPhotos()) {
+                facets.onPhotoAdded(album, photo);
+            }
+        }
+        return facets;
+    }
+
+    @Override
+    public void onPhotoAdded(Album album, Photo photo) {
+        List<Tag> tags = photo.getTags();
+        for (int i = 0; i < tags.size(); i++) {
+            // Count each tag as if the photo only had the tags before it
+            add(album, tags.subList(0, i), tags.get(i));
+        }
+    }
+
+    @Override
+    public void onPhotoRemoved(Album album, Photo photo) {
+        List<Tag> tags = photo.getTags();
+        for (int i = tags.size() - 1; i >= 0; i--) {
+            remove(album, tags.subList(0, i), tags.get(i));
+        }
+    }
+
+    @Override
+    public void onTagAdded(Album album, Photo photo, Tag tag) {
+        add(album, otherTags(photo, tag), tag);
+    }
+
+    @Override
+    public void onTagRemoved(Album album, Photo photo, Tag tag) {
+        remove(album, otherTags(photo, tag), tag);
+    }
+
+    /**
+     * Gets the number of photos carrying a tag value.
+     *
+     * @param tagType The tag type
+     * @param value   The tag value (case-insensitive)
+     * @return The photo count
+     */
+    public int getCount(String tagType, String value) {
+        TypeFacets facets = types.get(tagType.toLowerCase());
+        if (facets == null) return 0;
+        Facet facet = facets.values.get(value.toLowerCase());
+        return facet == null ? 0 : facet.count;
+    }
+
+    /**
+     * Gets the number of photos carrying at least one value with the given prefix.
+     * Takes time proportional to the prefix length.
+     *
+     * @param tagType The tag type
+     * @param prefix  The value prefix (case-insensitive)
+     * @return The photo count
+     */
+    public int getCountWithPrefix(String tagType, String prefix) {
+        TypeFacets facets = types.get(tagType.toLowerCase());
+        if (facets == null) return 0;
+        PrefixNode node = facets.root;
+        String key = prefix.toLowerCase();
+        for (int i = 0; i < key.length() && node != null; i++) {
+            node = node.children.get(key.charAt(i));
+        }
+        return node == null ? 0 : node.photoCount;
+    }
+
+    /**
+     * Gets the values carried by the most photos.
+     *
+     * @param tagType The tag type
+     * @param n       The maximum number of values to return
+     * @return Up to n facets, most frequent first
+     */
+    public List<Facet> getTopValues(String tagType, int n) {
+        List<Facet> top = new ArrayList<>();
+        TypeFacets facets = types.get(tagType.toLowerCase());
+        if (facets == null) return top;
+        Iterator<Facet> it = facets.ranked.iterator();
+        while (it.hasNext() && top.size() < n) {
+            top.add(it.next());
+        }
+        return top;
+    }
+
+    /**
+     * Gets the distinct values of a tag type starting with a prefix, in alphabetical order.
+     *
+     * @param tagType The tag type
+     * @param prefix  The value prefix (case-insensitive)
+     * @return List of tag values
+     */
+    public List<String> getValuesWithPrefix(String tagType, String prefix) {
+        List<String> matches = new ArrayList<>();
+        TypeFacets facets = types.get(tagType.toLowerCase());
+        if (facets == null) return matches;
+        String key = prefix.toLowerCase();
+        for (Facet facet : facets.values.tailMap(key).values()) {
+            if (!facet.key.startsWith(key)) break;
+            matches.add(facet.value);
+        }
+        return matches;
+    }
+
+    /**
+     * Gets the number of photos in an album carrying a tag value.
+     *
+     * @param albumId The album ID
+     * @param tagType The tag type
+     * @param value   The tag value (case-insensitive)
+     * @return The photo count
+     */
+    public int getAlbumCount(long albumId, String tagType, String value) {
+        Map<String, Facet> facets = albumFacets.get(albumId);
+        if (facets == null) return 0;
+        Facet facet = facets.get(albumKey(tagType, value));
+        return facet == null ? 0 : facet.count;
+    }
+
+    /**
+     * Gets the values carried by the most photos in an album.
+     *
+     * @param albumId The album ID
+     * @param tagType The tag type
+     * @param n       The maximum number of values to return
+     * @return Up to n facets, most frequent first
+     */
+    public List<Facet> getAlbumTopValues(long albumId, String tagType, int n) {
+        List<Facet> top = new ArrayList<>();
+        Map<String, Facet> facets = albumFacets.get(albumId);
+        if (facets == null) return top;
+        for (Facet facet : facets.values()) {
+            if (facet.type.equals(tagType.toLowerCase())) {
+                top.add(facet);
+            }
+        }
+        top.sort(BY_COUNT);
+        return top.size() > n ? top.subList(0, n) : top;
+    }
+
+    private void add(Album album, List<Tag> otherTags, Tag tag) {
+        String type = tag.getTagName().toLowerCase();
+        String key = tag.getTagValue().toLowerCase();
+
+        TypeFacets facets = types.get(type);
+        if (facets == null) {
+            facets = new TypeFacets();
+            types.put(type, facets);
+        }
+        Facet facet = facets.values.get(key);
+        if (facet == null) {
+            facet = new Facet(type, key, tag.getTagValue());
+            facets.values.put(key, facet);
+        } else {
+            facets.ranked.remove(facet);
+        }
+        facet.count++;
+        facets.ranked.add(facet);
+
+        // The photo is new to every prefix longer than those it already shares with its other values
+        int shared = longestSharedPrefix(otherTags, type, key);
+        PrefixNode node = facets.root;
+        for (int i = 0; i <= key.length(); i++) {
+            if (i > shared) {
+                node.photoCount++;
+            }
+            if (i < key.length()) {
+                PrefixNode child = node.children.get(key.charAt(i));
+                if (child == null) {
+                    child = new PrefixNode();
+                    node.children.put(key.charAt(i), child);
+                }
+                node = child;
+            }
+        }
+
+        Map<String, Facet> inAlbum = albumFacets.get(album.getId());
+        if (inAlbum == null) {
+            inAlbum = new HashMap<>();
+            albumFacets.put(album.getId(), inAlbum);
+        }
+        String albumKey = albumKey(type, key);
+        Facet albumFacet = inAlbum.get(albumKey);
+        if (albumFacet == null) {
+            albumFacet = new Facet(type, key, tag.getTagValue());
+            inAlbum.put(albumKey, albumFacet);
+        }
+        albumFacet.count++;
+    }
+
+    private void remove(Album album, List<Tag> otherTags, Tag tag) {
+        String type = tag.getTagName().toLowerCase();
+        String key = tag.getTagValue().toLowerCase();
+
+        TypeFacets facets = types.get(type);
+        if (facets == null) return;
+        Facet facet = facets.values.get(key);
+        if (facet == null) return;
+        facets.ranked.remove(facet);
+        if (--facet.count == 0) {
+            facets.values.remove(key);
+        } else {
+            facets.ranked.add(facet);
+        }
+
+        int shared = longestSharedPrefix(otherTags, type, key);
+        PrefixNode node = facets.root;
+        for (int i = 0; i <= key.length() && node != null; i++) {
+            if (i > shared) {
+                node.photoCount--;
+            }
+            if (i < key.length()) {
+                PrefixNode child = node.children.get(key.charAt(i));
+                if (child != null && child.photoCount <= 1 && i + 1 > shared) {
+                    // No photo is left under this branch
+                    node.children.remove(key.charAt(i));
+                    break;
+                }
+                node = child;
+            }
+        }
+
+        Map<String, Facet> inAlbum = albumFacets.get(album.getId());
+        if (inAlbum == null) return;
+        String albumKey = albumKey(type, key);
+        Facet albumFacet = inAlbum.get(albumKey);
+        if (albumFacet != null && --albumFacet.count == 0) {
+            inAlbum.remove(albumKey);
+            if (inAlbum.isEmpty()) {
+                albumFacets.remove(album.getId());
+            }
+        }
+    }
+
+    /**
+     * Gets the length of the longest prefix of key shared with another value of the same type,
+     * or -1 if the photo has no other value of that type.
+     */
+    private static int longestSharedPrefix(List<Tag> otherTags, String type, String key) {
+        int longest = -1;
+        for (Tag other : otherTags) {
+            if (!other.getTagName().equalsIgnoreCase(type)) continue;
+            String otherKey = other.getTagValue().toLowerCase();
+            int length = 0;
+            int max = Math.min(otherKey.length(), key.length());
+            while (length < max && otherKey.charAt(length) == key.charAt(length)) {
+                length++;
+            }
+            longest = Math.max(longest, length);
+        }
+        return longest;
+    }
+
+    private static List<Tag> otherTags(Photo photo, Tag tag) {
+        List<Tag> others = new ArrayList<>(photo.getTags());
+        others.remove(tag);
+        return others.isEmpty() ? Collections.emptyList() : others;
+    }
+
+    private static String albumKey(String tagType, String value) {
+        return tagType.toLowerCase() + ":" + value.toLowerCase();
+    }
+
+    /**
+     * A tag value and the number of photos carrying it.
+     */
+    public static class Facet implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String type;
+        private final String key;
+        private final String value;
+        private int count;
+
+        Facet(String type, String key, String value) {
+            this.type = type;
+            this.key = key;
+            this.value = value;
+        }
+
+        /**
+         * Gets the tag value as first seen in the library.
+         *
+         * @return The tag value
+         */
+        public String getValue() {
+            return value;
+        }
+
+        /**
+         * Gets the number of photos carrying this value.
+         *
+         * @return The photo count
+         */
+        public int getCount() {
+            return count;
+        }
+    }
+
+    /**
+     * Facets of one tag type: values in alphabetical and in count order,
+     * and a prefix tree counting the photos below each prefix.
+     */
+    private static class TypeFacets implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final TreeMap<String, Facet> values = new TreeMap<>();
+        transient TreeSet<Facet> ranked = new TreeSet<>(BY_COUNT);
+        final PrefixNode root = new PrefixNode();
+
+        private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+            in.defaultReadObject();
+            // The comparator is a lambda and cannot be serialized, so the ranking is rebuilt
+            ranked = new TreeSet<>(BY_COUNT);
+            ranked.addAll(values.values());
+        }
+    }
+
+    private static class PrefixNode implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final Map<Character, PrefixNode> children = new HashMap<>();
+        int photoCount;
+    }
+}
@@ -0,0 +1,208 @@
+package com.photos.model;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Compact summary of the tag values used in one album.
+ * Holds a Bloom filter over the lower-case values and their leading prefixes, and
+ * a sorted set of short value prefixes per tag type. It can answer "no photo in this
+ * album can match" without looking at the photos; it never rules out an album that
+ * does contain a match.
+ * Tags can be added incrementally; removals need a rebuild since Bloom filters
+ * cannot forget values.
+ */
+public class TagSketch implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /** Length of the prefixes kept in the sorted per-type lists. */
+    static final int SHORT_PREFIX_LENGTH = 2;
+    /** Longest value prefix added to the Bloom filter. */
+    static final int MAX_BLOOM_PREFIX = 12;
+
+    private static final int HASHES = 4;
+    private static final int MIN_BITS = 512;
+    private static final int BITS_PER_ITEM = 10;
+
+    private final long[] bits;
+    private final int capacity;
+    // Distinct entries added to the Bloom filter, give or take false positives
+    private int items;
+    private final Map<String, TreeSet<String>> shortPrefixes = new HashMap<>();
+
+    private TagSketch(int expectedItems) {
+        int size = MIN_BITS;
+        while (size < expectedItems * BITS_PER_ITEM) {
+            size <<= 1;
+        }
+        bits = new long[size / 64];
+        capacity = size / BITS_PER_ITEM;
+    }
+
+    /**
+     * Builds a sketch from the tags of every photo in an album.
+     * The filter is sized by the distinct tags, so a value on many photos counts once.
+     *
+     * @param album The album to summarize
+     * @return The sketch
+     */
+    public static TagSketch build(Album album) {
+        Set<String> keys = new HashSet<>();
+        int expected = 0;
+        for (Photo photo : album.getPhotos()) {
+            for (Tag tag : photo.getTags()) {
+                String key = tag.getTagValue().toLowerCase();
+                if (keys.add(tag.getTagName().toLowerCase() + ":" + key)) {
+                    expected += Math.min(key.length(), MAX_BLOOM_PREFIX) + 1;
+                }
+            }
+        }
+        // Leave room for tags added later before a rebuild is needed
+        TagSketch sketch = new TagSketch(expected * 2);
+        for (Photo photo : album.getPhotos()) {
+            for (Tag tag : photo.getTags()) {
+                sketch.add(tag);
+            }
+        }
+        return sketch;
+    }
+
+    /**
+     * Records a tag used in the album.
+     *
+     * @param tag The tag to add
+     */
+    public void add(Tag tag) {
+        String type = tag.getTagName().toLowerCase();
+        String key = tag.getTagValue().toLowerCase();
+
+        TreeSet<String> prefixes = shortPrefixes.get(type);
+        if (prefixes == null) {
+            prefixes = new TreeSet<>();
+            shortPrefixes.put(type, prefixes);
+        }
+        prefixes.add(key.length() > SHORT_PREFIX_LENGTH ? key.substring(0, SHORT_PREFIX_LENGTH) : key);
+
+        addToBloom("=" + type + ":" + key);
+        for (int length = SHORT_PREFIX_LENGTH + 1; length <= Math.min(key.length(), MAX_BLOOM_PREFIX); length++) {
+            addToBloom(type + ":" + key.substring(0, length));
+        }
+    }
+
+    /**
+     * Checks if the Bloom filter holds more distinct entries than it was built for,
+     * so that a rebuild would noticeably lower its false positive rate.
+     *
+     * @return true if the sketch should be rebuilt
+     */
+    public boolean isOverfull() {
+        return items > capacity;
+    }
+
+    /**
+     * Checks if any photo in the album might match a query.
+     *
+     * @param query The resolved query
+     * @return false only if no photo in the album can match
+     */
+    public boolean mightMatch(SearchQuery query) {
+        if (query.isDisjunction()) {
+            for (SearchQuery.Term term : query.getTerms()) {
+                if (mightMatch(term)) return true;
+            }
+            return false;
+        }
+        for (SearchQuery.Term term : query.getTerms()) {
+            if (!mightMatch(term)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Checks if any photo in the album might match a single term.
+     *
+     * @param term The resolved term
+     * @return false only if no photo in the album can match
+     */
+    public boolean mightMatch(SearchQuery.Term term) {
+        String type = term.getTagType().toLowerCase();
+        TreeSet<String> prefixes = shortPrefixes.get(type);
+        if (prefixes == null) {
+            return false;
+        }
+
+        Set<String> values = term.getResolvedValues();
+        if (values != null) {
+            for (String value : values) {
+                if (mightContain("=" + type + ":" + value)) return true;
+            }
+            return false;
+        }
+        if (term.getMode() != MatchMode.PREFIX) {
+            // Unresolved fuzzy and substring terms cannot be checked against prefixes
+            return true;
+        }
+
+        String key = term.getValue().toLowerCase();
+        if (key.length() <= SHORT_PREFIX_LENGTH) {
+            String candidate = prefixes.ceiling(key);
+            return candidate != null && candidate.startsWith(key);
+        }
+        if (!prefixes.contains(key.substring(0, SHORT_PREFIX_LENGTH))) {
+            return false;
+        }
+        return mightContain(type + ":" + key.substring(0, Math.min(key.length(), MAX_BLOOM_PREFIX)));
+    }
+
+    /**
+     * Adds an entry to the Bloom filter, counting it only if it sets a new bit,
+     * so values repeated across photos do not fill the filter.
+     */
+    private void addToBloom(String item) {
+        int h1 = item.hashCode();
+        int h2 = secondHash(item);
+        int size = bits.length * 64;
+        boolean added = false;
+        for (int i = 0; i < HASHES; i++) {
+            int index = Math.floorMod(h1 + i * h2, size);
+            long mask = 1L << index;
+            if ((bits[index >>> 6] & mask) == 0) {
+                bits[index >>> 6] |= mask;
+                added = true;
+            }
+        }
+        if (added) {
+            items++;
+        }
+    }
+
+    private boolean mightContain(String item) {
+        int h1 = item.hashCode();
+        int h2 = secondHash(item);
+        int size = bits.length * 64;
+        for (int i = 0; i < HASHES; i++) {
+            int index = Math.floorMod(h1 + i * h2, size);
+            if ((bits[index >>> 6] & (1L << index)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * FNV-1a hash, independent of String.hashCode, for double hashing.
+     * Forced odd so that successive probes do not repeat within the power-of-two table.
+     */
+    private static int secondHash(String item) {
+        int hash = 0x811c9dc5;
+        for (int i = 0; i < item.length(); i++) {
+            hash ^= item.charAt(i);
+            hash *= 0x01000193;
+        }
+        return hash | 1;
+    }
+}
@@ -0,0 +1,31 @@
+package com.photos.model;
+
+/**
+ * Keeps each album's tag sketch up to date.
+ * New tags are added to the sketch directly; removals mark it for a rebuild
+ * the next time it is needed.
+ */
+class TagSketchUpdater implements LibraryListener {
+
+    @Override
+    public void onPhotoAdded(Album album, Photo photo) {
+        for (Tag tag : photo.getTags()) {
+            album.recordTag(tag);
+        }
+    }
+
+    @Override
+    public void onPhotoRemoved(Album album, Photo photo) {
+        album.invalidateTagSketch();
+    }
+
+    @Override
+    public void onTagAdded(Album album, Photo photo, Tag tag) {
+        album.recordTag(tag);
+    }
+
+    @Override
+    public void onTagRemoved(Album album, Photo photo, Tag tag) {
+        album.invalidateTagSketch();
+    }
+}
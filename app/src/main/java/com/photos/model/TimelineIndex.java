@@ -0,0 +1,358 @@
+package com.photos.model;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Index of every photo in the library ordered by capture time, newest first,
+ * backing the "All Photos" timeline.
+ * A photo added to several albums is listed once, under the first copy added.
+ * Positions are kept in sorted parallel arrays so the timeline can be read by
+ * position without building a list, and the photos of a month or day are found
+ * with a binary search. Photos whose capture time is unknown come last.
+ */
+public class TimelineIndex implements LibraryListener, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /** Day of the bucket holding photos whose capture time is unknown. */
+    public static final long UNKNOWN_DAY = Long.MIN_VALUE;
+
+    private static final long UNKNOWN_TIME = Long.MIN_VALUE;
+
+    private long[] times = new long[16];
+    private long[] photoIds = new long[16];
+    private int size;
+    private final Map<String, UriEntry> entriesByUri = new HashMap<>();
+
+    // Day buckets, computed on first use after a change
+    private transient boolean bucketsStale = true;
+    private transient long[] bucketDays;
+    private transient int[] bucketStarts;
+    private transient int bucketCount;
+
+    /**
+     * Builds the index from every photo in the given albums.
+     * The entries are sorted once instead of being inserted one by one.
+     *
+     * @param albums The albums to index
+     * @return The index
+     */
+    public static TimelineIndex build(List<Album> albums) {
+        TimelineIndex index = new TimelineIndex();
+        for (Album album : albums) {
+            if (album.isSmart()) continue;
+            for (Photo photo : album.getPhotos()) {
+                UriEntry entry = index.entriesByUri.get(photo.getUriString());
+                if (entry == null) {
+                    entry = new UriEntry(UNKNOWN_TIME);
+                    index.entriesByUri.put(photo.getUriString(), entry);
+                }
+                entry.photoIds.add(photo.getId());
+                if (entry.time == UNKNOWN_TIME) {
+                    entry.time = timeOf(photo);
+                }
+            }
+        }
+        List<long[]> listed = new ArrayList<>(index.entriesByUri.size());
+        for (UriEntry entry : index.entriesByUri.values()) {
+            listed.add(new long[]{entry.time, entry.photoIds.get(0)});
+        }
+        listed.sort(TimelineIndex::compareEntries);
+        index.ensureCapacity(listed.size());
+        for (long[] entry : listed) {
+            index.times[index.size] = entry[0];
+            index.photoIds[index.size] = entry[1];
+            index.size++;
+        }
+        return index;
+    }
+
+    @Override
+    public void onPhotoAdded(Album album, Photo photo) {
+        UriEntry entry = entriesByUri.get(photo.getUriString());
+        if (entry == null) {
+            entry = new UriEntry(timeOf(photo));
+            entriesByUri.put(photo.getUriString(), entry);
+            insert(entry.time, photo.getId());
+        }
+        entry.photoIds.add(photo.getId());
+        update(photo);
+    }
+
+    @Override
+    public void onPhotoRemoved(Album album, Photo photo) {
+        UriEntry entry = entriesByUri.get(photo.getUriString());
+        if (entry == null) return;
+        int copy = entry.photoIds.indexOf(photo.getId());
+        if (copy < 0) return;
+        entry.photoIds.remove(copy);
+        if (copy == 0) {
+            // The listed copy is gone: list the next one, or drop the image
+            remove(entry.time, photo.getId());
+            if (entry.photoIds.isEmpty()) {
+                entriesByUri.remove(photo.getUriString());
+            } else {
+                insert(entry.time, entry.photoIds.get(0));
+            }
+        }
+    }
+
+    @Override
+    public void onTagAdded(Album album, Photo photo, Tag tag) {
+    }
+
+    @Override
+    public void onTagRemoved(Album album, Photo photo, Tag tag) {
+    }
+
+    /**
+     * Moves a photo to its capture time once known, after its metadata was read.
+     * Every copy of an image has the same capture time, so the time read from
+     * any copy places the listed one.
+     *
+     * @param photo The photo
+     */
+    public void update(Photo photo) {
+        UriEntry entry = entriesByUri.get(photo.getUriString());
+        long time = timeOf(photo);
+        if (entry == null || time == UNKNOWN_TIME || entry.time == time
+                || !entry.photoIds.contains(photo.getId())) return;
+        long listedId = entry.photoIds.get(0);
+        remove(entry.time, listedId);
+        entry.time = time;
+        insert(time, listedId);
+    }
+
+    /**
+     * Gets the number of photos on the timeline, counting each image once.
+     *
+     * @return The photo count
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the photo at a timeline position.
+     *
+     * @param position The position, 0 being the newest photo
+     * @return The photo ID
+     */
+    public long getPhotoId(int position) {
+        return photoIds[position];
+    }
+
+    /**
+     * Gets the position of the newest photo taken in or before a month.
+     *
+     * @param month The month
+     * @param zone  The time zone the month is in
+     * @return The position, or size() if every photo is newer
+     */
+    public int positionOfMonth(YearMonth month, ZoneId zone) {
+        long end = month.plusMonths(1).atDay(1).atStartOfDay(zone).toInstant().toEpochMilli();
+        return firstOlderThan(end);
+    }
+
+    /**
+     * Gets the number of day buckets on the timeline.
+     *
+     * @return The bucket count
+     */
+    public int getBucketCount() {
+        computeBuckets();
+        return bucketCount;
+    }
+
+    /**
+     * Gets the day of a bucket in the system time zone.
+     *
+     * @param bucket The bucket
+     * @return The epoch day, or UNKNOWN_DAY for photos without a capture time
+     */
+    public long getBucketDay(int bucket) {
+        computeBuckets();
+        return bucketDays[bucket];
+    }
+
+    /**
+     * Gets the position of the first photo of a bucket.
+     *
+     * @param bucket The bucket
+     * @return The timeline position
+     */
+    public int getBucketStart(int bucket) {
+        computeBuckets();
+        return bucketStarts[bucket];
+    }
+
+    /**
+     * Gets the number of photos in a bucket.
+     *
+     * @param bucket The bucket
+     * @return The photo count
+     */
+    public int getBucketSize(int bucket) {
+        computeBuckets();
+        int end = bucket + 1 < bucketCount ? bucketStarts[bucket + 1] : size;
+        return end - bucketStarts[bucket];
+    }
+
+    /**
+     * Gets the bucket containing a timeline position.
+     *
+     * @param position The position
+     * @return The bucket
+     */
+    public int findBucket(int position) {
+        computeBuckets();
+        int low = 0;
+        int high = bucketCount - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (bucketStarts[middle] <= position) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Splits the timeline into days, one binary search per day rather than
+     * one date conversion per photo.
+     */
+    private void computeBuckets() {
+        if (!bucketsStale) return;
+        ZoneId zone = ZoneId.systemDefault();
+        List<long[]> buckets = new ArrayList<>();
+        int position = 0;
+        while (position < size) {
+            if (times[position] == UNKNOWN_TIME) {
+                buckets.add(new long[]{UNKNOWN_DAY, position});
+                break;
+            }
+            LocalDate day = Instant.ofEpochMilli(times[position]).atZone(zone).toLocalDate();
+            buckets.add(new long[]{day.toEpochDay(), position});
+            position = firstOlderThan(day.atStartOfDay(zone).toInstant().toEpochMilli());
+        }
+
+        bucketCount = buckets.size();
+        bucketDays = new long[bucketCount];
+        bucketStarts = new int[bucketCount];
+        for (int i = 0; i < bucketCount; i++) {
+            bucketDays[i] = buckets.get(i)[0];
+            bucketStarts[i] = (int) buckets.get(i)[1];
+        }
+        bucketsStale = false;
+    }
+
+    /** Index of the first entry taken before a time, or with an unknown time. */
+    private int firstOlderThan(long time) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (times[middle] >= time) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private void insert(long time, long photoId) {
+        int index = find(time, photoId);
+        if (index >= 0) return;
+        index = -index - 1;
+        ensureCapacity(size + 1);
+        System.arraycopy(times, index, times, index + 1, size - index);
+        System.arraycopy(photoIds, index, photoIds, index + 1, size - index);
+        times[index] = time;
+        photoIds[index] = photoId;
+        size++;
+        bucketsStale = true;
+    }
+
+    private void remove(long time, long photoId) {
+        int index = find(time, photoId);
+        if (index < 0) return;
+        System.arraycopy(times, index + 1, times, index, size - index - 1);
+        System.arraycopy(photoIds, index + 1, photoIds, index, size - index - 1);
+        size--;
+        bucketsStale = true;
+    }
+
+    /**
+     * Binary search for an entry, ordered newest first and then by photo ID.
+     * Returns the index if found, otherwise (-(insertion point) - 1).
+     */
+    private int find(long time, long photoId) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int cmp = Long.compare(time, times[middle]);
+            if (cmp == 0) cmp = Long.compare(photoIds[middle], photoId);
+            if (cmp < 0) {
+                low = middle + 1;
+            } else if (cmp > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= times.length) return;
+        int newLength = Math.max(capacity, times.length * 2);
+        long[] newTimes = new long[newLength];
+        long[] newPhotoIds = new long[newLength];
+        System.arraycopy(times, 0, newTimes, 0, size);
+        System.arraycopy(photoIds, 0, newPhotoIds, 0, size);
+        times = newTimes;
+        photoIds = newPhotoIds;
+    }
+
+    private static int compareEntries(long[] a, long[] b) {
+        int cmp = Long.compare(b[0], a[0]);
+        return cmp != 0 ? cmp : Long.compare(a[1], b[1]);
+    }
+
+    private static long timeOf(Photo photo) {
+        return photo.getCapturedAt() != 0 ? photo.getCapturedAt() : UNKNOWN_TIME;
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        bucketsStale = true;
+    }
+
+    /**
+     * The capture time an image is listed under, and its copies in the library.
+     * The first copy is the one on the timeline.
+     */
+    private static class UriEntry implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        long time;
+        final List<Long> photoIds = new ArrayList<>(1);
+
+        UriEntry(long time) {
+            this.time = time;
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.photos.adapter;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.photos.model.Album;
+import com.photos.model.Photo;
+import com.photos.model.TimelineIndex;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.lang.reflect.Field;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Checks how TimelineAdapter lays the TimelineIndex out in rows: a month header
+ * before the first day of each month, a day header before every day, the undated
+ * photos last under a day header alone, and rows found again by month.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class TimelineAdapterTest {
+
+    private static final int MONTH = 0;
+    private static final int DAY = 1;
+    private static final int PHOTO = 2;
+    private static final int ALBUMS = 20;
+    private static final int PHOTOS_PER_ALBUM = 250;
+    private static final int DAYS = 730;
+
+    private final ZoneId zone = ZoneId.systemDefault();
+    private final Map<Long, Photo> photosById = new HashMap<>();
+    private long nextId = 1;
+
+    @Before
+    public void setUp() {
+        photosById.clear();
+        nextId = 1;
+    }
+
+    @Test
+    public void headersOpenEachMonthAndDay() throws Exception {
+        Album album = new Album("Album");
+        addPhotos(album, "2024-03-15T10:00", 3);
+        addPhotos(album, "2024-03-02T18:30", 1);
+        addPhotos(album, "2024-01-31T23:59", 2);
+        addPhotos(album, "2023-12-31T00:00", 1);
+        addPhotos(album, null, 2);
+        // A copy in another album is shown once
+        Album copies = new Album("Copies");
+        copies.getPhotos().add(photo(album.getPhotos().get(0).getUriString(), "2024-03-15T10:00"));
+
+        TimelineAdapter adapter = adapter(TimelineIndex.build(Arrays.asList(album, copies)));
+
+        int[] expected = {
+                MONTH, DAY, PHOTO, PHOTO, PHOTO,
+                DAY, PHOTO,
+                MONTH, DAY, PHOTO, PHOTO,
+                MONTH, DAY, PHOTO,
+                DAY, PHOTO, PHOTO};
+        assertArrayEquals(expected, itemTypes(adapter));
+        assertEquals(Arrays.asList(YearMonth.of(2024, 3), YearMonth.of(2024, 1), YearMonth.of(2023, 12)),
+                adapter.getMonths());
+    }
+
+    @Test
+    public void monthsScrollToTheirFirstHeader() throws Exception {
+        Album album = new Album("Album");
+        addPhotos(album, "2024-03-15T10:00", 3);
+        addPhotos(album, "2024-01-31T23:59", 2);
+        addPhotos(album, "2023-12-31T00:00", 1);
+        addPhotos(album, null, 2);
+
+        TimelineAdapter adapter = adapter(TimelineIndex.build(List.of(album)));
+
+        assertEquals(0, adapter.getRowOfMonth(YearMonth.of(2025, 1)));
+        assertEquals(0, adapter.getRowOfMonth(YearMonth.of(2024, 3)));
+        // A month without photos scrolls to the next older one
+        assertEquals(5, adapter.getRowOfMonth(YearMonth.of(2024, 2)));
+        assertEquals(5, adapter.getRowOfMonth(YearMonth.of(2024, 1)));
+        assertEquals(9, adapter.getRowOfMonth(YearMonth.of(2023, 12)));
+        assertEquals(12, adapter.getRowOfMonth(YearMonth.of(2023, 11)));
+    }
+
+    @Test
+    public void refreshDropsEmptiedUnknownBucket() throws Exception {
+        Album album = new Album("Album");
+        addPhotos(album, "2024-03-15T10:00", 2);
+        addPhotos(album, null, 2);
+        TimelineIndex timeline = TimelineIndex.build(List.of(album));
+        TimelineAdapter adapter = adapter(timeline);
+        assertEquals(7, adapter.getItemCount());
+
+        for (Photo undated : new ArrayList<>(album.getPhotos().subList(2, 4))) {
+            album.getPhotos().remove(undated);
+            timeline.onPhotoRemoved(album, undated);
+        }
+        adapter.refresh();
+
+        assertArrayEquals(new int[]{MONTH, DAY, PHOTO, PHOTO}, itemTypes(adapter));
+    }
+
+    @Test
+    public void rowsMatchBucketsOnLargeLibrary() throws Exception {
+        Random random = new Random(1);
+        LocalDateTime newest = LocalDateTime.of(2024, 6, 30, 23, 0);
+        List<Album> albums = new ArrayList<>();
+        Map<String, String> capturedByUri = new HashMap<>();
+        for (int i = 0; i < ALBUMS; i++) {
+            Album album = new Album("Album " + i);
+            for (int j = 0; j < PHOTOS_PER_ALBUM; j++) {
+                // Some photos are copies of ones in earlier albums
+                String uri = i > 0 && random.nextInt(10) == 0
+                        ? "content://photos/" + random.nextInt(i) + "/" + j : "content://photos/" + i + "/" + j;
+                if (!capturedByUri.containsKey(uri)) {
+                    capturedByUri.put(uri, random.nextInt(50) == 0 ? null
+                            : newest.minusMinutes(random.nextInt(DAYS * 24 * 60)).toString());
+                }
+                album.getPhotos().add(photo(uri, capturedByUri.get(uri)));
+            }
+            albums.add(album);
+        }
+        TimelineIndex timeline = TimelineIndex.build(albums);
+
+        TimelineAdapter adapter = adapter(timeline);
+
+        // Walk the rows, checking each photo row reads the next timeline position
+        int position = 0;
+        YearMonth month = null;
+        long day = 0;
+        for (int row = 0; row < adapter.getItemCount(); row++) {
+            int type = adapter.getItemViewType(row);
+            if (type == MONTH) {
+                month = YearMonth.from(LocalDate.ofEpochDay(timeline.getBucketDay(timeline.findBucket(position))));
+                assertEquals(DAY, adapter.getItemViewType(row + 1));
+            } else if (type == DAY) {
+                int bucket = timeline.findBucket(position);
+                assertEquals(timeline.getBucketStart(bucket), position);
+                day = timeline.getBucketDay(bucket);
+                if (day != TimelineIndex.UNKNOWN_DAY) {
+                    assertEquals(month, YearMonth.from(LocalDate.ofEpochDay(day)));
+                }
+            } else {
+                long capturedAt = photosById.get(timeline.getPhotoId(position)).getCapturedAt();
+                long photoDay = capturedAt == 0 ? TimelineIndex.UNKNOWN_DAY
+                        : Instant.ofEpochMilli(capturedAt).atZone(zone).toLocalDate().toEpochDay();
+                assertEquals("row " + row, day, photoDay);
+                position++;
+            }
+            assertEquals(type != PHOTO, adapter.isHeader(row));
+        }
+        assertEquals(timeline.size(), position);
+        assertTrue(timeline.getBucketCount() > DAYS / 2);
+    }
+
+    private static TimelineAdapter adapter(TimelineIndex timeline) {
+        return new TimelineAdapter(RuntimeEnvironment.getApplication(), timeline, null);
+    }
+
+    private static int[] itemTypes(TimelineAdapter adapter) {
+        int[] types = new int[adapter.getItemCount()];
+        for (int row = 0; row < types.length; row++) {
+            types[row] = adapter.getItemViewType(row);
+        }
+        return types;
+    }
+
+    private void addPhotos(Album album, String captured, int count) throws Exception {
+        for (int i = 0; i < count; i++) {
+            album.getPhotos().add(photo("content://photos/" + nextId, captured));
+        }
+    }
+
+    /**
+     * Creates a photo with the next ID, taken at a local time or with no capture time if null.
+     */
+    private Photo photo(String uri, String captured) throws Exception {
+        Photo photo = new Photo(uri);
+        setField(photo, "id", nextId);
+        if (captured != null) {
+            setField(photo, "capturedAt", LocalDateTime.parse(captured).atZone(zone).toInstant().toEpochMilli());
+        }
+        photosById.put(nextId++, photo);
+        return photo;
+    }
+
+    private static void setField(Photo photo, String name, long value) throws Exception {
+        Field field = Photo.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.setLong(photo, value);
+    }
+}
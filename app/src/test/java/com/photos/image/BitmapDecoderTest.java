@@ -0,0 +1,81 @@
+package com.photos.image;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * Checks the sample sizes BitmapDecoder decodes at: the largest power of two that
+ * keeps the image at least as large as its view needs, so a camera photo shown
+ * full screen is decoded at a fraction of its full size.
+ */
+public class BitmapDecoderTest {
+
+    private static final int SCREEN_WIDTH = 1080;
+    private static final int SCREEN_HEIGHT = 2340;
+    private static final int BYTES_PER_PIXEL = 4;
+    /** Allowance for the float arithmetic of the sample size. */
+    private static final double TOLERANCE = 1e-6;
+
+    @Test
+    public void smallImagesAreNotSampled() {
+        assertEquals(1, BitmapDecoder.sampleSize(200, 100, 400, 400, true));
+        assertEquals(1, BitmapDecoder.sampleSize(400, 400, 400, 400, false));
+        assertEquals(1, BitmapDecoder.sampleSize(799, 799, 400, 400, true));
+        assertEquals(2, BitmapDecoder.sampleSize(800, 800, 400, 400, true));
+    }
+
+    @Test
+    public void cropSamplesLessThanFit() {
+        // Filling a square needs the short side, fitting in it only the long side
+        assertEquals(4, BitmapDecoder.sampleSize(4000, 3000, 400, 400, true));
+        assertEquals(8, BitmapDecoder.sampleSize(4000, 3000, 400, 400, false));
+        assertEquals(4, BitmapDecoder.sampleSize(3000, 4000, 400, 400, true));
+        assertEquals(8, BitmapDecoder.sampleSize(3000, 4000, 400, 400, false));
+    }
+
+    @Test
+    public void sampledImageIsNeverSmallerThanNeeded() {
+        Random random = new Random(1);
+        for (int i = 0; i < 100_000; i++) {
+            int width = 1 + random.nextInt(10_000);
+            int height = 1 + random.nextInt(10_000);
+            int targetWidth = 1 + random.nextInt(2_000);
+            int targetHeight = 1 + random.nextInt(2_000);
+            boolean crop = random.nextBoolean();
+
+            int sampleSize = BitmapDecoder.sampleSize(width, height, targetWidth, targetHeight, crop);
+
+            String image = width + "x" + height + " into " + targetWidth + "x" + targetHeight + (crop ? " cropped" : "");
+            assertEquals(image, 0, sampleSize & (sampleSize - 1));
+            double scale = crop
+                    ? Math.max((double) targetWidth / width, (double) targetHeight / height)
+                    : Math.min((double) targetWidth / width, (double) targetHeight / height);
+            // The sampled image still fills or fits the view, unless the image itself
+            // is too small, and a coarser one would not
+            assertTrue(image, sampleSize == 1 || sampleSize * scale <= 1 + TOLERANCE);
+            assertTrue(image, 2 * sampleSize * scale > 1 - TOLERANCE);
+        }
+    }
+
+    @Test
+    public void cameraPhotoDecodesToScreenInFewMegabytes() {
+        // A 48 MP photo fitted to a phone screen
+        int width = 8_000;
+        int height = 6_000;
+
+        int sampleSize = BitmapDecoder.sampleSize(width, height, SCREEN_WIDTH, SCREEN_HEIGHT, false);
+
+        assertEquals(4, sampleSize);
+        long whole = (long) width * height * BYTES_PER_PIXEL;
+        long sampled = (long) (width / sampleSize) * (height / sampleSize) * BYTES_PER_PIXEL;
+        // The sampled image is then scaled the rest of the way to fit the screen
+        long shown = (long) SCREEN_WIDTH * (SCREEN_WIDTH * height / width) * BYTES_PER_PIXEL;
+        assertEquals(192_000_000, whole);
+        assertEquals(12_000_000, sampled);
+        assertTrue(shown < 4_000_000);
+    }
+}
@@ -0,0 +1,180 @@
+package com.photos.image;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.app.Application;
+import android.graphics.Bitmap;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Checks which pooled bitmap BitmapPool hands out for a request, what it refuses to
+ * keep and what it drops first, then scrolls a grid of thumbnails through the
+ * BitmapCache to check that bitmaps are reused without taking one a view still shows.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class BitmapPoolTest {
+
+    private static final int MAX_BYTES = 1_000_000;
+    private static final int PHOTOS = 600;
+    private static final int COLUMNS = 3;
+    private static final int VISIBLE_ROWS = 4;
+    /** Thumbnails the cache holds in the scroll, a few screens' worth. */
+    private static final int CACHED_THUMBNAILS = 40;
+
+    @Test
+    public void getTakesSmallestBucketWithinTwiceTheSize() {
+        BitmapPool pool = new BitmapPool(MAX_BYTES);
+        Bitmap small = mutable(100, 100);
+        Bitmap medium = mutable(200, 100);
+        Bitmap large = mutable(300, 300);
+        pool.put(large);
+        pool.put(small);
+        pool.put(medium);
+
+        Bitmap taken = pool.get(90, 90, Bitmap.Config.ARGB_8888);
+
+        assertSame(small, taken);
+        assertEquals(90, taken.getWidth());
+        assertEquals(90, taken.getHeight());
+        assertSame(medium, pool.get(150, 100, Bitmap.Config.ARGB_8888));
+        // Only the large bitmap is left, more than twice the bytes of either request
+        assertNull(pool.get(100, 100, Bitmap.Config.ARGB_8888));
+        assertNull(pool.get(200, 200, Bitmap.Config.RGB_565));
+        assertSame(large, pool.get(250, 250, Bitmap.Config.ARGB_8888));
+        assertEquals(0, pool.getBytesInUse());
+        assertEquals(2, pool.getAllocationCount());
+        assertEquals(0.6, pool.getHitRate(), 1e-9);
+    }
+
+    @Test
+    public void sameSizeTakesLastAdded() {
+        BitmapPool pool = new BitmapPool(MAX_BYTES);
+        Bitmap first = mutable(100, 100);
+        Bitmap second = mutable(100, 100);
+        pool.put(first);
+        pool.put(second);
+
+        assertSame(second, pool.get(100, 100, Bitmap.Config.ARGB_8888));
+        assertSame(first, pool.get(100, 100, Bitmap.Config.ARGB_8888));
+    }
+
+    @Test
+    public void putRefusesBitmapsThatCannotBeReused() {
+        BitmapPool pool = new BitmapPool(MAX_BYTES);
+
+        pool.put(mutable(100, 100).copy(Bitmap.Config.ARGB_8888, false));
+        assertEquals(0, pool.getBytesInUse());
+        assertEquals(0, pool.getDropCount());
+
+        // Larger than the whole pool
+        pool.put(mutable(600, 600));
+        assertEquals(0, pool.getBytesInUse());
+        assertEquals(1, pool.getDropCount());
+        assertNull(pool.get(100, 100, Bitmap.Config.ARGB_8888));
+    }
+
+    @Test
+    public void trimDropsOldestFirst() {
+        BitmapPool pool = new BitmapPool(MAX_BYTES);
+        Bitmap oldest = mutable(250, 250);
+        Bitmap older = mutable(250, 250);
+        Bitmap old = mutable(250, 250);
+        Bitmap small = mutable(100, 100);
+        Bitmap newest = mutable(250, 250);
+        pool.put(oldest);
+        pool.put(older);
+        pool.put(old);
+        pool.put(small);
+        assertEquals(0, pool.getDropCount());
+
+        // 250x250 bitmaps take 250,000 bytes, so the last one goes over the limit
+        pool.put(newest);
+        assertEquals(1, pool.getDropCount());
+        assertEquals(790_000, pool.getBytesInUse());
+
+        pool.trimToSize(300_000);
+
+        assertEquals(3, pool.getDropCount());
+        assertEquals(290_000, pool.getBytesInUse());
+        assertSame(newest, pool.get(250, 250, Bitmap.Config.ARGB_8888));
+        assertSame(small, pool.get(100, 100, Bitmap.Config.ARGB_8888));
+        assertNull(pool.get(250, 250, Bitmap.Config.ARGB_8888));
+    }
+
+    @Test
+    public void scrollReusesEvictedThumbnailsOnly() {
+        Application application = RuntimeEnvironment.getApplication();
+        BitmapCache cache = BitmapCache.getInstance(application);
+        BitmapPool pool = BitmapPool.getInstance(application);
+        application.onLowMemory();
+        Bitmap.Config config = Bitmap.Config.RGB_565;
+        int size = (int) Math.sqrt(cache.getMaxBytes() / CACHED_THUMBNAILS / BitmapPool.bytesPerPixel(config));
+
+        // Bitmaps the views on screen show, by photo
+        Bitmap[] shown = new Bitmap[PHOTOS];
+        Set<Bitmap> visible = Collections.newSetFromMap(new IdentityHashMap<>());
+        int shownFirst = 0;
+        int shownLast = 0;
+        int reused = 0;
+        int allocated = 0;
+        int rows = PHOTOS / COLUMNS;
+        // Down to the end and back up to the top, a row at a time
+        for (int step = 0; step < 2 * rows; step++) {
+            int top = Math.min(step < rows ? step : 2 * rows - 1 - step, rows - VISIBLE_ROWS);
+            int first = top * COLUMNS;
+            int last = first + VISIBLE_ROWS * COLUMNS;
+            for (int photo = shownFirst; photo < shownLast; photo++) {
+                if (photo < first || photo >= last) {
+                    visible.remove(shown[photo]);
+                    cache.release(shown[photo]);
+                    shown[photo] = null;
+                }
+            }
+            for (int photo = first; photo < last; photo++) {
+                if (shown[photo] != null) continue;
+                String key = BitmapCache.key("content://photos/" + photo, size);
+                Bitmap bitmap = cache.get(key);
+                if (bitmap == null) {
+                    bitmap = pool.get(size, size, config);
+                    if (bitmap != null) {
+                        assertTrue("photo " + photo + " got a bitmap still shown", !visible.contains(bitmap));
+                        reused++;
+                    } else {
+                        bitmap = Bitmap.createBitmap(size, size, config);
+                        allocated++;
+                    }
+                    cache.put(key, bitmap);
+                }
+                cache.retain(bitmap);
+                shown[photo] = bitmap;
+                visible.add(bitmap);
+            }
+            shownFirst = first;
+            shownLast = last;
+        }
+
+        double reuse = (double) reused / (reused + allocated);
+        String stats = String.format(Locale.US, "%d decodes, %.0f%% into pooled bitmaps; %s",
+                reused + allocated, reuse * 100, pool);
+        assertTrue(stats, reused + allocated > PHOTOS);
+        // New bitmaps are only needed until the cache and the screen are filled
+        assertTrue(stats, allocated <= CACHED_THUMBNAILS + VISIBLE_ROWS * COLUMNS);
+        assertTrue(stats, reuse > 0.9);
+    }
+
+    private static Bitmap mutable(int width, int height) {
+        return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+    }
+}
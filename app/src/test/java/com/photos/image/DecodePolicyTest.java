@@ -0,0 +1,80 @@
+package com.photos.image;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.app.Application;
+import android.graphics.Bitmap;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+/**
+ * Checks the pixel formats DecodePolicy picks, and that thumbnails decoded in them
+ * fit about twice as many photos in the memory cache.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class DecodePolicyTest {
+
+    @Test
+    public void picksFormatPerUse() {
+        DecodePolicy policy = new DecodePolicy();
+
+        assertFalse(policy.isReducedFootprint());
+        assertEquals(Bitmap.Config.RGB_565, policy.configFor(DecodePolicy.Use.THUMBNAIL));
+        assertEquals(Bitmap.Config.HARDWARE, policy.configFor(DecodePolicy.Use.SLIDESHOW));
+        assertEquals(Bitmap.Config.ARGB_8888, policy.configFor(DecodePolicy.Use.VIEWER));
+    }
+
+    @Test
+    public void memoryPressureReducesEveryUse() {
+        DecodePolicy policy = new DecodePolicy();
+        policy.reduceFootprint();
+
+        assertTrue(policy.isReducedFootprint());
+        for (DecodePolicy.Use use : DecodePolicy.Use.values()) {
+            assertEquals(Bitmap.Config.RGB_565, policy.configFor(use));
+        }
+    }
+
+    @Test
+    public void thumbnailCacheHoldsTwiceAsManyPhotos() {
+        Application application = RuntimeEnvironment.getApplication();
+        BitmapCache cache = BitmapCache.getInstance(application);
+        Bitmap.Config thumbnailConfig = new DecodePolicy().configFor(DecodePolicy.Use.THUMBNAIL);
+
+        int reduced = countCachedThumbnails(application, cache, thumbnailConfig);
+        int full = countCachedThumbnails(application, cache, Bitmap.Config.ARGB_8888);
+
+        assertTrue("only " + full + " full thumbnails cached", full > 0);
+        assertEquals(2.0, (double) reduced / full, 0.1);
+    }
+
+    /**
+     * Empties the cache, then puts more thumbnails in it than it can hold.
+     *
+     * @return The number of thumbnails left in the cache after eviction
+     */
+    private static int countCachedThumbnails(Application application, BitmapCache cache, Bitmap.Config config) {
+        application.onLowMemory();
+        int size = ImageLoader.DEFAULT_THUMBNAIL_SIZE;
+        // More than fit even at a byte per pixel
+        int count = cache.getMaxBytes() / (size * size) + 1;
+        int evictions = cache.getEvictionCount();
+        for (int i = 0; i < count; i++) {
+            cache.put(BitmapCache.key("content://photos/" + i, size), Bitmap.createBitmap(size, size, config));
+        }
+        assertTrue(cache.getEvictionCount() > evictions);
+
+        int cached = 0;
+        for (int i = 0; i < count; i++) {
+            if (cache.peek(BitmapCache.key("content://photos/" + i, size)) != null) {
+                cached++;
+            }
+        }
+        return cached;
+    }
+}
@@ -0,0 +1,147 @@
+package com.photos.image;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.app.Application;
+import android.os.Looper;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+
+import com.photos.R;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks that views asking ImageLoader for the same thumbnail while it is queued
+ * share one decode, and that the decode is dropped once every view cancels.
+ * Every pool thread is kept busy meanwhile, so the decodes stay queued.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ImageLoaderTest {
+
+    private static final String URI = "content://photos/shared";
+    private static final String OTHER_URI = "content://photos/other";
+    private static final long TIMEOUT_MILLIS = 10_000;
+
+    private Application application;
+    private ImageLoader loader;
+    private ThreadPoolExecutor executor;
+    private final CountDownLatch poolReleased = new CountDownLatch(1);
+
+    @Before
+    public void setUp() throws Exception {
+        application = RuntimeEnvironment.getApplication();
+        loader = ImageLoader.getInstance(application);
+        Field field = ImageLoader.class.getDeclaredField("executor");
+        field.setAccessible(true);
+        executor = (ThreadPoolExecutor) field.get(loader);
+
+        CountDownLatch started = new CountDownLatch(ImageLoader.POOL_SIZE);
+        for (int i = 0; i < ImageLoader.POOL_SIZE; i++) {
+            executor.execute(() -> {
+                started.countDown();
+                try {
+                    poolReleased.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        assertTrue(started.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        finishDecodes();
+    }
+
+    @Test
+    public void viewsAskingForSameThumbnailShareDecode() {
+        ImageView cover = new ImageView(application);
+        ImageView firstPhoto = new ImageView(application);
+        ImageView rebound = new ImageView(application);
+
+        loader.loadThumbnail(cover, URI, R.drawable.photo_placeholder);
+        loader.loadThumbnail(firstPhoto, URI, R.drawable.photo_placeholder);
+        loader.loadThumbnail(rebound, URI, R.drawable.photo_placeholder);
+        // A row rebound to the photo it is loading asks again
+        loader.loadThumbnail(rebound, URI, R.drawable.photo_placeholder);
+
+        assertEquals(1, loader.getDecodeCount());
+        assertEquals(1, executor.getQueue().size());
+    }
+
+    @Test
+    public void otherSizeGetsOwnDecode() {
+        ImageView small = new ImageView(application);
+        ImageView large = new ImageView(application);
+        large.setLayoutParams(new ViewGroup.LayoutParams(ImageLoader.MAX_PREVIEW_SIZE, ImageLoader.MAX_PREVIEW_SIZE));
+
+        loader.loadThumbnail(small, URI, R.drawable.photo_placeholder);
+        loader.loadThumbnail(large, URI, R.drawable.photo_placeholder);
+
+        assertEquals(2, loader.getDecodeCount());
+        assertEquals(2, executor.getQueue().size());
+    }
+
+    @Test
+    public void cancellingEveryViewDropsQueuedDecode() {
+        ImageView shown = new ImageView(application);
+        ImageView first = new ImageView(application);
+        ImageView second = new ImageView(application);
+        loader.loadThumbnail(shown, URI, R.drawable.photo_placeholder);
+        loader.loadThumbnail(first, OTHER_URI, R.drawable.photo_placeholder);
+        loader.loadThumbnail(second, OTHER_URI, R.drawable.photo_placeholder);
+        assertEquals(2, executor.getQueue().size());
+
+        loader.cancel(first);
+        assertEquals(2, loader.getDecodeCount());
+        assertEquals(2, executor.getQueue().size());
+
+        loader.cancel(second);
+        assertEquals(1, loader.getDecodeCount());
+        assertEquals(1, executor.getQueue().size());
+    }
+
+    @Test
+    public void finishedDecodeIsForgotten() throws Exception {
+        ImageView first = new ImageView(application);
+        ImageView second = new ImageView(application);
+        loader.loadThumbnail(first, URI, R.drawable.photo_placeholder);
+        loader.loadThumbnail(second, URI, R.drawable.photo_placeholder);
+
+        finishDecodes();
+
+        // No provider serves the URI, so both views keep the placeholder
+        assertEquals(0, loader.getDecodeCount());
+        assertNull(first.getTag(R.id.image_bitmap));
+        assertNull(second.getTag(R.id.image_bitmap));
+    }
+
+    /**
+     * Lets the pool run, waits for the queued decodes and hands their results to the
+     * main thread.
+     */
+    private void finishDecodes() throws InterruptedException {
+        poolReleased.countDown();
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!executor.getQueue().isEmpty() || executor.getActiveCount() > 0) {
+            assertTrue("decodes still running", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        shadowOf(Looper.getMainLooper()).idle();
+    }
+}
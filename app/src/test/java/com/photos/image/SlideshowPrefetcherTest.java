@@ -0,0 +1,99 @@
+package com.photos.image;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Checks the order SlideshowPrefetcher.upcomingPositions asks for photos in, and
+ * walks a slideshow through a cache of CACHE_SIZE photos to check that every step
+ * after the first, including a change of direction, shows a photo already decoded.
+ */
+public class SlideshowPrefetcherTest {
+
+    private static final int PHOTOS = 12;
+    private static final int STEPS = 30;
+    private static final int REVERSAL_STEP = 20;
+
+    @Test
+    public void neighboursComeFirstThenDirectionOfTravel() {
+        assertEquals(Arrays.asList(6, 4, 7), SlideshowPrefetcher.upcomingPositions(5, PHOTOS, 1));
+        assertEquals(Arrays.asList(4, 6, 3), SlideshowPrefetcher.upcomingPositions(5, PHOTOS, -1));
+    }
+
+    @Test
+    public void slideshowWrapsAround() {
+        assertEquals(Arrays.asList(0, 10, 1), SlideshowPrefetcher.upcomingPositions(11, PHOTOS, 1));
+        assertEquals(Arrays.asList(11, 1, 10), SlideshowPrefetcher.upcomingPositions(0, PHOTOS, -1));
+    }
+
+    @Test
+    public void shortSlideshowsListEachPhotoOnce() {
+        assertEquals(Collections.emptyList(), SlideshowPrefetcher.upcomingPositions(0, 1, 1));
+        assertEquals(Collections.singletonList(1), SlideshowPrefetcher.upcomingPositions(0, 2, 1));
+        assertEquals(Collections.singletonList(0), SlideshowPrefetcher.upcomingPositions(1, 2, -1));
+        assertEquals(Arrays.asList(1, 2), SlideshowPrefetcher.upcomingPositions(0, 3, 1));
+    }
+
+    @Test
+    public void wantedPhotosFitInCache() {
+        for (int count = 1; count <= PHOTOS; count++) {
+            for (int position = 0; position < count; position++) {
+                for (int direction : new int[]{1, -1}) {
+                    List<Integer> upcoming = SlideshowPrefetcher.upcomingPositions(position, count, direction);
+                    assertTrue(1 + upcoming.size() <= SlideshowPrefetcher.CACHE_SIZE);
+                    assertTrue(!upcoming.contains(position));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void walkShowsPrefetchedPhotos() {
+        // The prefetcher's cache, least recently used first, assuming every decode
+        // asked for finishes before the next step
+        Map<Integer, Boolean> decoded = new LinkedHashMap<Integer, Boolean>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Boolean> eldest) {
+                return size() > SlideshowPrefetcher.CACHE_SIZE;
+            }
+        };
+        List<Integer> missed = new ArrayList<>();
+        int position = 0;
+        int direction = 1;
+        for (int step = 0; step < STEPS; step++) {
+            if (step == REVERSAL_STEP) {
+                direction = -direction;
+            }
+            if (step > 0) {
+                position = Math.floorMod(position + direction, PHOTOS);
+            }
+            if (decoded.get(position) == null) {
+                missed.add(step);
+            }
+
+            List<Integer> wanted = new ArrayList<>();
+            wanted.add(position);
+            wanted.addAll(SlideshowPrefetcher.upcomingPositions(position, PHOTOS, direction));
+            List<Integer> decodes = new ArrayList<>();
+            for (int photo : wanted) {
+                if (decoded.get(photo) == null) {
+                    decodes.add(photo);
+                }
+            }
+            for (int photo : decodes) {
+                decoded.put(photo, true);
+            }
+        }
+
+        assertEquals("steps without a decoded photo", Collections.singletonList(0), missed);
+    }
+}
@@ -0,0 +1,121 @@
+package com.photos.image;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Locale;
+
+/**
+ * Zooms a simulated 40,000 x 30,000 scan on a 1080 x 2340 view from fit to
+ * MAX_SCALE, panned to several places, and checks the tile sample sizes
+ * TiledImageView picks: never more visible tiles than the tile cache holds, the
+ * sharpest level that fits, and the preview alone while it is sharp enough.
+ */
+public class TiledImageViewTest {
+
+    private static final int IMAGE_WIDTH = 40_000;
+    private static final int IMAGE_HEIGHT = 30_000;
+    private static final int VIEW_WIDTH = 1080;
+    private static final int VIEW_HEIGHT = 2340;
+    private static final long CACHE_BYTES = (long) TiledImageView.TILE_CACHE_SCREENS * VIEW_WIDTH * VIEW_HEIGHT * 4;
+    /** Zoom step of the sweep, about a pinch frame. */
+    private static final float ZOOM_STEP = 1.02f;
+    /** Pans tried at every zoom, as fractions of the range the image can move. */
+    private static final float[] PANS = {0f, 0.1f, 0.37f, 0.5f, 0.83f, 1f};
+
+    /** Scale at which the image fits the view; the preview is decoded at this size. */
+    private final float fitScale = Math.min((float) VIEW_WIDTH / IMAGE_WIDTH, (float) VIEW_HEIGHT / IMAGE_HEIGHT);
+
+    @Test
+    public void previewIsShownNearFit() {
+        assertEquals(0, sampleSize(fitScale, 0.5f, 0.5f));
+        assertEquals(0, sampleSize(fitScale * TiledImageView.PREVIEW_TOLERANCE, 0.5f, 0.5f));
+        assertTrue(sampleSize(fitScale * TiledImageView.PREVIEW_TOLERANCE * ZOOM_STEP, 0.5f, 0.5f) > 0);
+    }
+
+    @Test
+    public void visibleTilesFitInCacheAtEveryZoom() {
+        int sharpest = 0;
+        int coarser = 0;
+        long mostBytes = 0;
+        for (float scale = fitScale; scale <= TiledImageView.MAX_SCALE; scale *= ZOOM_STEP) {
+            for (float panX : PANS) {
+                for (float panY : PANS) {
+                    int sampleSize = sampleSize(scale, panX, panY);
+                    if (sampleSize == 0) continue;
+                    float[] visible = visibleRect(scale, panX, panY);
+                    String at = String.format(Locale.US, "zoom %.4f, pan %.2f/%.2f, sample %d",
+                            scale, panX, panY, sampleSize);
+
+                    assertEquals(at, 0, sampleSize & (sampleSize - 1));
+                    long bytes = TiledImageView.visibleTileBytes(sampleSize,
+                            visible[0], visible[1], visible[2], visible[3]);
+                    assertTrue(at + ": " + bytes + " bytes", bytes <= CACHE_BYTES);
+                    // Tiles are sharper than the preview they replace
+                    assertTrue(at, 1f / sampleSize > fitScale);
+                    int ideal = idealSampleSize(scale);
+                    if (sampleSize == ideal) {
+                        sharpest++;
+                    } else {
+                        // Coarser only when the sharper level would not fit
+                        assertEquals(at, ideal * 2, sampleSize);
+                        assertTrue(at, TiledImageView.visibleTileBytes(ideal,
+                                visible[0], visible[1], visible[2], visible[3]) > CACHE_BYTES);
+                        coarser++;
+                    }
+                    mostBytes = Math.max(mostBytes, bytes);
+                }
+            }
+        }
+
+        String stats = String.format(Locale.US, "%d sharpest, %d coarser, most %.1f of %.1f MB",
+                sharpest, coarser, mostBytes / 1e6, CACHE_BYTES / 1e6);
+        assertTrue(stats, sharpest > 0);
+        assertTrue(stats, coarser > 0);
+    }
+
+    @Test
+    public void nothingSharperThanPreviewFitsTinyCache() {
+        float scale = fitScale * 3;
+        float[] visible = visibleRect(scale, 0.5f, 0.5f);
+
+        assertEquals(0, TiledImageView.tileSampleSize(scale, fitScale,
+                visible[0], visible[1], visible[2], visible[3], TiledImageView.TILE_SIZE * TiledImageView.TILE_SIZE * 4));
+    }
+
+    private int sampleSize(float scale, float panX, float panY) {
+        float[] visible = visibleRect(scale, panX, panY);
+        return TiledImageView.tileSampleSize(scale, fitScale, visible[0], visible[1], visible[2], visible[3],
+                CACHE_BYTES);
+    }
+
+    /**
+     * Gets the part of the image the view shows, as TiledImageView computes it:
+     * centred along a side smaller than the view, otherwise panned within its range.
+     *
+     * @return Left, top, right and bottom in image pixels
+     */
+    private static float[] visibleRect(float scale, float panX, float panY) {
+        float translateX = translate(IMAGE_WIDTH * scale, VIEW_WIDTH, panX);
+        float translateY = translate(IMAGE_HEIGHT * scale, VIEW_HEIGHT, panY);
+        return new float[]{
+                Math.max(0, -translateX / scale),
+                Math.max(0, -translateY / scale),
+                Math.min(IMAGE_WIDTH, (VIEW_WIDTH - translateX) / scale),
+                Math.min(IMAGE_HEIGHT, (VIEW_HEIGHT - translateY) / scale)};
+    }
+
+    private static float translate(float size, int viewSize, float pan) {
+        return size <= viewSize ? (viewSize - size) / 2 : (viewSize - size) * pan;
+    }
+
+    private static int idealSampleSize(float scale) {
+        int sampleSize = 1;
+        while (sampleSize * 2 * scale <= 1) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+}
@@ -0,0 +1,173 @@
+package com.photos.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Types queries a keystroke at a time into an IncrementalSearch over a synthetic
+ * 50,000-photo library of 1,728 people, checking every refined result set against a full search
+ * and timing the keystrokes against evaluating each query from scratch.
+ */
+public class IncrementalSearchTest {
+
+    private static final int ALBUMS = 50;
+    private static final int PHOTOS_PER_ALBUM = 1_000;
+    /** Syllables of the people's names: three each gives 1,728 people. */
+    private static final String[] SYLLABLES = {"ma", "ri", "na", "ka", "to", "le", "si", "ro", "be", "da", "ni", "lo"};
+    private static final String[] PLACES = {"Paris", "Parma", "Porto", "Berlin", "Bern"};
+    private static final int TIMED_ROUNDS = 20;
+
+    private DataManager dataManager;
+    private IncrementalSearch search;
+
+    @Before
+    public void setUp() throws Exception {
+        reset();
+        dataManager = DataManager.getInstance();
+        Random random = new Random(1);
+        for (int i = 0; i < ALBUMS; i++) {
+            Album album = new Album("Album " + i);
+            dataManager.addAlbum(album);
+            for (int j = 0; j < PHOTOS_PER_ALBUM; j++) {
+                Photo photo = new Photo("content://photos/" + i + "/" + j);
+                photo.addTag(new Tag("person", name(random)));
+                photo.addTag(new Tag("location", PLACES[random.nextInt(PLACES.length)]));
+                dataManager.addPhoto(album, photo);
+            }
+        }
+        search = new IncrementalSearch(dataManager);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        reset();
+    }
+
+    @Test
+    public void typedPrefixRefinesToFullSearchResults() {
+        String typed = "Marina";
+        for (int length = 1; length <= typed.length(); length++) {
+            SearchQuery query = SearchQuery.single("person", typed.substring(0, length));
+
+            SearchCursor refined = search.search(query);
+
+            assertEquals(length > 1, search.wasLastRefined());
+            assertSameResults(dataManager.searchCursor(query), refined);
+        }
+    }
+
+    @Test
+    public void extraAndTermRefinesToFullSearchResults() {
+        search.search(SearchQuery.single("person", "Mar"));
+        String typed = "Par";
+        for (int length = 1; length <= typed.length(); length++) {
+            SearchQuery query = SearchQuery.and("person", "Mar", "location", typed.substring(0, length));
+
+            SearchCursor refined = search.search(query);
+
+            assertTrue(search.wasLastRefined());
+            assertSameResults(dataManager.searchCursor(query), refined);
+        }
+    }
+
+    @Test
+    public void disjunctionRefinesToFullSearchResults() {
+        String[] people = {"M", "Ma", "Mar", "Mari"};
+        String[] places = {"B", "Be", "Ber", "Bern"};
+        for (int i = 0; i < people.length; i++) {
+            SearchQuery query = SearchQuery.or("person", people[i], "location", places[i]);
+
+            SearchCursor refined = search.search(query);
+
+            assertEquals(i > 0, search.wasLastRefined());
+            assertSameResults(dataManager.searchCursor(query), refined);
+        }
+    }
+
+    @Test
+    public void libraryChangeStartsFreshSearch() {
+        search.search(SearchQuery.single("person", "Ma"));
+        Album album = dataManager.getAlbums().get(0);
+        dataManager.addTag(album, album.getPhotos().get(0), new Tag("person", "Maxwell"));
+
+        SearchQuery query = SearchQuery.single("person", "Max");
+        SearchCursor results = search.search(query);
+
+        assertFalse(search.wasLastRefined());
+        assertEquals(1, results.getCount());
+        assertSameResults(dataManager.searchCursor(query), results);
+    }
+
+    @Test
+    public void refinedKeystrokesAreFasterThanFreshSearches() {
+        String typed = "Marina";
+        // Best time of each keystroke after the first, refined and evaluated from scratch
+        long[] refined = new long[typed.length()];
+        long[] fresh = new long[typed.length()];
+        Arrays.fill(refined, Long.MAX_VALUE);
+        Arrays.fill(fresh, Long.MAX_VALUE);
+        // The first rounds let the JIT compile both paths
+        for (int round = 0; round < 2 * TIMED_ROUNDS; round++) {
+            search.reset();
+            search.search(SearchQuery.single("person", typed.substring(0, 1)));
+            for (int length = 2; length <= typed.length(); length++) {
+                SearchQuery query = SearchQuery.single("person", typed.substring(0, length));
+                search.search(query);
+                assertTrue(search.wasLastRefined());
+                long keystroke = search.getLastEvaluationNanos();
+
+                search.reset();
+                search.search(query);
+                assertFalse(search.wasLastRefined());
+                if (round >= TIMED_ROUNDS) {
+                    refined[length - 1] = Math.min(refined[length - 1], keystroke);
+                    fresh[length - 1] = Math.min(fresh[length - 1], search.getLastEvaluationNanos());
+                }
+            }
+        }
+
+        StringBuilder table = new StringBuilder();
+        for (int length = 2; length <= typed.length(); length++) {
+            table.append(String.format(Locale.US, "%n%-6s refined %5d us, fresh %5d us",
+                    typed.substring(0, length), refined[length - 1] / 1_000, fresh[length - 1] / 1_000));
+            assertTrue("keystroke " + length + table, refined[length - 1] < fresh[length - 1]);
+        }
+    }
+
+    private static String name(Random random) {
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < 3; i++) {
+            name.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+        }
+        name.setCharAt(0, Character.toUpperCase(name.charAt(0)));
+        return name.toString();
+    }
+
+    private static void assertSameResults(SearchCursor expected, SearchCursor actual) {
+        assertEquals(expected.getCount(), actual.getCount());
+        for (int i = 0; i < expected.getCount(); i++) {
+            assertEquals(expected.getPhotoId(i), actual.getPhotoId(i));
+        }
+    }
+
+    /**
+     * Drops the DataManager instance and context, so the test library is never saved.
+     */
+    private static void reset() throws Exception {
+        for (String name : new String[]{"instance", "appContext"}) {
+            Field field = DataManager.class.getDeclaredField(name);
+            field.setAccessible(true);
+            field.set(null, null);
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package com.photos.model;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks that a 100,000-photo library starts from its saved search indexes instead of
+ * rebuilding them, and that the loaded indexes answer like freshly built ones.
+ */
+public class IndexPersistenceTest {
+
+    private static final int ALBUMS = 100;
+    private static final int PHOTOS_PER_ALBUM = 1_000;
+    private static final long FIRST_CAPTURE = 1_600_000_000_000L;
+    private static final String DATA_FILE = "photos_data.dat";
+    private static final String INDEX_FILE = "photos_index.dat";
+    private static final int TIMED_ROUNDS = 3;
+
+    private File directory;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("photos").toFile();
+        reset();
+
+        List<Album> albums = new ArrayList<>();
+        Random random = new Random(1);
+        long id = 1;
+        for (int i = 0; i < ALBUMS; i++) {
+            Album album = new Album("Album " + i);
+            album.setId(id++);
+            for (int j = 0; j < PHOTOS_PER_ALBUM; j++) {
+                Photo photo = new Photo("content://photos/" + i + "/" + j);
+                photo.setId(id++);
+                // Skewed like real libraries: a few people are on most photos
+                int person = random.nextInt(3_000);
+                photo.addTag(new Tag("person", "person" + person * person / 3_000));
+                photo.addTag(new Tag("location", "place" + random.nextInt(200)));
+                photo.addTag(new Tag("rating", String.valueOf(random.nextInt(6))));
+                photo.setMetadata(random.nextDouble() * 120 - 60, random.nextDouble() * 340 - 170,
+                        FIRST_CAPTURE + random.nextInt(1_000_000_000));
+                album.getPhotos().add(photo);
+            }
+            albums.add(album);
+        }
+        try (ObjectOutputStream oos = new ObjectOutputStream(
+                new FileOutputStream(new File(directory, DATA_FILE)))) {
+            oos.writeObject(albums);
+            oos.writeLong(1);
+            oos.writeLong(0);
+        }
+        DataManager.init(new FilesContext(directory));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        reset();
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void startupLoadsSavedIndexes() throws Exception {
+        DataManager built = DataManager.getInstance();
+        assertFalse(built.areIndexesSaved());
+        built.saveIndexes();
+        built.awaitWrites();
+        assertTrue(built.areIndexesSaved());
+        forgetInstance();
+
+        DataManager loaded = DataManager.getInstance();
+
+        assertEquals(built.getGeneration(), loaded.getGeneration());
+        assertTrue("indexes were rebuilt", loaded.areIndexesSaved());
+    }
+
+    @Test
+    public void loadedIndexesMatchRebuiltOnes() throws Exception {
+        DataManager built = DataManager.getInstance();
+        built.saveIndexes();
+        built.awaitWrites();
+        forgetInstance();
+        DataManager loaded = DataManager.getInstance();
+        assertTrue(loaded.areIndexesSaved());
+
+        for (String prefix : new String[]{"", "person1", "person29", "person2999"}) {
+            assertEquals(built.getTagFacets().getCountWithPrefix("person", prefix),
+                    loaded.getTagFacets().getCountWithPrefix("person", prefix));
+        }
+        assertEquals(values(built.getTagFacets().getTopValues("location", 10)),
+                values(loaded.getTagFacets().getTopValues("location", 10)));
+        assertArrayEquals(built.getRangeIndex().findInRange("rating", 2, 4),
+                loaded.getRangeIndex().findInRange("rating", 2, 4));
+        assertEquals(built.getGeoIndex().size(), loaded.getGeoIndex().size());
+        assertArrayEquals(built.getGeoIndex().findNear(10, 20, 500),
+                loaded.getGeoIndex().findNear(10, 20, 500));
+
+        TimelineIndex timeline = built.getTimelineIndex();
+        assertEquals(timeline.size(), loaded.getTimelineIndex().size());
+        assertEquals(timeline.getBucketCount(), loaded.getTimelineIndex().getBucketCount());
+        for (int position = 0; position < timeline.size(); position += 997) {
+            assertEquals(timeline.getPhotoId(position), loaded.getTimelineIndex().getPhotoId(position));
+        }
+
+        assertEquals(built.getTagDictionary().getEntries("person").size(),
+                loaded.getTagDictionary().getEntries("person").size());
+        assertEquals(values(built.getTagDictionary().findSimilar("person", "persn12")),
+                values(loaded.getTagDictionary().findSimilar("person", "persn12")));
+    }
+
+    @Test
+    public void changedLibraryRebuildsIndexes() throws Exception {
+        DataManager saved = DataManager.getInstance();
+        saved.saveIndexes();
+        saved.awaitWrites();
+        Album album = saved.getAlbums().get(0);
+        // Saves the library but not the indexes, as if the app was killed before its screen stopped
+        saved.addTag(album, album.getPhotos().get(0), new Tag("person", "newcomer"));
+        forgetInstance();
+
+        DataManager loaded = DataManager.getInstance();
+
+        assertFalse(loaded.areIndexesSaved());
+        assertEquals(1, loaded.getTagFacets().getCount("person", "newcomer"));
+        assertNotNull(loaded.getTagDictionary().get("person", "newcomer"));
+    }
+
+    @Test
+    public void loadingIndexesIsFasterThanRebuilding() throws Exception {
+        DataManager.getInstance().saveIndexes();
+        DataManager.getInstance().awaitWrites();
+        File indexes = new File(directory, INDEX_FILE);
+        File stash = new File(directory, INDEX_FILE + ".stash");
+
+        // Best of several alternating runs, after a first round lets the JIT compile both paths
+        long loading = Long.MAX_VALUE;
+        long rebuilding = Long.MAX_VALUE;
+        for (int round = 0; round <= TIMED_ROUNDS; round++) {
+            long load = timeStartup();
+            assertTrue(stash.getPath(), indexes.renameTo(stash));
+            long rebuild = timeStartup();
+            assertTrue(indexes.getPath(), stash.renameTo(indexes));
+            if (round > 0) {
+                loading = Math.min(loading, load);
+                rebuilding = Math.min(rebuilding, rebuild);
+            }
+        }
+
+        assertTrue("loading took " + loading / 1_000_000 + " ms, rebuilding " + rebuilding / 1_000_000 + " ms",
+                loading < rebuilding);
+    }
+
+    /**
+     * Times a start of the app: reading the library and loading or building its indexes.
+     *
+     * @return The time taken, in nanoseconds
+     */
+    private static long timeStartup() throws Exception {
+        forgetInstance();
+        System.gc();
+        long start = System.nanoTime();
+        DataManager.getInstance();
+        return System.nanoTime() - start;
+    }
+
+    private static List<String> values(List<?> entries) {
+        List<String> values = new ArrayList<>();
+        for (Object entry : entries) {
+            values.add(entry instanceof TagFacets.Facet
+                    ? ((TagFacets.Facet) entry).getValue() : ((TagDictionary.Entry) entry).getValue());
+        }
+        return values;
+    }
+
+    /**
+     * Drops the DataManager instance, so the next getInstance() loads the saved files.
+     */
+    private static void forgetInstance() throws Exception {
+        Field instance = DataManager.class.getDeclaredField("instance");
+        instance.setAccessible(true);
+        instance.set(null, null);
+    }
+
+    private static void reset() throws Exception {
+        forgetInstance();
+        Field context = DataManager.class.getDeclaredField("appContext");
+        context.setAccessible(true);
+        context.set(null, null);
+    }
+
+    /**
+     * Context keeping the app's files in a temporary directory.
+     */
+    private static class FilesContext extends ContextWrapper {
+        private final File directory;
+
+        FilesContext(File directory) {
+            super(null);
+            this.directory = directory;
+        }
+
+        @Override
+        public Context getApplicationContext() {
+            return this;
+        }
+
+        @Override
+        public File getFilesDir() {
+            return directory;
+        }
+
+        @Override
+        public File getFileStreamPath(String name) {
+            return new File(directory, name);
+        }
+
+        @Override
+        public FileInputStream openFileInput(String name) throws FileNotFoundException {
+            return new FileInputStream(new File(directory, name));
+        }
+
+        @Override
+        public FileOutputStream openFileOutput(String name, int mode) throws FileNotFoundException {
+            return new FileOutputStream(new File(directory, name));
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.photos.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Times sequential and parallel scans of libraries from one chunk to 262,144 photos.
+ * On a single core the difference is the parallel scan's overhead, which
+ * ParallelSearch.PARALLEL_OVERHEAD was set from; on more cores the test finds the
+ * size from which the parallel scan is faster and checks parallelThreshold() against it.
+ */
+public class ParallelSearchCrossoverTest {
+
+    private static final int PHOTOS_PER_ALBUM = 1_024;
+    private static final int LARGEST_LIBRARY = 262_144;
+    private static final int WARMUP_ROUNDS = 100;
+    private static final int TIMED_ROUNDS = 50;
+
+    private final SearchQuery query = SearchQuery.single("person", "al");
+    private List<Album> library;
+
+    @Before
+    public void setUp() {
+        String[] people = {"Alice", "Alan", "Bob", "Carol", "Dave", "Eve"};
+        Random random = new Random(1);
+        library = new ArrayList<>();
+        long id = 1;
+        for (int i = 0; i < LARGEST_LIBRARY / PHOTOS_PER_ALBUM; i++) {
+            Album album = new Album("Album " + i);
+            for (int j = 0; j < PHOTOS_PER_ALBUM; j++) {
+                Photo photo = new Photo("content://photos/" + i + "/" + j);
+                photo.setId(id++);
+                photo.addTag(new Tag("person", people[random.nextInt(people.length)]));
+                photo.addTag(new Tag("location", "place" + random.nextInt(50)));
+                album.getPhotos().add(photo);
+            }
+            library.add(album);
+        }
+    }
+
+    @Test
+    public void parallelOverheadMatchesConstant() {
+        assumeTrue(ForkJoinPool.getCommonPoolParallelism() == 1);
+
+        StringBuilder table = new StringBuilder();
+        double total = 0;
+        int sizes = 0;
+        for (int size = 2 * ParallelSearch.CHUNK_SIZE; size <= LARGEST_LIBRARY; size *= 2) {
+            long[] times = time(size, table);
+            total += (double) times[1] / times[0] - 1;
+            sizes++;
+        }
+
+        double overhead = total / sizes;
+        assertEquals("mean overhead " + overhead + table, ParallelSearch.PARALLEL_OVERHEAD, overhead,
+                ParallelSearch.PARALLEL_OVERHEAD / 2);
+    }
+
+    @Test
+    public void parallelScanIsFasterFromThreshold() {
+        assumeTrue(ForkJoinPool.getCommonPoolParallelism() > 1);
+
+        StringBuilder table = new StringBuilder();
+        // Smallest size from which every larger library is scanned faster in parallel
+        int crossover = Integer.MAX_VALUE;
+        for (int size = ParallelSearch.CHUNK_SIZE; size <= LARGEST_LIBRARY; size *= 2) {
+            long[] times = time(size, table);
+            crossover = times[1] < times[0] ? Math.min(crossover, size) : Integer.MAX_VALUE;
+        }
+
+        assertTrue("parallel scan never faster" + table, crossover < Integer.MAX_VALUE);
+        int threshold = ParallelSearch.parallelThreshold();
+        assertTrue("threshold " + threshold + " below the crossover" + table, threshold >= crossover);
+    }
+
+    /**
+     * Times both scans of the first photos of the library, best of TIMED_ROUNDS
+     * alternating runs after WARMUP_ROUNDS let the JIT compile them.
+     *
+     * @param size  The number of photos to scan
+     * @param table Gets a line with the times
+     * @return The sequential and the parallel time, in nanoseconds
+     */
+    private long[] time(int size, StringBuilder table) {
+        List<Album> albums = library.subList(0, size / PHOTOS_PER_ALBUM);
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            ParallelSearch.collectCursor(albums, query, false);
+            ParallelSearch.collectCursor(albums, query, true);
+        }
+        long sequential = Long.MAX_VALUE;
+        long parallel = Long.MAX_VALUE;
+        for (int i = 0; i < TIMED_ROUNDS; i++) {
+            long start = System.nanoTime();
+            ParallelSearch.collectCursor(albums, query, false);
+            sequential = Math.min(sequential, System.nanoTime() - start);
+            start = System.nanoTime();
+            ParallelSearch.collectCursor(albums, query, true);
+            parallel = Math.min(parallel, System.nanoTime() - start);
+        }
+        table.append(String.format(Locale.US, "%n%7d photos: sequential %6d us, parallel %6d us",
+                size, sequential / 1_000, parallel / 1_000));
+        return new long[]{sequential, parallel};
+    }
+}
@@ -0,0 +1,131 @@
+package com.photos.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import com.photos.model.DataManager.PhotoResult;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Checks that RankedSearch.topK, which keeps only the best k matches in a heap,
+ * returns exactly what scoring every match, sorting them all and truncating would,
+ * on a synthetic library where photos are shared between albums.
+ */
+public class RankedSearchTest {
+
+    private static final int ALBUMS = 30;
+    private static final int PHOTOS_PER_ALBUM = 500;
+    /** Distinct photo URIs; fewer than the photos, so many appear in several albums. */
+    private static final int URIS = 9_000;
+    private static final long NOW = 1_700_000_000_000L;
+    private static final long YEAR_MILLIS = 365L * 24 * 60 * 60 * 1000;
+    private static final String[] PEOPLE = {"Ann", "Anna", "Annabel", "Bob", "Bobby", "Carl", "Carla", "Dan"};
+    private static final String[] PLACES = {"Paris", "Parma", "Rome", "Roma", "Oslo"};
+    private static final int[] LIMITS = {1, 10, 200, 5_000, 100_000};
+
+    private final List<Album> albums = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        Field createdAt = Tag.class.getDeclaredField("createdAt");
+        createdAt.setAccessible(true);
+        Random random = new Random(1);
+        for (int i = 0; i < ALBUMS; i++) {
+            Album album = new Album("Album " + i);
+            for (int j = 0; j < PHOTOS_PER_ALBUM; j++) {
+                Photo photo = new Photo("content://photos/" + random.nextInt(URIS));
+                int people = 1 + random.nextInt(2);
+                for (int p = 0; p < people; p++) {
+                    photo.addTag(new Tag("person", PEOPLE[random.nextInt(PEOPLE.length)]));
+                }
+                photo.addTag(new Tag("location", PLACES[random.nextInt(PLACES.length)]));
+                for (Tag tag : photo.getTags()) {
+                    // Tags from the last year, some from saves before creation times were kept
+                    createdAt.setLong(tag, random.nextInt(10) == 0 ? 0 : NOW - (long) (random.nextDouble() * YEAR_MILLIS));
+                }
+                album.getPhotos().add(photo);
+            }
+            albums.add(album);
+        }
+    }
+
+    @Test
+    public void singleTermMatchesSortedScores() {
+        assertTopKMatchesSort(SearchQuery.single("person", "Ann"));
+    }
+
+    @Test
+    public void conjunctionMatchesSortedScores() {
+        assertTopKMatchesSort(SearchQuery.and("person", "Bob", "location", "Par"));
+    }
+
+    @Test
+    public void disjunctionMatchesSortedScores() {
+        assertTopKMatchesSort(SearchQuery.or("person", "Carl", "location", "Rom"));
+    }
+
+    private void assertTopKMatchesSort(SearchQuery query) {
+        List<Candidate> sorted = scoreAllAndSort(query);
+        for (int k : LIMITS) {
+            List<RankedSearch.Hit> hits = RankedSearch.topK(albums, query, k, NOW);
+
+            assertEquals(Math.min(k, sorted.size()), hits.size());
+            for (int i = 0; i < hits.size(); i++) {
+                Candidate expected = sorted.get(i);
+                PhotoResult result = hits.get(i).getResult();
+                assertSame("k=" + k + ", hit " + i, expected.album, result.album);
+                assertEquals("k=" + k + ", hit " + i, expected.position, result.position);
+                assertEquals(expected.score, hits.get(i).getScore(), 0);
+            }
+        }
+    }
+
+    /**
+     * Scores every match, keeps the better copy of each URI, and sorts best first,
+     * ties in album order.
+     */
+    private List<Candidate> scoreAllAndSort(SearchQuery query) {
+        Map<String, Candidate> bestByUri = new HashMap<>();
+        int order = 0;
+        for (Album album : albums) {
+            for (int position = 0; position < album.getPhotos().size(); position++, order++) {
+                Photo photo = album.getPhotos().get(position);
+                if (!query.matches(photo)) continue;
+                Candidate candidate = new Candidate(album, position, order,
+                        RankedSearch.score(query, photo, NOW).getScore());
+                Candidate kept = bestByUri.get(photo.getUriString());
+                if (kept == null || candidate.score > kept.score) {
+                    bestByUri.put(photo.getUriString(), candidate);
+                }
+            }
+        }
+        List<Candidate> sorted = new ArrayList<>(bestByUri.values());
+        sorted.sort(Comparator.comparingDouble((Candidate candidate) -> -candidate.score)
+                .thenComparingInt(candidate -> candidate.order));
+        return sorted;
+    }
+
+    private static class Candidate {
+        final Album album;
+        final int position;
+        final int order;
+        final double score;
+
+        Candidate(Album album, int position, int order, double score) {
+            this.album = album;
+            this.position = position;
+            this.order = order;
+            this.score = score;
+        }
+    }
+}
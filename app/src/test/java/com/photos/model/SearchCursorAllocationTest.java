@@ -0,0 +1,92 @@
+package com.photos.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks that a search with 100,000 hits collected into a SearchCursor allocates
+ * only the cursor's arrays, and no object per hit.
+ */
+public class SearchCursorAllocationTest {
+
+    private static final int ALBUMS = 40;
+    private static final int PHOTOS_PER_ALBUM = 2_500;
+    private static final int HITS = ALBUMS * PHOTOS_PER_ALBUM;
+
+    /** Bytes per slot of a cursor: an int album index, an int photo index and a long photo ID. */
+    private static final long BYTES_PER_SLOT = 4 + 4 + 8;
+    /** Allowance for the cursor object and array headers. */
+    private static final long FIXED_BYTES = 16 * 1024;
+
+    private final SearchQuery query = SearchQuery.single("person", "al");
+    private List<Album> albums;
+    private com.sun.management.ThreadMXBean threads;
+
+    @Before
+    public void setUp() {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        albums = new ArrayList<>();
+        long id = 1;
+        for (int i = 0; i < ALBUMS; i++) {
+            Album album = new Album("Album " + i);
+            for (int j = 0; j < PHOTOS_PER_ALBUM; j++) {
+                Photo photo = new Photo("content://photos/" + i + "/" + j);
+                photo.setId(id++);
+                photo.addTag(new Tag("person", j % 2 == 0 ? "Alice" : "Alan"));
+                photo.addTag(new Tag("location", "Paris"));
+                album.getPhotos().add(photo);
+            }
+            albums.add(album);
+        }
+    }
+
+    @Test
+    public void collectingHitsOnlyAllocatesCursorArrays() {
+        // Let the JIT compile the scan first
+        for (int i = 0; i < 20; i++) {
+            ParallelSearch.collectCursor(albums, query, false);
+        }
+
+        long before = threads.getCurrentThreadAllocatedBytes();
+        SearchCursor cursor = ParallelSearch.collectCursor(albums, query, false);
+        long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+
+        // The arrays double as they fill, so all the arrays allocated on the way
+        // add up to less than twice the final ones
+        long capacity = SearchCursor.INITIAL_CAPACITY;
+        while (capacity < HITS) {
+            capacity *= 2;
+        }
+        assertEquals(HITS, cursor.getCount());
+        assertTrue("allocated " + allocated + " bytes for " + HITS + " hits",
+                allocated <= 2 * capacity * BYTES_PER_SLOT + FIXED_BYTES);
+    }
+
+    @Test
+    public void matchingPhotosAllocatesNothing() {
+        Photo photo = albums.get(0).getPhotos().get(0);
+        for (int i = 0; i < 10_000; i++) {
+            query.matches(photo);
+        }
+
+        long before = threads.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < HITS; i++) {
+            query.matches(photo);
+        }
+        long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+
+        assertTrue("allocated " + allocated + " bytes for " + HITS + " matches", allocated < 1024);
+    }
+}
@@ -0,0 +1,164 @@
+package com.photos.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TreeSet;
+
+/**
+ * Checks TagSketch pruning on albums whose people follow a skewed distribution:
+ * a few people are in most albums, most people in a handful, and every album has
+ * people of its own. A pruned album must have no matching photo, and albums without
+ * a match should rarely get through.
+ */
+public class TagSketchTest {
+
+    private static final int ALBUMS = 200;
+    private static final int PHOTOS_PER_ALBUM = 200;
+    private static final int LOCAL_PEOPLE = 5;
+    /** Syllables of the people's names: three each gives 1,728 people. */
+    private static final String[] SYLLABLES = {"ma", "ri", "na", "ka", "to", "le", "si", "ro", "be", "da", "ni", "lo"};
+    /** Highest share of albums without a match that the sketch may let through. */
+    private static final double MAX_FALSE_POSITIVE_RATE = 0.01;
+
+    private final List<String> people = new ArrayList<>();
+    private final List<Album> albums = new ArrayList<>();
+    // Lower-case person names in each album, to look up which albums truly match
+    private final List<TreeSet<String>> albumPeople = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        for (String first : SYLLABLES) {
+            for (String second : SYLLABLES) {
+                for (String third : SYLLABLES) {
+                    people.add(Character.toUpperCase(first.charAt(0)) + first.substring(1) + second + third);
+                }
+            }
+        }
+        Random random = new Random(1);
+        for (int i = 0; i < ALBUMS; i++) {
+            Album album = new Album("Album " + i);
+            TreeSet<String> names = new TreeSet<>();
+            List<String> local = new ArrayList<>();
+            for (int j = 0; j < LOCAL_PEOPLE; j++) {
+                local.add(people.get(random.nextInt(people.size())));
+            }
+            for (int j = 0; j < PHOTOS_PER_ALBUM; j++) {
+                Photo photo = new Photo("content://photos/" + i + "/" + j);
+                // Half the photos show the album's own people, the rest a Zipf-like pick
+                String person = random.nextBoolean() ? local.get(random.nextInt(LOCAL_PEOPLE)) : skewedPick(random);
+                photo.addTag(new Tag("person", person));
+                photo.addTag(new Tag("location", "Place " + random.nextInt(20)));
+                album.getPhotos().add(photo);
+                names.add(person.toLowerCase());
+            }
+            albums.add(album);
+            albumPeople.add(names);
+        }
+    }
+
+    @Test
+    public void prunedAlbumsHaveNoMatch() {
+        for (String prefix : queryPrefixes()) {
+            SearchQuery query = SearchQuery.single("person", prefix);
+            for (int i = 0; i < ALBUMS; i++) {
+                if (!albums.get(i).getTagSketch().mightMatch(query)) {
+                    assertFalse(prefix + " in album " + i, hasMatch(i, prefix));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void albumsWithoutMatchAreMostlyPruned() {
+        int checked = 0;
+        int pruned = 0;
+        int withoutMatch = 0;
+        int falsePositives = 0;
+        // Albums without a match that share the query's short prefix, so only the Bloom filter can prune them
+        int bloomChecked = 0;
+        int bloomFalsePositives = 0;
+        for (String prefix : queryPrefixes()) {
+            SearchQuery query = SearchQuery.single("person", prefix);
+            for (int i = 0; i < ALBUMS; i++) {
+                boolean mightMatch = albums.get(i).getTagSketch().mightMatch(query);
+                checked++;
+                if (!mightMatch) {
+                    pruned++;
+                }
+                if (hasMatch(i, prefix)) continue;
+                withoutMatch++;
+                if (mightMatch) {
+                    falsePositives++;
+                }
+                if (prefix.length() > TagSketch.SHORT_PREFIX_LENGTH
+                        && hasMatch(i, prefix.substring(0, TagSketch.SHORT_PREFIX_LENGTH))) {
+                    bloomChecked++;
+                    if (mightMatch) {
+                        bloomFalsePositives++;
+                    }
+                }
+            }
+        }
+
+        String rates = String.format(Locale.US, "pruned %.1f%% of %d album checks; false positives: "
+                        + "%d of %d albums without a match, %d of %d left to the Bloom filter",
+                100.0 * pruned / checked, checked, falsePositives, withoutMatch, bloomFalsePositives, bloomChecked);
+        assertEquals(rates, withoutMatch - falsePositives, pruned);
+        assertTrue(rates, falsePositives <= withoutMatch * MAX_FALSE_POSITIVE_RATE);
+        assertTrue(rates, bloomFalsePositives <= bloomChecked * MAX_FALSE_POSITIVE_RATE);
+    }
+
+    @Test
+    public void missingTagTypeIsPruned() {
+        SearchQuery query = SearchQuery.single("event", "ma");
+        for (Album album : albums) {
+            assertFalse(album.getTagSketch().mightMatch(query));
+        }
+    }
+
+    /**
+     * Picks a person with probability falling as one over their rank.
+     */
+    private String skewedPick(Random random) {
+        double harmonic = Math.log(people.size()) + 0.5772;
+        double target = random.nextDouble() * harmonic;
+        double sum = 0;
+        for (int rank = 0; rank < people.size(); rank++) {
+            sum += 1.0 / (rank + 1);
+            if (sum >= target) {
+                return people.get(rank);
+            }
+        }
+        return people.get(people.size() - 1);
+    }
+
+    /**
+     * Gets the prefixes a user types on the way to every name: one to six letters,
+     * with the short ones checked against the sorted prefixes and the longer ones
+     * against the Bloom filter.
+     */
+    private List<String> queryPrefixes() {
+        TreeSet<String> prefixes = new TreeSet<>();
+        for (String person : people) {
+            for (int length = 1; length <= person.length(); length++) {
+                prefixes.add(person.substring(0, length));
+            }
+        }
+        return new ArrayList<>(prefixes);
+    }
+
+    private boolean hasMatch(int albumIndex, String prefix) {
+        String key = prefix.toLowerCase();
+        String candidate = albumPeople.get(albumIndex).ceiling(key);
+        return candidate != null && candidate.startsWith(key);
+    }
+}